@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * Frame decoding and CRC checking, per analog channel count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private static final int FRAMES = 1024;
+
+    @Param({"1", "2", "3", "4", "5", "6"})
+    int channels;
+
+    private int[] analogChannels;
+    private int totalBytes;
+    private BITalinoFrameDecoder decoder;
+    private byte[] stream;
+    private byte[] frame;
+    private BITalinoFrameBlock block;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        analogChannels = Recordings.analogChannels(channels);
+        totalBytes = Recordings.totalBytes(channels);
+        decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+        stream = Recordings.frames(channels, FRAMES);
+        frame = new byte[totalBytes];
+        block = new BITalinoFrameBlock(FRAMES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void crc(final Blackhole bh) {
+        for (int offset = 0; offset < stream.length; offset += totalBytes)
+            bh.consume(BITalinoCRC.check(stream, offset, totalBytes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decodeFrame(final Blackhole bh) throws IOException, BITalinoException {
+        for (int offset = 0; offset < stream.length; offset += totalBytes) {
+            System.arraycopy(stream, offset, frame, 0, totalBytes);
+            bh.consume(BITalinoFrameDecoder.decode(frame, analogChannels, totalBytes));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public BITalinoFrameBlock decodeBlock() {
+        block.clear();
+        for (int offset = 0; offset < stream.length; offset += totalBytes)
+            BITalinoFrameDecoder.decode(stream, offset, analogChannels, totalBytes, block);
+        return block;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public BITalinoFrameBlock decodeBlockSpecialised() {
+        block.clear();
+        for (int offset = 0; offset < stream.length; offset += totalBytes)
+            decoder.decode(stream, offset, block);
+        return block;
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+
+/**
+ * End-to-end reads through {@link BITalinoDevice} from an in-memory stream.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadBenchmark {
+
+    private static final int SAMPLES = 100;
+
+    @Param({"1", "6"})
+    int channels;
+
+    /**
+     * Bytes handed out per stream read: 8 is roughly one frame per read, 1024
+     * a busy link with a full OS buffer.
+     */
+    @Param({"8", "1024"})
+    int chunk;
+
+    private BITalinoDevice device;
+    private BITalinoFrameBlock block;
+
+    @Setup(Level.Trial)
+    public void setUp() throws BITalinoException {
+        device = new BITalinoDevice(1000, Recordings.analogChannels(channels));
+        device.open(new Recordings.RepeatingInputStream(
+                Recordings.frames(channels, 4096), chunk), new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+        });
+        device.start();
+        block = new BITalinoFrameBlock(SAMPLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public BITalinoFrame[] readFrames() throws BITalinoException {
+        return device.read(SAMPLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public BITalinoFrameBlock readBlock() throws BITalinoException {
+        device.read(block);
+        return block;
+    }
+
+}
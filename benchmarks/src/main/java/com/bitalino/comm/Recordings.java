@@ -0,0 +1,105 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Synthetic wire streams shared by the benchmarks.
+ */
+final class Recordings {
+
+    private static final int[] TOTAL_BYTES = {3, 4, 6, 7, 8, 8};
+
+    private Recordings() {
+    }
+
+    static int[] analogChannels(final int channels) {
+        final int[] analogChannels = new int[channels];
+        for (int i = 0; i < channels; i++)
+            analogChannels[i] = i;
+        return analogChannels;
+    }
+
+    static int totalBytes(final int channels) {
+        return TOTAL_BYTES[channels - 1];
+    }
+
+    /**
+     * @return <tt>frames</tt> valid frames of pseudo-random samples.
+     */
+    static byte[] frames(final int channels, final int frames) {
+        final int totalBytes = totalBytes(channels);
+        final byte[] stream = new byte[frames * totalBytes];
+        final int[] analog = new int[6];
+        final Random random = new Random(42);
+        for (int n = 0; n < frames; n++) {
+            for (int k = 0; k < channels; k++)
+                analog[k] = random.nextInt(1024);
+            BITalinoFrameEncoder.encode(stream, n * totalBytes, totalBytes, n,
+                    random.nextInt(16), analog, channels);
+        }
+        return stream;
+    }
+
+    /**
+     * Flips one random bit in a fraction <tt>rate</tt> of the frames.
+     */
+    static byte[] corrupt(final byte[] stream, final int totalBytes, final double rate) {
+        final byte[] corrupted = stream.clone();
+        final Random random = new Random(7);
+        for (int frame = 0; frame < stream.length / totalBytes; frame++)
+            if (random.nextDouble() < rate)
+                corrupted[frame * totalBytes + random.nextInt(totalBytes)] ^= 1 << random.nextInt(8);
+        return corrupted;
+    }
+
+    /**
+     * Endlessly replays a stream, handing out at most <tt>chunk</tt> bytes per
+     * read like a serial or RFCOMM link.
+     */
+    static final class RepeatingInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int chunk;
+        private int pos;
+
+        RepeatingInputStream(final byte[] data, final int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            final int value = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            final int n = Math.min(Math.min(len, chunk), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk;
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Bulk reading of a stream where a fraction of the frames is corrupted, so
+ * the reader has to resynchronise.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResyncBenchmark {
+
+    private static final int FRAMES = 4096;
+    private static final int BATCH = 256;
+
+    @Param({"4", "6"})
+    int channels;
+
+    @Param({"0", "0.001", "0.01", "0.1"})
+    double corruptionRate;
+
+    private BITalinoTransport stream;
+    private BITalinoFrameReader reader;
+    private BITalinoFrameBlock block;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int totalBytes = Recordings.totalBytes(channels);
+        stream = new BITalinoStreamTransport(new Recordings.RepeatingInputStream(
+                Recordings.corrupt(Recordings.frames(channels, FRAMES), totalBytes,
+                        corruptionRate), 1024), new ByteArrayOutputStream());
+        reader = new BITalinoFrameReader(BITalinoFrameDecoder.forChannels(
+                Recordings.analogChannels(channels)), BITalinoFrameReader.DEFAULT_FRAMES,
+                new BITalinoMetrics());
+        block = new BITalinoFrameBlock(BATCH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BITalinoFrameBlock read() throws IOException {
+        block.clear();
+        reader.read(stream, block, BATCH);
+        return block;
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Scalar, bulk and lookup-table ECG conversion of one second of 1000 Hz data.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+
+    private static final int SAMPLES = 1000;
+
+    private short[] raw;
+    private double[] out;
+    private SensorLookupTable table;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        raw = new short[SAMPLES];
+        final Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++)
+            raw[i] = (short) random.nextInt(1024);
+        out = new double[SAMPLES];
+        table = SensorLookupTable.get(SensorLookupTable.Sensor.ECG, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double[] scalar() {
+        for (int i = 0; i < SAMPLES; i++)
+            out[i] = SensorDataConverter.scaleECG(0, raw[i]);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double[] bulk() {
+        SensorDataConverter.scaleECG(0, raw, 0, SAMPLES, out, 0, true);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double[] bulkUnrounded() {
+        SensorDataConverter.scaleECG(0, raw, 0, SAMPLES, out, 0, false);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double[] lookupTable() {
+        table.convert(raw, 0, SAMPLES, out, 0);
+        return out;
+    }
+
+}
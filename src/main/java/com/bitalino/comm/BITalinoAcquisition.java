@@ -0,0 +1,331 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Streaming acquisition: a dedicated reader thread decodes frames from an
+ * open {@link BITalinoDevice} into a {@link BITalinoSampleRing}, so the
+ * processing thread drains samples in batches and never waits on Bluetooth
+ * I/O.
+ * <p>
+ * Samples can also be pushed to {@link BITalinoFrameListener}s, each with its
+ * own batch size and maximum latency, from the same single read of the
+ * device: a feedback loop may take every 10 samples within 5 ms while bulk
+ * storage takes them 1000 at a time.
+ */
+public class BITalinoAcquisition {
+
+    /**
+     * Default ring capacity, in samples (about 8 seconds at 1000 Hz).
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Maximum number of samples the reader thread decodes per batch.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * Longest rest between polls while a listener holds a partial batch.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * How long {@link #stop()} waits for the reader thread to leave a read
+     * before interrupting it, and then before closing the device under it.
+     */
+    private static final long STOP_MILLIS = BITalinoDevice.DEFAULT_COMMAND_TIMEOUT;
+
+    private final BITalinoDevice device;
+    private final BITalinoSampleRing ring;
+    private final BITalinoFrameBlock batch;
+    private final int[] analogChannels;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    private volatile boolean running;
+    private volatile BITalinoException failure;
+    private Thread thread;
+
+    /**
+     * @param device an open {@link com.bitalino.comm.BITalinoDevice}.
+     */
+    public BITalinoAcquisition(final BITalinoDevice device) {
+        this(device, DEFAULT_CAPACITY, BITalinoOverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param device an open {@link com.bitalino.comm.BITalinoDevice}.
+     * @param capacity the ring capacity, in samples.
+     * @param policy what to do when the consumer falls behind.
+     */
+    public BITalinoAcquisition(final BITalinoDevice device, final int capacity,
+                               final BITalinoOverflowPolicy policy) {
+        checkNotNull(device, "Device was not provided.");
+        checkNotNull(policy, "Overflow policy was not provided.");
+        this.device = device;
+        this.ring = new BITalinoSampleRing(capacity, device.getAnalogChannels(), policy);
+        this.batch = new BITalinoFrameBlock(Math.min(BATCH, ring.getCapacity()));
+        this.analogChannels = device.getAnalogChannels();
+    }
+
+    /**
+     * Registers a listener, which may be done while acquiring.
+     * <p>
+     * A listener that throws is removed; acquisition goes on for the others.
+     * Samples are still published to the ring, which must be drained as well
+     * under {@link BITalinoOverflowPolicy#BLOCK}. Partial batches are delivered
+     * when acquisition stops.
+     *
+     * @param listener the {@link com.bitalino.comm.BITalinoFrameListener}.
+     * @param batchSize the number of samples per batch.
+     * @param maxLatency how long the oldest sample of a partial batch may wait
+     *          before the batch is delivered anyway, zero meaning to deliver
+     *          whatever each read brings.
+     * @param unit the unit of <tt>maxLatency</tt>.
+     */
+    public void addListener(final BITalinoFrameListener listener, final int batchSize,
+                            final long maxLatency, final TimeUnit unit) {
+        checkNotNull(listener, "Listener was not provided.");
+        checkArgument(maxLatency >= 0, "Maximum latency must not be negative.");
+        subscriptions.add(new Subscription(listener, batchSize, unit.toNanos(maxLatency)));
+    }
+
+    /**
+     * Unregisters a listener. Samples it has not been delivered yet are dropped.
+     *
+     * @param listener the {@link com.bitalino.comm.BITalinoFrameListener}.
+     */
+    public void removeListener(final BITalinoFrameListener listener) {
+        for (Subscription subscription : subscriptions)
+            if (subscription.listener == listener)
+                subscriptions.remove(subscription);
+    }
+
+    /**
+     * Starts acquisition on the device and the reader thread.
+     *
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public synchronized void start() throws BITalinoException {
+        checkState(thread == null, "Acquisition already started.");
+        device.start();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquire();
+            }
+        }, "BITalino acquisition");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the reader thread, then acquisition on the device.
+     * <p>
+     * While the device streams, the reader thread leaves its read within a
+     * frame period. If it has not left after that and {@link #STOP_MILLIS}, it
+     * is interrupted, which also closes an interruptible channel, and if the
+     * read cannot be interrupted either, closing the device unblocks it.
+     *
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public synchronized void stop() throws BITalinoException {
+        if (thread == null)
+            return;
+        running = false;
+        ring.close();
+        boolean interrupted = false;
+        try {
+            thread.join(STOP_MILLIS + 1000 / device.getSamplerate());
+            if (thread.isAlive()) {
+                thread.interrupt();
+                thread.join(STOP_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        try {
+            device.stop();
+        } finally {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            thread = null;
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves the samples acquired so far into <tt>block</tt>, as many as fit,
+     * without blocking.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock} owned by the caller.
+     * @return the number of samples appended.
+     * @throws com.bitalino.comm.BITalinoException if the reader thread failed
+     *           and every sample acquired before the failure was drained.
+     */
+    public int drain(final BITalinoFrameBlock block) throws BITalinoException {
+        final int drained = ring.drain(block, block.getRemaining());
+        if (drained == 0 && failure != null)
+            throw failure;
+        return drained;
+    }
+
+    /**
+     * @return <tt>true</tt> while the reader thread is acquiring.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the analog channels acquired, in ascending order.
+     */
+    int[] getAnalogChannels() {
+        return analogChannels;
+    }
+
+    /**
+     * @return the ring the reader thread publishes to.
+     */
+    public BITalinoSampleRing getRing() {
+        return ring;
+    }
+
+    private void acquire() {
+        try {
+            while (running) {
+                batch.clear();
+                final long deadline = nextDeadline();
+                if (deadline == Long.MAX_VALUE) {
+                    device.readAvailable(batch);
+                } else if (device.poll(batch) == 0) {
+                    // a partial batch is waiting: never block past its deadline
+                    final long wait = deadline - System.nanoTime();
+                    if (wait > 0)
+                        LockSupport.parkNanos(this, Math.min(wait, IDLE_NANOS));
+                }
+                dispatch();
+                if (batch.size > 0)
+                    ring.publish(batch);
+            }
+        } catch (BITalinoException e) {
+            if (running)
+                failure = e;
+        } catch (InterruptedException e) {
+            // stopped while waiting for space
+        } finally {
+            running = false;
+            for (Subscription subscription : subscriptions) {
+                try {
+                    subscription.flush();
+                    if (failure != null)
+                        subscription.listener.onFailure(failure);
+                } catch (RuntimeException e) {
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the latest batch to every listener, delivering the batches that
+     * filled up or waited long enough.
+     */
+    private void dispatch() {
+        final long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            try {
+                int from = 0;
+                while (from < batch.size) {
+                    final BITalinoFrameBlock block = subscription.block;
+                    if (block.size == 0)
+                        subscription.firstNanos = now;
+                    final int count = Math.min(block.getRemaining(), batch.size - from);
+                    block.append(batch, from, count, analogChannels);
+                    from += count;
+                    if (block.getRemaining() == 0)
+                        subscription.flush();
+                }
+                if (subscription.block.size > 0
+                        && now - subscription.firstNanos >= subscription.maxLatencyNanos)
+                    subscription.flush();
+            } catch (RuntimeException e) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * @return the earliest time a partial batch is due, or
+     *         {@link Long#MAX_VALUE} if none is waiting.
+     */
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions)
+            if (subscription.block.size > 0)
+                deadline = Math.min(deadline,
+                        subscription.firstNanos + subscription.maxLatencyNanos);
+        return deadline;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("running", running)
+                .add("ring", ring).add("listeners", subscriptions.size()).toString();
+    }
+
+    private static final class Subscription {
+
+        final BITalinoFrameListener listener;
+        final BITalinoFrameBlock block;
+        final long maxLatencyNanos;
+        long firstNanos;
+
+        Subscription(final BITalinoFrameListener listener, final int batchSize,
+                     final long maxLatencyNanos) {
+            this.listener = listener;
+            this.block = new BITalinoFrameBlock(batchSize);
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        void flush() {
+            if (block.size > 0) {
+                try {
+                    listener.onFrames(block);
+                } finally {
+                    block.clear();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * Table-driven CRC-4 (x^4 + x + 1) used to validate BITalino frames.
+ * <p>
+ * The CRC occupies the low nibble of the last byte of each frame and is
+ * computed over the whole frame with that nibble zeroed. Instead of shifting
+ * the register one bit at a time, each byte is folded into the 4-bit register
+ * with a single lookup in a precomputed 16x256 table.
+ */
+final class BITalinoCRC {
+
+    /**
+     * Next register state, indexed by <tt>(state &lt;&lt; 8) | byte</tt>.
+     */
+    private static final byte[] TABLE = new byte[16 * 256];
+
+    static {
+        for (int state = 0; state < 16; state++)
+            for (int value = 0; value < 256; value++)
+                TABLE[(state << 8) | value] = (byte) shift(state, value);
+    }
+
+    private BITalinoCRC() {
+    }
+
+    /**
+     * Computes the CRC of the frame starting at <tt>offset</tt>.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the frame.
+     * @param totalBytes the frame length.
+     * @return the 4-bit CRC.
+     */
+    static int compute(final byte[] buffer, final int offset, final int totalBytes) {
+        final int last = offset + totalBytes - 1;
+        int state = 0;
+        for (int i = offset; i < last; i++)
+            state = TABLE[(state << 8) | (buffer[i] & 0xFF)];
+        // the CRC nibble itself is fed as zeros
+        return TABLE[(state << 8) | (buffer[last] & 0xF0)];
+    }
+
+    /**
+     * Validates the frame starting at <tt>offset</tt> against the CRC it carries.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the frame.
+     * @param totalBytes the frame length.
+     * @return <tt>true</tt> if the frame CRC matches, <tt>false</tt> otherwise.
+     */
+    static boolean check(final byte[] buffer, final int offset, final int totalBytes) {
+        return compute(buffer, offset, totalBytes) == (buffer[offset + totalBytes - 1] & 0x0F);
+    }
+
+    /**
+     * Shifts the 8 bits of <tt>value</tt>, most significant first, through the
+     * CRC register.
+     */
+    private static int shift(final int state, final int value) {
+        int x0 = state & 0x1, x1 = (state >> 1) & 0x1, x2 = (state >> 2) & 0x1,
+                x3 = (state >> 3) & 0x1, out;
+        for (int bit = 7; bit > -1; bit--) {
+            out = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = out ^ x0;
+            x0 = ((value >> bit) & 0x01) ^ out;
+        }
+        return (x3 << 3) | (x2 << 2) | (x1 << 1) | x0;
+    }
+
+}
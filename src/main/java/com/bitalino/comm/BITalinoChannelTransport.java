@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link BITalinoTransport} over NIO channels, such as a
+ * {@link java.nio.channels.SocketChannel} to a serial-to-TCP gateway.
+ * <p>
+ * Bytes are read through a direct {@link java.nio.ByteBuffer}, sparing the
+ * channel a temporary copy of its own. A
+ * {@link java.nio.channels.SelectableChannel} is switched to non-blocking mode
+ * so that {@link #available()} can read ahead without blocking, which is how a
+ * {@link BITalinoEventLoop} serves many devices from one thread;
+ * {@link #read(byte[], int, int)} then waits for data on a private selector.
+ */
+public class BITalinoChannelTransport implements BITalinoTransport {
+
+    /**
+     * Default size of the read buffer, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer command = ByteBuffer.allocateDirect(1);
+    private Selector selector;
+
+    /**
+     * @param channel a channel both read from and written to.
+     * @throws java.io.IOException if a selectable channel cannot be made
+     *           non-blocking.
+     */
+    public BITalinoChannelTransport(final ByteChannel channel) throws IOException {
+        this(channel, channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param in the channel to read from.
+     * @param out the channel to write commands to.
+     * @param bufferSize the size of the read buffer, in bytes.
+     * @throws java.io.IOException if a selectable channel cannot be made
+     *           non-blocking.
+     */
+    public BITalinoChannelTransport(final ReadableByteChannel in,
+                                    final WritableByteChannel out, final int bufferSize)
+            throws IOException {
+        checkNotNull(in, "Input channel was not provided.");
+        checkNotNull(out, "Output channel was not provided.");
+        this.in = in;
+        this.out = out;
+        this.readBuffer = ByteBuffer.allocateDirect(bufferSize);
+        readBuffer.flip();
+        if (in instanceof SelectableChannel)
+            ((SelectableChannel) in).configureBlocking(false);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (!readBuffer.hasRemaining()) {
+            final int read = fill();
+            if (read < 0)
+                return -1;
+            if (read == 0)
+                awaitReadable();
+        }
+        final int n = Math.min(len, readBuffer.remaining());
+        readBuffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (!readBuffer.hasRemaining() && in instanceof SelectableChannel && fill() < 0)
+            throw new EOFException();
+        return readBuffer.remaining();
+    }
+
+    @Override
+    public synchronized void write(final int data) throws IOException {
+        command.clear();
+        command.put((byte) data).flip();
+        while (command.hasRemaining())
+            if (out.write(command) == 0)
+                LockSupport.parkNanos(this, POLL_NANOS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+            if (selector != null)
+                selector.close();
+        }
+    }
+
+    /**
+     * @return the channel read from.
+     */
+    public ReadableByteChannel getChannel() {
+        return in;
+    }
+
+    /**
+     * Blocks until the non-blocking channel has data to read.
+     */
+    private void awaitReadable() throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            ((SelectableChannel) in).register(selector, SelectionKey.OP_READ);
+        }
+        selector.select();
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * Reads once from the channel into the emptied read buffer.
+     */
+    private int fill() throws IOException {
+        readBuffer.clear();
+        try {
+            return in.read(readBuffer);
+        } finally {
+            readBuffer.flip();
+        }
+    }
+
+}
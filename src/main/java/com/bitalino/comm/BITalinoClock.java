@@ -0,0 +1,378 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Timestamps the samples read from one device in host time, and estimates how
+ * far the board's crystal drifts from the host clock.
+ * <p>
+ * Samples are numbered from the first one timestamped, counting every sample
+ * the 4-bit sequence numbers show to be lost. A loss of 16 or more samples
+ * between two reads does not show in the sequence numbers, so the number of
+ * wraps is estimated from the time between the reads, but only once the read
+ * is late by more than one wrap plus the transport jitter seen so far: a late
+ * burst is far more common than a lost wrap, and a wrap counted wrongly is
+ * never taken back.
+ * <p>
+ * Each call to {@link #timestamp(BITalinoFrameBlock, int, long, long[])} adds
+ * one point, the number of the last sample read against the host time it
+ * arrived, to an exponentially weighted least-squares fit. The fit gives the
+ * actual sampling period, and a sample's timestamp is its number on the
+ * fitted line, so timestamps include the mean transport latency but not its
+ * jitter. Until the points span {@link #MIN_SPAN_SECONDS} the nominal period is
+ * used. Timestamps are {@link System#nanoTime()} values and so comparable
+ * across devices; they never decrease.
+ * <p>
+ * Not thread-safe.
+ */
+public class BITalinoClock {
+
+    /**
+     * Default time constant of the fit, in seconds.
+     */
+    public static final int DEFAULT_WINDOW_SECONDS = 60;
+
+    /**
+     * Span of samples, in seconds, before the fitted period replaces the
+     * nominal one.
+     */
+    public static final int MIN_SPAN_SECONDS = 1;
+
+    /**
+     * Largest deviation of the fitted period from the nominal one, in parts
+     * per million; crystals are far better than this, so anything beyond is
+     * transport jitter.
+     */
+    static final double MAX_DRIFT_PPM = 1000;
+
+    /**
+     * Points to fit before the jitter is known well enough to infer wraps.
+     */
+    static final int MIN_POINTS = 16;
+
+    /**
+     * Standard deviations of the fit residuals a read must be late by, beyond
+     * one wrap, for wraps to be inferred.
+     */
+    static final double JITTER_SIGMAS = 6;
+
+    private final int samplerate;
+    private final double nominalPeriod;
+    private final double window;
+
+    private boolean started;
+    private int prevSeq;
+    private long sampleCount;
+    private long lostSamples;
+    private long lastTime;
+
+    // weighted fit, relative to the first point
+    private long originSample;
+    private long originNanos;
+    private double lastX;
+    private double weight;
+    private double meanX;
+    private double meanY;
+    private double varX;
+    private double covXY;
+    private double period;
+    private int points;
+    private double residualWeight;
+    private double residualSquares;
+    private double residualPeak;
+
+    /**
+     * Creates a clock fitting over {@link #DEFAULT_WINDOW_SECONDS}.
+     *
+     * @param samplerate the nominal sampling frequency (Hz).
+     */
+    public BITalinoClock(final int samplerate) {
+        this(samplerate, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param samplerate the nominal sampling frequency (Hz).
+     * @param windowSeconds the time constant of the fit: points this much
+     *          older weigh <tt>1/e</tt> as much as the latest.
+     */
+    public BITalinoClock(final int samplerate, final int windowSeconds) {
+        checkArgument(samplerate > 0, "Sampling rate must be positive.");
+        checkArgument(windowSeconds >= MIN_SPAN_SECONDS,
+                "Window must span at least %s seconds.", MIN_SPAN_SECONDS);
+        this.samplerate = samplerate;
+        this.nominalPeriod = (double) TimeUnit.SECONDS.toNanos(1) / samplerate;
+        this.window = (double) windowSeconds * samplerate;
+        reset();
+    }
+
+    /**
+     * Timestamps the samples of <tt>block</tt> from <tt>from</tt> to its end,
+     * which must be the next samples read from the device.
+     *
+     * @param block the samples read.
+     * @param from the index of the first sample to timestamp.
+     * @param arrivalNanos the {@link System#nanoTime()} at which the last
+     *          sample was read.
+     * @param times receives the timestamp of sample <tt>i</tt> at index
+     *          <tt>i</tt>.
+     * @return the number of samples lost before and between these samples.
+     */
+    public int timestamp(final BITalinoFrameBlock block, final int from,
+                         final long arrivalNanos, final long[] times) {
+        checkArgument(from >= 0 && from <= block.size, "No sample %s.", from);
+        checkArgument(times.length >= block.size, "Times array is too short.");
+        if (from == block.size)
+            return 0;
+
+        int lost = number(block, from, times);
+        // whole wraps lost between reads only show in the time that passed
+        final long wraps = wraps(sampleCount - 1, arrivalNanos);
+        if (wraps > 0) {
+            for (int i = from; i < block.size; i++)
+                times[i] += 16 * wraps;
+            sampleCount += 16 * wraps;
+            lost += 16 * wraps;
+        }
+        lostSamples += lost;
+
+        fit(sampleCount - 1, arrivalNanos);
+        place(block, from, times);
+        return lost;
+    }
+
+    /**
+     * Timestamps samples that waited on the host before being read, such as
+     * a backlog left in the OS buffer while the reader held back: their
+     * arrival says nothing about when they were acquired, so they are placed
+     * on the line fitted so far, counting only the losses the sequence numbers
+     * show.
+     *
+     * @param block the samples read.
+     * @param from the index of the first sample to timestamp.
+     * @param times receives the timestamp of sample <tt>i</tt> at index
+     *          <tt>i</tt>.
+     * @return the number of samples lost before and between these samples.
+     * @throws java.lang.IllegalStateException if no sample was timestamped
+     *           with its arrival time yet.
+     */
+    public int timestamp(final BITalinoFrameBlock block, final int from, final long[] times) {
+        checkArgument(from >= 0 && from <= block.size, "No sample %s.", from);
+        checkArgument(times.length >= block.size, "Times array is too short.");
+        checkState(isFitted(), "No sample was timestamped on arrival yet.");
+        final int lost = number(block, from, times);
+        lostSamples += lost;
+        place(block, from, times);
+        return lost;
+    }
+
+    /**
+     * Numbers samples from the sequence numbers, into <tt>times</tt>.
+     *
+     * @return the number of samples the sequence numbers show to be lost.
+     */
+    private int number(final BITalinoFrameBlock block, final int from, final long[] times) {
+        long n = sampleCount;
+        int lost = 0;
+        for (int i = from; i < block.size; i++) {
+            final int seq = block.seq[i];
+            if (started) {
+                final int gap = (seq - prevSeq - 1) & 0xf;
+                n += gap;
+                lost += gap;
+            }
+            started = true;
+            prevSeq = seq;
+            times[i] = n++;
+        }
+        sampleCount = n;
+        return lost;
+    }
+
+    /**
+     * Replaces the sample numbers in <tt>times</tt> with their time on the
+     * fitted line, never decreasing.
+     */
+    private void place(final BITalinoFrameBlock block, final int from, final long[] times) {
+        for (int i = from; i < block.size; i++) {
+            final long time = Math.max(timeOf(times[i]), lastTime + 1);
+            times[i] = time;
+            lastTime = time;
+        }
+    }
+
+    /**
+     * Adds a point to the fit.
+     *
+     * @param sample the number of the last sample read.
+     * @param nanos the host time it arrived.
+     */
+    void fit(final long sample, final long nanos) {
+        if (weight == 0) {
+            originSample = sample;
+            originNanos = nanos;
+        }
+        final double x = sample - originSample;
+        final double y = nanos - originNanos;
+        if (weight > 0) {
+            final double decay = Math.exp(-(x - lastX) / window);
+            final double residual = sample - sampleAt(nanos);
+            residualWeight = residualWeight * decay + 1;
+            residualSquares = residualSquares * decay + residual * residual;
+            residualPeak = Math.max(Math.abs(residual), residualPeak * decay);
+            weight *= decay;
+            varX *= decay;
+            covXY *= decay;
+        }
+        points++;
+        weight += 1;
+        final double dx = x - meanX;
+        meanX += dx / weight;
+        final double dy = y - meanY;
+        meanY += dy / weight;
+        varX += dx * (x - meanX);
+        covXY += dx * (y - meanY);
+        lastX = x;
+
+        period = nominalPeriod;
+        if (x >= MIN_SPAN_SECONDS * samplerate && varX > 0) {
+            final double bound = nominalPeriod * MAX_DRIFT_PPM / 1e6;
+            period = Math.max(nominalPeriod - bound, Math.min(nominalPeriod + bound,
+                    covXY / varX));
+        }
+    }
+
+    /**
+     * @param sample the number of a sample, from 0 for the first one
+     *          timestamped.
+     * @return the host time at which the sample was acquired, on the fitted
+     *         line, without the monotonic adjustment.
+     */
+    public long timeOf(final long sample) {
+        checkArgument(weight > 0, "No sample was timestamped yet.");
+        return originNanos + Math.round(meanY + (sample - originSample - meanX) * period);
+    }
+
+    /**
+     * @param nanos a host time, once a point was fitted.
+     * @return the number of the sample that would arrive at <tt>nanos</tt>.
+     */
+    double sampleAt(final long nanos) {
+        return originSample + meanX + (nanos - originNanos - meanY) / period;
+    }
+
+    /**
+     * Estimates the whole wraps of sequence numbers lost before a read.
+     *
+     * @param sample the number the last sample read would have if no wrap
+     *          was lost.
+     * @param nanos the host time it arrived.
+     * @return the number of wraps lost, 0 unless the read is late by more
+     *         than one wrap plus the jitter.
+     */
+    long wraps(final long sample, final long nanos) {
+        if (points < MIN_POINTS)
+            return 0;
+        final double late = sampleAt(nanos) - sample;
+        return late < 16 + jitter() ? 0 : Math.round(late / 16);
+    }
+
+    /**
+     * @return the transport jitter, in samples: the larger of
+     *         {@link #JITTER_SIGMAS} standard deviations of the fit residuals
+     *         and the largest recent residual.
+     */
+    private double jitter() {
+        return residualWeight == 0 ? 0 : Math.max(residualPeak,
+                JITTER_SIGMAS * Math.sqrt(residualSquares / residualWeight));
+    }
+
+    /**
+     * @return the transport jitter that a read must exceed, beyond one wrap,
+     *         to count as lost wraps, in nanoseconds.
+     */
+    public double getJitterNanos() {
+        return jitter() * period;
+    }
+
+    /**
+     * @return <tt>true</tt> once a point was fitted.
+     */
+    boolean isFitted() {
+        return weight > 0;
+    }
+
+    /**
+     * Forgets every sample and the fit.
+     */
+    public void reset() {
+        started = false;
+        sampleCount = 0;
+        lostSamples = 0;
+        lastTime = Long.MIN_VALUE;
+        weight = 0;
+        meanX = meanY = varX = covXY = 0;
+        lastX = 0;
+        period = nominalPeriod;
+        points = 0;
+        residualWeight = residualSquares = residualPeak = 0;
+    }
+
+    /**
+     * @return the number of samples acquired by the board so far, lost ones
+     *         included.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the number of samples lost so far.
+     */
+    public long getLostSamples() {
+        return lostSamples;
+    }
+
+    /**
+     * @return the estimated sampling period, in host nanoseconds.
+     */
+    public double getPeriodNanos() {
+        return period;
+    }
+
+    /**
+     * @return how much slower than nominal the board samples, in parts per
+     *         million of host time; negative if it samples faster.
+     */
+    public double getDriftPpm() {
+        return (period / nominalPeriod - 1) * 1e6;
+    }
+
+    public int getSamplerate() {
+        return samplerate;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("samplerate", samplerate)
+                .add("samples", sampleCount).add("lost", lostSamples)
+                .add("driftPpm", getDriftPpm()).toString();
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends commands to a board from a single background thread, in the order
+ * they were submitted, so that callers never wait on the transport.
+ * <p>
+ * A command without a reply completes as soon as it is written, so any number
+ * can be in flight while acquisition goes on. A command with a reply holds the
+ * queue until the reply is read: by this thread through the socket's frame
+ * reader while the board is idle, or by whichever thread reads frames while it
+ * is acquiring (see {@link BITalinoResponseParser}).
+ */
+final class BITalinoCommandQueue {
+
+    private final BITalinoSocket socket;
+    private final BITalinoFrameDecoder decoder;
+    private final ListeningExecutorService executor;
+
+    /**
+     * @param socket the {@link BITalinoSocket} to send commands on.
+     * @param decoder the {@link BITalinoFrameDecoder} frames are read with.
+     */
+    BITalinoCommandQueue(final BITalinoSocket socket, final BITalinoFrameDecoder decoder) {
+        this.socket = socket;
+        this.decoder = decoder;
+        this.executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("BITalino commands %d")
+                        .setDaemon(true).build()));
+    }
+
+    /**
+     * Queues a command that has no reply.
+     *
+     * @param command the command byte.
+     * @return a future completing once the command was written.
+     */
+    ListenableFuture<Void> send(final int command) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws BITalinoException {
+                socket.write(command);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues the version command.
+     *
+     * @param streaming whether the board is acquiring.
+     * @param timeoutNanos how long to wait for the reply, zero meaning forever.
+     * @return a future completing with the version, without its newline.
+     */
+    ListenableFuture<String> requestVersion(final boolean streaming, final long timeoutNanos) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws BITalinoException {
+                return request(0x07, socket.getReplies().expectVersion(), streaming,
+                        timeoutNanos);
+            }
+        });
+    }
+
+    /**
+     * Queues the state command.
+     *
+     * @param streaming whether the board is acquiring.
+     * @param timeoutNanos how long to wait for the reply, zero meaning forever.
+     * @return a future completing with the decoded reply.
+     */
+    ListenableFuture<BITalinoState> requestState(final boolean streaming,
+                                                 final long timeoutNanos) {
+        return submit(new Callable<BITalinoState>() {
+            @Override
+            public BITalinoState call() throws BITalinoException {
+                return request(0x0B, socket.getReplies().expectState(), streaming,
+                        timeoutNanos);
+            }
+        });
+    }
+
+    /**
+     * Lets commands already queued run and rejects new ones.
+     */
+    void close() {
+        executor.shutdown();
+    }
+
+    private <T> ListenableFuture<T> submit(final Callable<T> command) {
+        try {
+            return executor.submit(command);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(
+                    new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED));
+        }
+    }
+
+    private <T> T request(final int command, final ListenableFuture<T> reply,
+                          final boolean streaming, final long timeoutNanos)
+            throws BITalinoException {
+        try {
+            socket.write(command);
+            if (!streaming && !socket.awaitReply(decoder, timeoutNanos))
+                throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+            return timeoutNanos == 0 ? Uninterruptibles.getUninterruptibly(reply)
+                    : Uninterruptibles.getUninterruptibly(reply, timeoutNanos,
+                    TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        } catch (CancellationException e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        } catch (ExecutionException e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        } finally {
+            socket.getReplies().cancel();
+        }
+    }
+
+}
@@ -24,25 +24,46 @@
  */
 package com.bitalino.comm;
 
-import java.io.DataInputStream;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * This class represents a BITalino device and provides methods to interact with
  * said device.
+ * <p>
+ * Every command is written by a single background thread in the order it was
+ * issued, so the asynchronous commands ({@link #trigger(int[])},
+ * {@link #setBatteryThreshold(int)}, {@link #requestState()} and
+ * {@link #requestVersion()}) return at once and may be issued from any thread
+ * while another one reads frames.
  */
 public class BITalinoDevice {
 
-    private static final long SLEEP = 500;
+    /**
+     * Default time to wait for the device to acknowledge a command.
+     */
+    public static final long DEFAULT_COMMAND_TIMEOUT = 1000;
 
     private final int[] analogChannels;
     private final int samplerate;
-    private final int totalBytes;
+    private final BITalinoFrameDecoder decoder;
+    private final BITalinoMetrics metrics = new BITalinoMetrics();
 
-    private BITalinoSocket socket = null;
+    private volatile BITalinoSocket socket = null;
+    private volatile BITalinoCommandQueue commands = null;
+    private volatile boolean acquiring;
+    private BITalinoGapFill gapFill = BITalinoGapFill.NONE;
+    private long commandTimeoutNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_COMMAND_TIMEOUT);
 
     /**
      * @param samplerate
@@ -69,10 +90,19 @@ public class BITalinoDevice {
         Arrays.sort(analogChannels);
         this.analogChannels = analogChannels;
 
-        // calculate totalBytes based on number of used analog channels
-        totalBytes = analogChannels.length <= 4 ? (int) Math
-                .ceil((12f + 10f * analogChannels.length) / 8) : (int) Math
-                .ceil((52f + 6f * (analogChannels.length - 4)) / 8);
+        // the frame length, and so the decoder, depends only on the number of
+        // used analog channels
+        decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+    }
+
+    /**
+     * @param channels the number of analog channels acquired.
+     * @return the length, in bytes, of a frame carrying <tt>channels</tt>
+     *         analog channels.
+     */
+    static int totalBytes(final int channels) {
+        return channels <= 4 ? (int) Math.ceil((12f + 10f * channels) / 8)
+                : (int) Math.ceil((52f + 6f * (channels - 4)) / 8);
     }
 
     /**
@@ -81,6 +111,11 @@ public class BITalinoDevice {
      * <p>
      * If everything goes smoothly, automatically set the <tt>samplerate</tt> in
      * the device.
+     * <p>
+     * If <tt>is</tt> does not override {@link InputStream#available()}, the
+     * command timeout cannot be enforced: {@link #start()} and
+     * {@link #version()} block until the device answers, and
+     * {@link #poll(BITalinoFrameBlock)} blocks until data arrives.
      *
      * @param is a {@link java.io.InputStream} object.
      * @param os a {@link java.io.OutputStream} object.
@@ -88,13 +123,23 @@ public class BITalinoDevice {
      */
     public void open(final InputStream is, final OutputStream os)
             throws BITalinoException {
-        try {
-            socket = new BITalinoSocket(new DataInputStream(is), os);
-            Thread.sleep(SLEEP);
-        } catch (Exception e) {
-            e.printStackTrace(System.err);
-            close();
-        }
+        open(new BITalinoStreamTransport(is, os));
+    }
+
+    /**
+     * Provided that a valid connection to BITalino is established, open the
+     * corresponding {@link com.bitalino.comm.BITalinoTransport}.
+     * <p>
+     * If everything goes smoothly, automatically set the <tt>samplerate</tt> in
+     * the device.
+     *
+     * @param transport a {@link com.bitalino.comm.BITalinoTransport} object.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public void open(final BITalinoTransport transport) throws BITalinoException {
+        socket = new BITalinoSocket(transport, metrics);
+        socket.setGapFill(gapFill, new BITalinoClock(samplerate));
+        commands = new BITalinoCommandQueue(socket, decoder);
 
         // set samplerate on the bluetooth device
         try {
@@ -114,7 +159,7 @@ public class BITalinoDevice {
                     break;
             }
             command = (command << 6) | 0x03;
-            socket.write(command);
+            await(commands.send(command));
         } catch (Exception e) {
             e.printStackTrace(System.err);
             throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
@@ -123,19 +168,30 @@ public class BITalinoDevice {
 
     /**
      * Starts acquisition of predefined analog channels.
+     * <p>
+     * The command is acknowledged by the first valid frame the device sends,
+     * which is left in place for the next read. A command timeout of zero skips
+     * the wait.
      *
-     * @throws com.bitalino.comm.BITalinoException if any.
+     * @throws com.bitalino.comm.BITalinoException if any, or if no frame
+     *           arrives within the command timeout.
      */
     public void start() throws BITalinoException {
         int bit = 1;
         for (int channel : analogChannels)
             bit = bit | 1 << (2 + channel);
         try {
-            socket.write(bit);
+            await(commands.send(bit));
         } catch (Exception e) {
             throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
         }
 
+        // at low sampling rates the first frame takes up to a period to arrive
+        if (commandTimeoutNanos > 0
+                && !socket.awaitFrame(decoder, commandTimeoutNanos
+                + TimeUnit.SECONDS.toNanos(1) / samplerate))
+            throw new BITalinoException(BITalinoErrorTypes.DEVICE_NOT_IN_ACQUISITION_MODE);
+        acquiring = true;
     }
 
     /**
@@ -144,9 +200,10 @@ public class BITalinoDevice {
      * @throws com.bitalino.comm.BITalinoException if any.
      */
     public void stop() throws BITalinoException {
+        acquiring = false;
         try {
-            socket.write(0);
-            Thread.sleep(SLEEP);
+            // queued behind any pending trigger, so those reach the board first
+            await(commands.send(0));
             close();
         } catch (Exception e) {
             throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
@@ -160,34 +217,151 @@ public class BITalinoDevice {
      */
     private void close() throws BITalinoException {
         try {
+            commands.close();
             socket.close();
         } catch (Exception e) {
             throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
         } finally {
             socket = null;
+            commands = null;
         }
     }
 
     /**
-     * Retrieves device version.
+     * Retrieves device version, waiting up to the command timeout for it.
      * <p>
-     * <strong>ATTENTION:</strong> Works only in idle mode!
+     * <strong>ATTENTION:</strong> While acquiring, see {@link #requestVersion()};
+     * must not then be called from the thread reading frames.
      *
      * @return a {@link java.lang.String} object.
      * @throws com.bitalino.comm.BITalinoException if any.
      */
     public String version() throws BITalinoException {
+        return await(requestVersion());
+    }
+
+    /**
+     * Queues a request for the device version.
+     * <p>
+     * <strong>ATTENTION:</strong> Works in acquisition mode only on BITalino 2
+     * boards whose version was read in idle mode. The reply is then picked out
+     * of the frames by the thread reading them, without losing any.
+     *
+     * @return a future completing with the version, without its line
+     *         terminator, or failing if no reply arrives within the command
+     *         timeout.
+     * @throws com.bitalino.comm.BITalinoException if the device cannot answer
+     *           in its current mode.
+     */
+    public ListenableFuture<String> requestVersion() throws BITalinoException {
+        checkReplies();
+        return commands().requestVersion(acquiring, commandTimeoutNanos);
+    }
+
+    /**
+     * Queues a request for the device state, supported by BITalino 2 boards.
+     * <p>
+     * <strong>ATTENTION:</strong> Works in acquisition mode only once the
+     * version was read in idle mode. The reply is then picked out of the
+     * frames by the thread reading them, without losing any.
+     *
+     * @return a future completing with the {@link BITalinoState}, or failing if
+     *         no valid reply arrives within the command timeout.
+     * @throws com.bitalino.comm.BITalinoException if the device cannot answer
+     *           in its current mode.
+     */
+    public ListenableFuture<BITalinoState> requestState() throws BITalinoException {
+        checkReplies();
+        return commands().requestState(acquiring, commandTimeoutNanos);
+    }
+
+    /**
+     * Queues a new battery threshold, below which the battery LED lights up.
+     * <p>
+     * <strong>ATTENTION:</strong> Works only in idle mode!
+     *
+     * @param threshold from 0 (3.4 V) to 63 (3.8 V).
+     * @return a future completing once the command was sent.
+     * @throws com.bitalino.comm.BITalinoException if <tt>threshold</tt> is out
+     *           of range or the device is acquiring.
+     */
+    public ListenableFuture<Void> setBatteryThreshold(final int threshold)
+            throws BITalinoException {
+        if (threshold < 0 || threshold > 63)
+            throw new BITalinoException(BITalinoErrorTypes.INVALID_THRESHOLD);
+        checkIdle();
+        return commands().send(threshold << 2);
+    }
+
+    /**
+     * Queues new states for the digital outputs. Returns without waiting for
+     * the transport, so it is safe to call between reads at any sampling rate.
+     * <p>
+     * <strong>ATTENTION:</strong> Works only in acquisition mode! BITalino 2
+     * boards, once their version was read, have only digital outputs 0 and 1.
+     *
+     * @param digitalOutputs the state of digital outputs 0 to 3, zero meaning
+     *          low and anything else high.
+     * @return a future completing once the command was sent.
+     * @throws com.bitalino.comm.BITalinoException if <tt>digitalOutputs</tt>
+     *           does not have 4 items or the device is not acquiring.
+     */
+    public ListenableFuture<Void> trigger(final int[] digitalOutputs)
+            throws BITalinoException {
+        if (digitalOutputs == null || digitalOutputs.length != 4)
+            throw new BITalinoException(BITalinoErrorTypes.INVALID_DIGITAL_CHANNELS);
+        if (!acquiring)
+            throw new BITalinoException(BITalinoErrorTypes.DEVICE_NOT_IN_ACQUISITION_MODE);
+        final boolean bitalino2 = socket.getReplies().isBITalino2();
+        int command = bitalino2 ? 0xB3 : 0x03;
+        for (int pos = 0; pos < (bitalino2 ? 2 : 4); pos++)
+            if (digitalOutputs[pos] != 0)
+                command |= 1 << (2 + pos);
+        return commands().send(command);
+    }
+
+    private void checkIdle() throws BITalinoException {
+        if (acquiring)
+            throw new BITalinoException(BITalinoErrorTypes.DEVICE_NOT_IDLE);
+    }
+
+    /**
+     * Older boards take the version and state commands for triggers while
+     * acquiring.
+     */
+    private void checkReplies() throws BITalinoException {
+        final BITalinoSocket socket = this.socket;
+        if (acquiring && (socket == null || !socket.getReplies().isBITalino2()))
+            throw new BITalinoException(BITalinoErrorTypes.DEVICE_NOT_IDLE);
+    }
+
+    /**
+     * Reads may race with {@link #stop()} on another thread, which drops the
+     * socket.
+     */
+    private BITalinoSocket socket() throws BITalinoException {
+        final BITalinoSocket socket = this.socket;
+        if (socket == null)
+            throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
+        return socket;
+    }
+
+    private BITalinoCommandQueue commands() throws BITalinoException {
+        final BITalinoCommandQueue commands = this.commands;
+        if (commands == null)
+            throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
+        return commands;
+    }
+
+    /**
+     * Waits for a queued command, rethrowing its failure.
+     */
+    private static <T> T await(final ListenableFuture<T> future) throws BITalinoException {
         try {
-            socket.write(7);
-            ByteBuffer buffer = ByteBuffer.allocate(30);
-            // read until '\n' arrives
-            byte b = 0;
-            while ((char) (b = (byte) socket.getInputStream().read()) != '\n')
-                buffer.put(b);
-            // return a minified array
-            buffer.flip();
-            return new String(buffer.array());
-        } catch (Exception e) {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BITalinoException)
+                throw (BITalinoException) e.getCause();
             throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
         }
     }
@@ -201,7 +375,122 @@ public class BITalinoDevice {
      */
     public BITalinoFrame[] read(final int numberOfSamples)
             throws BITalinoException {
-        return socket.read(analogChannels, totalBytes, numberOfSamples);
+        return socket().read(decoder, numberOfSamples);
+    }
+
+    /**
+     * Reads data from open socket into a compact, columnar batch, which takes
+     * a tenth of the memory of the equivalent {@link BITalinoFrame}s.
+     *
+     * @param numberOfSamples a int.
+     * @return a {@link com.bitalino.comm.BITalinoFrameBatch} with numberOfSamples samples.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public BITalinoFrameBatch readBatch(final int numberOfSamples)
+            throws BITalinoException {
+        return socket().readBatch(decoder, numberOfSamples);
+    }
+
+    /**
+     * Reads data from open socket into a reusable block, replacing its contents
+     * with <tt>block.getCapacity()</tt> samples. Allocates nothing in steady
+     * state.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock} owned by the caller.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public void read(final BITalinoFrameBlock block) throws BITalinoException {
+        block.clear();
+        socket().read(decoder, block, block.getCapacity());
+    }
+
+    /**
+     * Reads whatever samples are available from open socket, blocking only
+     * until at least one sample arrives, and appends them to <tt>block</tt>.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock} owned by the caller.
+     * @return the number of samples appended.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public int readAvailable(final BITalinoFrameBlock block) throws BITalinoException {
+        return socket().readAvailable(decoder, block);
+    }
+
+    /**
+     * Appends whatever samples can be decoded without blocking to
+     * <tt>block</tt>.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock} owned by the caller.
+     * @return the number of samples appended, possibly zero.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public int poll(final BITalinoFrameBlock block) throws BITalinoException {
+        return socket().poll(decoder, block);
+    }
+
+    /**
+     * Sets how long to wait for the device to acknowledge a command, zero
+     * meaning not to wait.
+     *
+     * @param timeout the timeout, defaults to {@link #DEFAULT_COMMAND_TIMEOUT}
+     *          milliseconds.
+     * @param unit the unit of <tt>timeout</tt>.
+     */
+    public void setCommandTimeout(final long timeout, final TimeUnit unit) {
+        checkArgument(timeout >= 0, "Timeout must not be negative.");
+        this.commandTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets what reads insert in place of the frames that sequence numbers, or
+     * the time they took to arrive, show to be lost.
+     *
+     * @param gapFill the policy, defaults to {@link BITalinoGapFill#NONE}.
+     * @throws com.bitalino.comm.BITalinoException if acquiring.
+     */
+    public void setGapFill(final BITalinoGapFill gapFill) throws BITalinoException {
+        checkNotNull(gapFill, "Gap fill policy was not provided.");
+        checkIdle();
+        this.gapFill = gapFill;
+        if (socket != null)
+            socket.setGapFill(gapFill, new BITalinoClock(samplerate));
+    }
+
+    /**
+     * @return the policy for lost frames.
+     */
+    public BITalinoGapFill getGapFill() {
+        return gapFill;
+    }
+
+    /**
+     * @return the transport this device was opened on, or <tt>null</tt> if
+     *         closed.
+     */
+    BITalinoTransport getTransport() {
+        return socket == null ? null : socket.getTransport();
+    }
+
+    /**
+     * @return the {@link com.bitalino.comm.BITalinoMetrics} of every read from
+     *         this device, live.
+     */
+    public BITalinoMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the analog channels acquired, in ascending order.
+     */
+    public int[] getAnalogChannels() {
+        return analogChannels.clone();
+    }
+
+    /**
+     * @return the sampling frequency (Hz).
+     */
+    public int getSamplerate() {
+        return samplerate;
     }
 
 }
@@ -0,0 +1,271 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Acquires from many {@link BITalinoDevice}s opened on
+ * {@link BITalinoChannelTransport}s with a single thread and a
+ * {@link java.nio.channels.Selector}.
+ * <p>
+ * Each device must already be acquiring. Its channel is read only when the
+ * selector reports data, which is decoded straight into one
+ * {@link BITalinoSampleRing} per device. A device under
+ * {@link BITalinoOverflowPolicy#BLOCK} stops being selected while its ring is
+ * full, leaving its data in the OS buffer.
+ */
+public class BITalinoEventLoop {
+
+    /**
+     * Maximum number of samples decoded from one device per read.
+     */
+    private static final int BATCH = 256;
+    private static final long PAUSED_MILLIS = 1;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Registration> pending =
+            new ConcurrentLinkedQueue<Registration>();
+    private final List<Registration> registrations = 
+            new CopyOnWriteArrayList<Registration>();
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Opens the selector and starts the event loop thread.
+     *
+     * @throws java.io.IOException if the selector cannot be opened.
+     */
+    public BITalinoEventLoop() throws IOException {
+        selector = Selector.open();
+        running = true;
+        thread = new ThreadFactoryBuilder().setNameFormat("BITalino event loop")
+                .setDaemon(true).build().newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                });
+        thread.start();
+    }
+
+    /**
+     * Serves an acquiring device, buffering up to
+     * {@link BITalinoAcquisition#DEFAULT_CAPACITY} samples and dropping the
+     * oldest when full.
+     *
+     * @param device an acquiring {@link com.bitalino.comm.BITalinoDevice}.
+     * @return the buffer the device's samples are published to.
+     */
+    public BITalinoSampleRing register(final BITalinoDevice device) {
+        return register(device, BITalinoAcquisition.DEFAULT_CAPACITY,
+                BITalinoOverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Serves an acquiring device.
+     *
+     * @param device an acquiring {@link com.bitalino.comm.BITalinoDevice}
+     *          opened on a {@link BITalinoChannelTransport} over a
+     *          {@link java.nio.channels.SelectableChannel}.
+     * @param capacity the number of samples buffered for this device.
+     * @param policy what to do when this device's buffer is full.
+     * @return the buffer the device's samples are published to.
+     */
+    public BITalinoSampleRing register(final BITalinoDevice device, final int capacity,
+                                       final BITalinoOverflowPolicy policy) {
+        checkNotNull(device, "Device was not provided.");
+        checkNotNull(policy, "Overflow policy was not provided.");
+        checkState(running, "Event loop was closed.");
+        final BITalinoTransport transport = device.getTransport();
+        checkArgument(transport instanceof BITalinoChannelTransport
+                && ((BITalinoChannelTransport) transport).getChannel() instanceof SelectableChannel,
+                "Device must be open on a selectable channel.");
+        final SelectableChannel channel =
+                (SelectableChannel) ((BITalinoChannelTransport) transport).getChannel();
+
+        final BITalinoSampleRing ring = new BITalinoSampleRing(capacity,
+                device.getAnalogChannels(), policy);
+        pending.add(new Registration(device, channel, ring, policy));
+        selector.wakeup();
+        return ring;
+    }
+
+    /**
+     * Stops the event loop thread and closes every ring. Devices are left to
+     * the caller to stop.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param ring a buffer returned by {@link #register(BITalinoDevice)}.
+     * @return the error that stopped acquisition into that buffer, if any.
+     */
+    public BITalinoException getFailure(final BITalinoSampleRing ring) {
+        for (Registration registration : registrations)
+            if (registration.ring == ring)
+                return registration.failure;
+        return null;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                Registration registration;
+                while ((registration = pending.poll()) != null) {
+                    registrations.add(registration);
+                    try {
+                        registration.key = registration.channel.register(selector,
+                                SelectionKey.OP_READ, registration);
+                    } catch (IOException e) {
+                        fail(registration, new BITalinoException(
+                                BITalinoErrorTypes.LOST_COMMUNICATION));
+                        continue;
+                    }
+                    // bytes already buffered by the transport are not selected
+                    read(registration);
+                }
+                // poll only while some full ring may be drained behind our back
+                if (resume())
+                    selector.select(PAUSED_MILLIS);
+                else
+                    selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable())
+                        read((Registration) key.attachment());
+                }
+            }
+        } catch (IOException e) {
+            for (Registration registration : registrations)
+                if (registration.failure == null)
+                    registration.failure =
+                            new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        } finally {
+            for (Registration registration : registrations)
+                registration.ring.close();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Selects again devices whose full ring has since been drained.
+     *
+     * @return whether any device is still paused.
+     */
+    private boolean resume() {
+        boolean paused = false;
+        for (Registration registration : registrations) {
+            final SelectionKey key = registration.key;
+            if (key == null || !key.isValid() || key.interestOps() != 0)
+                continue;
+            if (registration.isFull())
+                paused = true;
+            else
+                key.interestOps(SelectionKey.OP_READ);
+        }
+        return paused;
+    }
+
+    /**
+     * Stops serving one device, leaving the others untouched.
+     */
+    private void fail(final Registration registration, final BITalinoException e) {
+        registration.failure = e;
+        if (registration.key != null)
+            registration.key.cancel();
+        registration.ring.close();
+    }
+
+    private void read(final Registration registration) {
+        final BITalinoFrameBlock batch = registration.batch;
+        try {
+            while (true) {
+                if (registration.isFull()) {
+                    registration.key.interestOps(0);
+                    return;
+                }
+                batch.clear();
+                if (registration.device.poll(batch) == 0)
+                    return;
+                registration.ring.publish(batch);
+            }
+        } catch (BITalinoException e) {
+            fail(registration, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("devices", registrations.size())
+                .add("running", running).toString();
+    }
+
+    private static final class Registration {
+
+        final BITalinoDevice device;
+        final SelectableChannel channel;
+        final BITalinoSampleRing ring;
+        final BITalinoOverflowPolicy policy;
+        final BITalinoFrameBlock batch;
+        SelectionKey key;
+        volatile BITalinoException failure;
+
+        Registration(final BITalinoDevice device, final SelectableChannel channel,
+                     final BITalinoSampleRing ring, final BITalinoOverflowPolicy policy) {
+            this.device = device;
+            this.channel = channel;
+            this.ring = ring;
+            this.policy = policy;
+            this.batch = new BITalinoFrameBlock(Math.min(BATCH, ring.getCapacity()));
+        }
+
+        boolean isFull() {
+            return policy == BITalinoOverflowPolicy.BLOCK
+                    && ring.getCapacity() - ring.size() < batch.getCapacity();
+        }
+
+    }
+
+}
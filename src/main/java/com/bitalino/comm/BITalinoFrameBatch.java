@@ -0,0 +1,349 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Compact, columnar storage for buffered samples: one packed <tt>short</tt>
+ * column per acquired analog channel only, the four digital inputs of each
+ * sample as a nibble in a bitset, a <tt>byte</tt> sequence column, and a bit
+ * per sample marking those filled in place of lost frames.
+ * <p>
+ * A sample of four analog channels takes just over 9.5 bytes, against well
+ * over 100 for a {@link BITalinoFrame}. {@link #slice(int, int)} returns a
+ * view sharing the same columns, so batches can be split and handed between
+ * stages without copying. A batch is filled by appending until it reaches its
+ * capacity; views cannot be appended to.
+ */
+public class BITalinoFrameBatch {
+
+    private final int[] analogChannels;
+    private final int[] columns;
+    private final short[][] analog;
+    private final long[] digital;
+    private final long[] filled;
+    private final byte[] seq;
+    private final int offset;
+    private final int capacity;
+    private final boolean view;
+    private int size;
+
+    /**
+     * @param analogChannels the analog channels acquired.
+     * @param capacity the maximum number of samples.
+     */
+    public BITalinoFrameBatch(final int[] analogChannels, final int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive.");
+        checkArgument(analogChannels.length >= 1 && analogChannels.length <= 6,
+                "Between 1 and 6 analog channels are required.");
+        this.analogChannels = analogChannels.clone();
+        Arrays.sort(this.analogChannels);
+        this.columns = new int[6];
+        Arrays.fill(columns, -1);
+        for (int k = 0; k < this.analogChannels.length; k++) {
+            checkArgument(this.analogChannels[k] >= 0 && this.analogChannels[k] < 6
+                    && columns[this.analogChannels[k]] < 0, "Invalid analog channels.");
+            columns[this.analogChannels[k]] = k;
+        }
+        this.analog = new short[this.analogChannels.length][capacity];
+        this.digital = new long[(capacity + 15) / 16];
+        this.filled = new long[(capacity + 63) / 64];
+        this.seq = new byte[capacity];
+        this.offset = 0;
+        this.capacity = capacity;
+        this.view = false;
+    }
+
+    private BITalinoFrameBatch(final BITalinoFrameBatch batch, final int from, final int to) {
+        this.analogChannels = batch.analogChannels;
+        this.columns = batch.columns;
+        this.analog = batch.analog;
+        this.digital = batch.digital;
+        this.filled = batch.filled;
+        this.seq = batch.seq;
+        this.offset = batch.offset + from;
+        this.capacity = to - from;
+        this.size = to - from;
+        this.view = true;
+    }
+
+    /**
+     * Copies samples of a {@link BITalinoFrameBlock} into a new batch.
+     *
+     * @param block the samples.
+     * @param analogChannels the analog channels acquired.
+     * @return a {@link com.bitalino.comm.BITalinoFrameBatch} holding every
+     *         sample of <tt>block</tt>.
+     */
+    public static BITalinoFrameBatch of(final BITalinoFrameBlock block,
+                                        final int[] analogChannels) {
+        final BITalinoFrameBatch batch = new BITalinoFrameBatch(analogChannels,
+                Math.max(1, block.size));
+        batch.append(block, 0, block.size);
+        return batch;
+    }
+
+    /**
+     * Copies {@link BITalinoFrame}s into a new batch.
+     *
+     * @param frames the samples.
+     * @param analogChannels the analog channels acquired.
+     * @return a {@link com.bitalino.comm.BITalinoFrameBatch} holding every
+     *         frame.
+     */
+    public static BITalinoFrameBatch of(final BITalinoFrame[] frames,
+                                        final int[] analogChannels) {
+        final BITalinoFrameBatch batch = new BITalinoFrameBatch(analogChannels,
+                Math.max(1, frames.length));
+        for (BITalinoFrame frame : frames)
+            batch.append(frame);
+        return batch;
+    }
+
+    /**
+     * Appends <tt>count</tt> samples of <tt>block</tt>, starting at
+     * <tt>from</tt>.
+     *
+     * @param block the samples.
+     * @param from the index of the first sample in <tt>block</tt>.
+     * @param count the number of samples.
+     */
+    public void append(final BITalinoFrameBlock block, final int from, final int count) {
+        checkState(!view, "Views cannot be appended to.");
+        checkPositionIndexes(from, from + count, block.size);
+        checkArgument(count <= capacity - size, "Batch has no room for %s samples.", count);
+        for (int k = 0; k < analogChannels.length; k++)
+            System.arraycopy(block.analog[analogChannels[k]], from, analog[k], size, count);
+        for (int i = 0; i < count; i++) {
+            seq[size + i] = (byte) block.seq[from + i];
+            setDigital(size + i, block.digital[from + i]);
+            setFilled(size + i, block.anyFilled && block.filled[from + i]);
+        }
+        size += count;
+    }
+
+    /**
+     * Appends one {@link BITalinoFrame}.
+     *
+     * @param frame the sample.
+     */
+    public void append(final BITalinoFrame frame) {
+        checkState(!view, "Views cannot be appended to.");
+        checkState(size < capacity, "Batch is full.");
+        for (int k = 0; k < analogChannels.length; k++)
+            analog[k][size] = (short) frame.getAnalog(analogChannels[k]);
+        seq[size] = (byte) frame.getSequence();
+        int bits = 0;
+        for (int pos = 0; pos < 4; pos++)
+            bits |= (frame.getDigital(pos) & 0x01) << (3 - pos);
+        setDigital(size, bits);
+        setFilled(size, false);
+        size++;
+    }
+
+    private void setDigital(final int index, final int bits) {
+        final int shift = (index & 15) << 2;
+        digital[index >> 4] = digital[index >> 4] & ~(0xFL << shift)
+                | (long) (bits & 0xF) << shift;
+    }
+
+    private void setFilled(final int index, final boolean value) {
+        if (value)
+            filled[index >> 6] |= 1L << index;
+        else
+            filled[index >> 6] &= ~(1L << index);
+    }
+
+    /**
+     * Discards all samples, keeping the columns.
+     */
+    public void clear() {
+        checkState(!view, "Views cannot be cleared.");
+        size = 0;
+    }
+
+    /**
+     * Returns a view of samples <tt>from</tt> (inclusive) to <tt>to</tt>
+     * (exclusive), sharing this batch's columns.
+     *
+     * @param from the first sample.
+     * @param to the sample after the last.
+     * @return a {@link com.bitalino.comm.BITalinoFrameBatch} view.
+     */
+    public BITalinoFrameBatch slice(final int from, final int to) {
+        checkPositionIndexes(from, to, size);
+        return new BITalinoFrameBatch(this, from, to);
+    }
+
+    /**
+     * @return the number of samples held.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of samples.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the analog channels acquired, in ascending order.
+     */
+    public int[] getAnalogChannels() {
+        return analogChannels.clone();
+    }
+
+    /**
+     * @param index the sample index.
+     * @return the sequence number of the sample.
+     */
+    public int getSequence(final int index) {
+        checkElementIndex(index, size);
+        return seq[offset + index];
+    }
+
+    /**
+     * @param channel the analog channel (0 to 5).
+     * @param index the sample index.
+     * @return the value of the channel in the sample.
+     */
+    public int getAnalog(final int channel, final int index) {
+        checkElementIndex(index, size);
+        return analog[column(channel)][offset + index];
+    }
+
+    /**
+     * @param pos the digital input (0 to 3).
+     * @param index the sample index.
+     * @return the value of the input in the sample.
+     */
+    public int getDigital(final int pos, final int index) {
+        return (getDigital(index) >> (3 - pos)) & 0x01;
+    }
+
+    /**
+     * @param index the sample index.
+     * @return the digital inputs of the sample, digital input 0 in bit 3 down
+     *         to digital input 3 in bit 0.
+     */
+    public int getDigital(final int index) {
+        checkElementIndex(index, size);
+        final int i = offset + index;
+        return (int) (digital[i >> 4] >>> ((i & 15) << 2)) & 0xF;
+    }
+
+    /**
+     * @param index the sample index.
+     * @return <tt>true</tt> if the sample was inserted in place of a lost
+     *         frame rather than received.
+     */
+    public boolean isFilled(final int index) {
+        checkElementIndex(index, size);
+        final int i = offset + index;
+        return (filled[i >> 6] & 1L << i) != 0;
+    }
+
+    /**
+     * @param channel the analog channel (0 to 5).
+     * @return a read-only view of the channel's column, without copying.
+     */
+    public ShortBuffer getAnalog(final int channel) {
+        return ShortBuffer.wrap(analog[column(channel)], offset, size).slice()
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the samples of a channel.
+     *
+     * @param channel the analog channel (0 to 5).
+     * @param dst the array to copy to.
+     * @param dstOffset the index in <tt>dst</tt> of the first sample.
+     */
+    public void copyAnalog(final int channel, final short[] dst, final int dstOffset) {
+        System.arraycopy(analog[column(channel)], offset, dst, dstOffset, size);
+    }
+
+    /**
+     * Appends every sample to <tt>block</tt>.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock} with room for
+     *          {@link #getSize()} samples.
+     */
+    public void copyTo(final BITalinoFrameBlock block) {
+        checkArgument(block.getRemaining() >= size, "Block has no room for %s samples.", size);
+        for (int k = 0; k < analogChannels.length; k++)
+            System.arraycopy(analog[k], offset, block.analog[analogChannels[k]], block.size, size);
+        for (int i = 0; i < size; i++) {
+            block.seq[block.size + i] = seq[offset + i];
+            block.digital[block.size + i] = (byte) getDigital(i);
+            if (isFilled(i)) {
+                block.filled[block.size + i] = true;
+                block.anyFilled = true;
+            }
+        }
+        block.size += size;
+    }
+
+    /**
+     * Copies one sample into a new {@link BITalinoFrame}.
+     *
+     * @param index the sample index.
+     * @return a {@link com.bitalino.comm.BITalinoFrame} object.
+     */
+    public BITalinoFrame toFrame(final int index) {
+        final BITalinoFrame frame = new BITalinoFrame();
+        frame.setSequence(getSequence(index));
+        for (int k = 0; k < analogChannels.length; k++)
+            frame.setAnalog(analogChannels[k], analog[k][offset + index]);
+        final int bits = getDigital(index);
+        for (int pos = 0; pos < 4; pos++)
+            frame.setDigital(pos, (bits >> (3 - pos)) & 0x01);
+        return frame;
+    }
+
+    /**
+     * @return all samples held as {@link com.bitalino.comm.BITalinoFrame}s.
+     */
+    public BITalinoFrame[] toFrames() {
+        final BITalinoFrame[] frames = new BITalinoFrame[size];
+        for (int i = 0; i < size; i++)
+            frames[i] = toFrame(i);
+        return frames;
+    }
+
+    private int column(final int channel) {
+        checkArgument(channel >= 0 && channel < 6 && columns[channel] >= 0,
+                "Channel %s was not acquired.", channel);
+        return columns[channel];
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("size", size).add("capacity", capacity)
+                .add("analogChannels", Arrays.toString(analogChannels))
+                .add("view", view).toString();
+    }
+
+}
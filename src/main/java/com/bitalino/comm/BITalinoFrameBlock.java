@@ -0,0 +1,194 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reusable, fixed-capacity block of decoded samples stored as a
+ * structure-of-arrays.
+ * <p>
+ * Unlike {@link BITalinoFrame}, which allocates an object and two arrays per
+ * sample, a block is allocated once by the caller and refilled on every read,
+ * so that steady-state acquisition produces no garbage. Analog columns are
+ * indexed by channel (0 to 5), the same way as
+ * {@link BITalinoFrame#getAnalog(int)}; columns of channels that were not
+ * acquired are left at zero.
+ * <p>
+ * Samples inserted by a {@link BITalinoGapFill} policy in place of lost
+ * frames are marked as filled; positions past the size are never marked.
+ */
+public class BITalinoFrameBlock {
+
+    final int[] seq;
+    final short[][] analog;
+    final byte[] digital;
+    final boolean[] filled;
+    boolean anyFilled;
+    int size;
+
+    /**
+     * @param capacity
+     *          the maximum number of samples the block can hold.
+     */
+    public BITalinoFrameBlock(final int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive.");
+        this.seq = new int[capacity];
+        this.analog = new short[6][capacity];
+        this.digital = new byte[capacity];
+        this.filled = new boolean[capacity];
+    }
+
+    /**
+     * @return the maximum number of samples the block can hold.
+     */
+    public int getCapacity() {
+        return seq.length;
+    }
+
+    /**
+     * @return the number of samples currently held.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of samples that can still be appended.
+     */
+    public int getRemaining() {
+        return seq.length - size;
+    }
+
+    /**
+     * Discards all samples, keeping the backing arrays.
+     */
+    public void clear() {
+        if (anyFilled) {
+            Arrays.fill(filled, 0, size, false);
+            anyFilled = false;
+        }
+        size = 0;
+    }
+
+    /**
+     * Appends <tt>count</tt> samples of <tt>source</tt>, starting at
+     * <tt>from</tt>, copying only the given analog channels.
+     */
+    void append(final BITalinoFrameBlock source, final int from, final int count,
+                final int[] analogChannels) {
+        System.arraycopy(source.seq, from, seq, size, count);
+        System.arraycopy(source.digital, from, digital, size, count);
+        if (source.anyFilled) {
+            System.arraycopy(source.filled, from, filled, size, count);
+            anyFilled = true;
+        }
+        for (int channel : analogChannels)
+            System.arraycopy(source.analog[channel], from, analog[channel], size, count);
+        size += count;
+    }
+
+    /**
+     * @return the backing sequence column; only the first {@link #getSize()}
+     *         positions are valid.
+     */
+    public int[] getSequence() {
+        return seq;
+    }
+
+    /**
+     * @param channel the analog channel (0 to 5).
+     * @return the backing column for <tt>channel</tt>; only the first
+     *         {@link #getSize()} positions are valid.
+     */
+    public short[] getAnalog(final int channel) {
+        return analog[channel];
+    }
+
+    /**
+     * Digital inputs packed one sample per byte, digital input 0 in bit 3 down
+     * to digital input 3 in bit 0.
+     *
+     * @return the backing digital column; only the first {@link #getSize()}
+     *         positions are valid.
+     */
+    public byte[] getDigital() {
+        return digital;
+    }
+
+    /**
+     * @return the backing column marking filled samples; only the first
+     *         {@link #getSize()} positions are valid.
+     */
+    public boolean[] getFilled() {
+        return filled;
+    }
+
+    public int getSequence(final int index) {
+        return seq[index];
+    }
+
+    public int getAnalog(final int channel, final int index) {
+        return analog[channel][index];
+    }
+
+    public int getDigital(final int pos, final int index) {
+        return (digital[index] >> (3 - pos)) & 0x01;
+    }
+
+    /**
+     * @param index the sample index.
+     * @return <tt>true</tt> if the sample was inserted in place of a lost
+     *         frame rather than received.
+     */
+    public boolean isFilled(final int index) {
+        return filled[index];
+    }
+
+    /**
+     * Copies one sample into a new {@link BITalinoFrame}.
+     *
+     * @param index the sample index.
+     * @return a {@link com.bitalino.comm.BITalinoFrame} object.
+     */
+    public BITalinoFrame toFrame(final int index) {
+        final BITalinoFrame frame = new BITalinoFrame();
+        frame.setSequence(seq[index]);
+        for (int channel = 0; channel < 6; channel++)
+            frame.setAnalog(channel, analog[channel][index]);
+        for (int pos = 0; pos < 4; pos++)
+            frame.setDigital(pos, getDigital(pos, index));
+        return frame;
+    }
+
+    /**
+     * @return all samples held as {@link com.bitalino.comm.BITalinoFrame}s.
+     */
+    public BITalinoFrame[] toFrames() {
+        final BITalinoFrame[] frames = new BITalinoFrame[size];
+        for (int i = 0; i < size; i++)
+            frames[i] = toFrame(i);
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("size", size)
+                .add("capacity", seq.length).toString();
+    }
+
+}
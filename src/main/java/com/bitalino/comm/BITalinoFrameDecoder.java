@@ -28,8 +28,62 @@ import java.io.IOException;
 
 /**
  * {@link BITalinoFrame} decoder.
+ * <p>
+ * Besides the generic static methods, which look the frame layout up on every
+ * call, there is one decoder instance per analog channel count, obtained with
+ * {@link #forChannels(int[])}. Each reads its fixed byte offsets in straight
+ * line code, with the target columns resolved once at construction, so the
+ * acquisition loop only ever sees a single implementation and the JIT can
+ * inline all of it.
  */
-final class BITalinoFrameDecoder {
+abstract class BITalinoFrameDecoder {
+
+    final int[] analogChannels;
+    final int totalBytes;
+
+    BITalinoFrameDecoder(final int[] analogChannels) {
+        this.analogChannels = analogChannels;
+        this.totalBytes = BITalinoDevice.totalBytes(analogChannels.length);
+    }
+
+    /**
+     * Returns the decoder for frames carrying the given analog channels.
+     *
+     * @param analogChannels the analog channels acquired (1 to 6 of them).
+     * @return a decoder specialised for <tt>analogChannels.length</tt> channels.
+     */
+    static BITalinoFrameDecoder forChannels(final int[] analogChannels) {
+        switch (analogChannels.length) {
+            case 1:
+                return new OneChannel(analogChannels);
+            case 2:
+                return new TwoChannels(analogChannels);
+            case 3:
+                return new ThreeChannels(analogChannels);
+            case 4:
+                return new FourChannels(analogChannels);
+            case 5:
+                return new FiveChannels(analogChannels);
+            case 6:
+                return new SixChannels(analogChannels);
+            default:
+                throw new IllegalArgumentException("Between 1 and 6 analog channels are required.");
+        }
+    }
+
+    /**
+     * Decodes the frame starting at <tt>offset</tt> and appends it to
+     * <tt>block</tt>, exactly as
+     * {@link #decode(byte[], int, int[], int, BITalinoFrameBlock)} does for the
+     * same channels.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the frame.
+     * @param block the {@link com.bitalino.comm.BITalinoFrameBlock} to append to.
+     * @return <tt>true</tt> if the frame passed the CRC check and was appended,
+     *         <tt>false</tt> otherwise.
+     */
+    abstract boolean decode(byte[] buffer, int offset, BITalinoFrameBlock block);
 
     /**
      * Decode {@link com.bitalino.comm.BITalinoFrame}.
@@ -46,26 +100,11 @@ final class BITalinoFrameDecoder {
             BITalinoException {
 
         try {
-            BITalinoFrame frame = new BITalinoFrame();
+            BITalinoFrame frame;
             final int j = (totalBytes - 1);
-            int x0 = 0, x1 = 0, x2 = 0, x3 = 0, out = 0, inp = 0;
-            final int CRC = (buffer[j - 0] & 0x0F) & 0xFF;
-
-            // check CRC
-            for (int bytes = 0; bytes < totalBytes; bytes++) {
-                for (int bit = 7; bit > -1; bit--) {
-                    inp = (buffer[bytes]) >> bit & 0x01;
-                    if (bytes == (totalBytes - 1) && bit < 4)
-                        inp = 0;
-                    out = x3;
-                    x3 = x2;
-                    x2 = x1;
-                    x1 = out ^ x0;
-                    x0 = inp ^ out;
-                }
-            }
-            // if the message was correctly received, start decoding
-            if (CRC == ((x3 << 3) | (x2 << 2) | (x1 << 1) | x0)) {
+
+            // check CRC and, if the message was correctly received, start decoding
+            if (BITalinoCRC.check(buffer, 0, totalBytes)) {
                 frame = new BITalinoFrame();
                 frame.setSequence(((buffer[j - 0] & 0xF0) >> 4) & 0xf);
                 frame.setDigital(0, (buffer[j - 1] >> 7) & 0x01);
@@ -107,4 +146,232 @@ final class BITalinoFrameDecoder {
         }
     }
 
+    /**
+     * Decodes the frame starting at <tt>offset</tt> and appends it to
+     * <tt>block</tt>, without allocating.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the frame.
+     * @param analogChannels an array of int.
+     * @param totalBytes a int.
+     * @param block the {@link com.bitalino.comm.BITalinoFrameBlock} to append to.
+     * @return <tt>true</tt> if the frame passed the CRC check and was appended,
+     *         <tt>false</tt> otherwise.
+     */
+    static boolean decode(final byte[] buffer, final int offset,
+                          final int[] analogChannels, final int totalBytes,
+                          final BITalinoFrameBlock block) {
+        if (!BITalinoCRC.check(buffer, offset, totalBytes))
+            return false;
+
+        final int j = offset + totalBytes - 1;
+        final int i = block.size;
+        final short[][] analog = block.analog;
+        block.seq[i] = (buffer[j] >> 4) & 0xf;
+        block.digital[i] = (byte) ((buffer[j - 1] >> 4) & 0xf);
+
+        final int channels = analogChannels.length;
+        analog[analogChannels[0]][i] = (short) ((((buffer[j - 1] & 0xF) << 6) | ((buffer[j - 2] & 0XFC) >> 2)) & 0x3ff);
+        if (channels >= 2)
+            analog[analogChannels[1]][i] = (short) ((((buffer[j - 2] & 0x3) << 8) | (buffer[j - 3]) & 0xff) & 0x3ff);
+        if (channels >= 3)
+            analog[analogChannels[2]][i] = (short) ((((buffer[j - 4] & 0xff) << 2) | (((buffer[j - 5] & 0xc0) >> 6))) & 0x3ff);
+        if (channels >= 4)
+            analog[analogChannels[3]][i] = (short) ((((buffer[j - 5] & 0x3F) << 4) | ((buffer[j - 6] & 0xf0) >> 4)) & 0x3ff);
+        if (channels >= 5)
+            analog[analogChannels[4]][i] = (short) ((((buffer[j - 6] & 0x0F) << 2) | ((buffer[j - 7] & 0xc0) >> 6)) & 0x3f);
+        if (channels >= 6)
+            analog[analogChannels[5]][i] = (short) (buffer[j - 7] & 0x3F);
+        block.size = i + 1;
+        return true;
+    }
+
+    private static final class OneChannel extends BITalinoFrameDecoder {
+
+        private final int c0;
+
+        OneChannel(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 3))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b2 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b1 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b1 & 0xf) << 6) | ((b0 & 0xfc) >> 2));
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
+    private static final class TwoChannels extends BITalinoFrameDecoder {
+
+        private final int c0, c1;
+
+        TwoChannels(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+            c1 = analogChannels[1];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 4))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2],
+                    b3 = buffer[offset + 3];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b3 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b2 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b2 & 0xf) << 6) | ((b1 & 0xfc) >> 2));
+            analog[c1][i] = (short) (((b1 & 0x3) << 8) | (b0 & 0xff));
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
+    private static final class ThreeChannels extends BITalinoFrameDecoder {
+
+        private final int c0, c1, c2;
+
+        ThreeChannels(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+            c1 = analogChannels[1];
+            c2 = analogChannels[2];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 6))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2],
+                    b3 = buffer[offset + 3], b4 = buffer[offset + 4], b5 = buffer[offset + 5];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b5 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b4 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b4 & 0xf) << 6) | ((b3 & 0xfc) >> 2));
+            analog[c1][i] = (short) (((b3 & 0x3) << 8) | (b2 & 0xff));
+            analog[c2][i] = (short) (((b1 & 0xff) << 2) | ((b0 & 0xc0) >> 6));
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
+    private static final class FourChannels extends BITalinoFrameDecoder {
+
+        private final int c0, c1, c2, c3;
+
+        FourChannels(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+            c1 = analogChannels[1];
+            c2 = analogChannels[2];
+            c3 = analogChannels[3];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 7))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2],
+                    b3 = buffer[offset + 3], b4 = buffer[offset + 4], b5 = buffer[offset + 5],
+                    b6 = buffer[offset + 6];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b6 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b5 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b5 & 0xf) << 6) | ((b4 & 0xfc) >> 2));
+            analog[c1][i] = (short) (((b4 & 0x3) << 8) | (b3 & 0xff));
+            analog[c2][i] = (short) (((b2 & 0xff) << 2) | ((b1 & 0xc0) >> 6));
+            analog[c3][i] = (short) (((b1 & 0x3f) << 4) | ((b0 & 0xf0) >> 4));
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
+    private static final class FiveChannels extends BITalinoFrameDecoder {
+
+        private final int c0, c1, c2, c3, c4;
+
+        FiveChannels(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+            c1 = analogChannels[1];
+            c2 = analogChannels[2];
+            c3 = analogChannels[3];
+            c4 = analogChannels[4];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 8))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2],
+                    b3 = buffer[offset + 3], b4 = buffer[offset + 4], b5 = buffer[offset + 5],
+                    b6 = buffer[offset + 6], b7 = buffer[offset + 7];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b7 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b6 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b6 & 0xf) << 6) | ((b5 & 0xfc) >> 2));
+            analog[c1][i] = (short) (((b5 & 0x3) << 8) | (b4 & 0xff));
+            analog[c2][i] = (short) (((b3 & 0xff) << 2) | ((b2 & 0xc0) >> 6));
+            analog[c3][i] = (short) (((b2 & 0x3f) << 4) | ((b1 & 0xf0) >> 4));
+            analog[c4][i] = (short) (((b1 & 0x0f) << 2) | ((b0 & 0xc0) >> 6));
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
+    private static final class SixChannels extends BITalinoFrameDecoder {
+
+        private final int c0, c1, c2, c3, c4, c5;
+
+        SixChannels(final int[] analogChannels) {
+            super(analogChannels);
+            c0 = analogChannels[0];
+            c1 = analogChannels[1];
+            c2 = analogChannels[2];
+            c3 = analogChannels[3];
+            c4 = analogChannels[4];
+            c5 = analogChannels[5];
+        }
+
+        @Override
+        boolean decode(final byte[] buffer, final int offset, final BITalinoFrameBlock block) {
+            if (!BITalinoCRC.check(buffer, offset, 8))
+                return false;
+            final int b0 = buffer[offset], b1 = buffer[offset + 1], b2 = buffer[offset + 2],
+                    b3 = buffer[offset + 3], b4 = buffer[offset + 4], b5 = buffer[offset + 5],
+                    b6 = buffer[offset + 6], b7 = buffer[offset + 7];
+            final int i = block.size;
+            final short[][] analog = block.analog;
+            block.seq[i] = (b7 >> 4) & 0xf;
+            block.digital[i] = (byte) ((b6 >> 4) & 0xf);
+            analog[c0][i] = (short) (((b6 & 0xf) << 6) | ((b5 & 0xfc) >> 2));
+            analog[c1][i] = (short) (((b5 & 0x3) << 8) | (b4 & 0xff));
+            analog[c2][i] = (short) (((b3 & 0xff) << 2) | ((b2 & 0xc0) >> 6));
+            analog[c3][i] = (short) (((b2 & 0x3f) << 4) | ((b1 & 0xf0) >> 4));
+            analog[c4][i] = (short) (((b1 & 0x0f) << 2) | ((b0 & 0xc0) >> 6));
+            analog[c5][i] = (short) (b0 & 0x3f);
+            block.size = i + 1;
+            return true;
+        }
+
+    }
+
 }
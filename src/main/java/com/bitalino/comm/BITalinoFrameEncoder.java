@@ -0,0 +1,64 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * Encodes samples into BITalino wire frames, the inverse of
+ * {@link BITalinoFrameDecoder}.
+ */
+final class BITalinoFrameEncoder {
+
+    private BITalinoFrameEncoder() {
+    }
+
+    /**
+     * Encodes one frame, including its CRC, at <tt>offset</tt>.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the frame.
+     * @param totalBytes the frame length.
+     * @param seq the 4-bit sequence number.
+     * @param digital the digital inputs, digital input 0 in bit 3 down to
+     *          digital input 3 in bit 0.
+     * @param analog the analog values, in acquisition order; the first four
+     *          are 10-bit, the last two 6-bit.
+     * @param channels the number of analog channels acquired.
+     */
+    static void encode(final byte[] buffer, final int offset, final int totalBytes,
+                       final int seq, final int digital, final int[] analog,
+                       final int channels) {
+        final int j = offset + totalBytes - 1;
+        final int a0 = analog[0] & 0x3ff;
+        final int a1 = channels >= 2 ? analog[1] & 0x3ff : 0;
+        final int a2 = channels >= 3 ? analog[2] & 0x3ff : 0;
+        final int a3 = channels >= 4 ? analog[3] & 0x3ff : 0;
+        final int a4 = channels >= 5 ? analog[4] & 0x3f : 0;
+        final int a5 = channels >= 6 ? analog[5] & 0x3f : 0;
+
+        buffer[j] = (byte) ((seq & 0xf) << 4);
+        buffer[j - 1] = (byte) (((digital & 0xf) << 4) | (a0 >> 6));
+        buffer[j - 2] = (byte) (((a0 & 0x3f) << 2) | (a1 >> 8));
+        if (totalBytes > 3)
+            buffer[j - 3] = (byte) a1;
+        if (totalBytes > 4)
+            buffer[j - 4] = (byte) (a2 >> 2);
+        if (totalBytes > 5)
+            buffer[j - 5] = (byte) (((a2 & 0x3) << 6) | (a3 >> 4));
+        if (totalBytes > 6)
+            buffer[j - 6] = (byte) (((a3 & 0xf) << 4) | (a4 >> 2));
+        if (totalBytes > 7)
+            buffer[j - 7] = (byte) (((a4 & 0x3) << 6) | a5);
+        buffer[j] |= BITalinoCRC.compute(buffer, offset, totalBytes);
+    }
+
+}
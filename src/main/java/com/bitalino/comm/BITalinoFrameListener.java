@@ -0,0 +1,41 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * Receives batches of samples from a {@link BITalinoAcquisition}, on its
+ * reader thread.
+ */
+public interface BITalinoFrameListener {
+
+    /**
+     * Called with every full batch, or with a partial one once its oldest
+     * sample has waited for the listener's maximum latency.
+     * <p>
+     * The block is reused for the next batch as soon as this method returns,
+     * so its contents must be copied if needed afterwards. Samples should be
+     * handled quickly: acquisition waits for every listener.
+     *
+     * @param block the batch, holding at least one sample.
+     */
+    void onFrames(BITalinoFrameBlock block);
+
+    /**
+     * Called once if acquisition stops on an error. Samples acquired before the
+     * error have been delivered.
+     *
+     * @param failure the error.
+     */
+    void onFailure(BITalinoException failure);
+
+}
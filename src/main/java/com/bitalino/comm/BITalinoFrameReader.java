@@ -0,0 +1,487 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads frames in bulk: pulls whatever the stream has available into one large
+ * buffer, decodes every complete frame in a tight loop and carries a partial
+ * trailing frame over to the next read.
+ * <p>
+ * While a {@link BITalinoResponseParser} expects a reply, every frame boundary
+ * is offered to it first, so replies sent during acquisition are taken out of
+ * the stream without losing frame alignment.
+ * <p>
+ * Lost frames are accounted for in the same loop. Each sequence gap is sized
+ * modulo 16, plus any whole wraps that a {@link BITalinoClock} fitted to the
+ * read times infers from a read arriving later than its jitter allows. The gap
+ * is then filled as the {@link BITalinoGapFill} policy says, before the frame
+ * that ends it is appended.
+ */
+final class BITalinoFrameReader {
+
+    /**
+     * Default buffer size, in frames.
+     */
+    static final int DEFAULT_FRAMES = 512;
+
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final BITalinoFrameDecoder decoder;
+    private final int totalBytes;
+    private final BITalinoMetrics metrics;
+    private final BITalinoResponseParser replies;
+    private final byte[] buffer;
+    private int start;
+    private int end;
+    private final int syncBytes;
+    private int prevSeq;
+    private boolean syncing;
+    private boolean aligned;
+    private long discardedBytes;
+    private int needed;
+    private BITalinoGapFill gapFill = BITalinoGapFill.NONE;
+    private BITalinoClock clock;
+    private final short[] lastAnalog = new short[6];
+    private final short[] nextAnalog = new short[6];
+    private byte lastDigital;
+    private boolean received;
+    private long sampleNumber;
+    private long readNanos;
+    private long fittedNanos;
+    private boolean backlogged;
+    private int gapSize;
+    private int gapLeft;
+    private int filledFrames;
+
+    /**
+     * @param decoder the {@link BITalinoFrameDecoder} for the frame layout.
+     * @param bufferFrames the buffer size, in frames.
+     * @param metrics the {@link com.bitalino.comm.BITalinoMetrics} to update.
+     */
+    BITalinoFrameReader(final BITalinoFrameDecoder decoder, final int bufferFrames,
+                        final BITalinoMetrics metrics) {
+        this(decoder, bufferFrames, metrics, new BITalinoResponseParser());
+    }
+
+    /**
+     * @param decoder the {@link BITalinoFrameDecoder} for the frame layout.
+     * @param bufferFrames the buffer size, in frames.
+     * @param metrics the {@link com.bitalino.comm.BITalinoMetrics} to update.
+     * @param replies the {@link BITalinoResponseParser} for command replies.
+     */
+    BITalinoFrameReader(final BITalinoFrameDecoder decoder, final int bufferFrames,
+                        final BITalinoMetrics metrics, final BITalinoResponseParser replies) {
+        this.decoder = decoder;
+        this.totalBytes = decoder.totalBytes;
+        this.metrics = metrics;
+        this.replies = replies;
+        this.buffer = new byte[Math.max(2 * BITalinoResponseParser.MAX_LINE,
+                totalBytes * Math.max(bufferFrames, 2 * BITalinoFrameSync.DEFAULT_FRAMES))];
+        this.syncBytes = totalBytes * BITalinoFrameSync.DEFAULT_FRAMES;
+        this.prevSeq = 15;
+    }
+
+    /**
+     * Sets how lost frames are accounted for.
+     *
+     * @param gapFill what to insert in place of lost frames.
+     * @param clock a {@link BITalinoClock} for the device's sampling rate, fitted
+     *          by this reader to estimate whole wraps lost, or <tt>null</tt> to
+     *          size gaps modulo 16 only.
+     */
+    void setGapFill(final BITalinoGapFill gapFill, final BITalinoClock clock) {
+        this.gapFill = gapFill;
+        this.clock = clock;
+    }
+
+    /**
+     * @return <tt>true</tt> if this reader decodes frames with <tt>decoder</tt>.
+     */
+    boolean accepts(final BITalinoFrameDecoder decoder) {
+        return this.decoder == decoder;
+    }
+
+    /**
+     * Reads from <tt>is</tt>, blocking as needed, until <tt>numberOfSamples</tt>
+     * samples were appended to <tt>block</tt>.
+     *
+     * @param is the {@link BITalinoTransport} to read from.
+     * @param block the {@link com.bitalino.comm.BITalinoFrameBlock} to append to.
+     * @param numberOfSamples the number of samples to read.
+     * @throws java.io.IOException if any.
+     */
+    void read(final BITalinoTransport is, final BITalinoFrameBlock block,
+              final int numberOfSamples) throws IOException {
+        final int last = block.size + numberOfSamples;
+        while (block.size < last) {
+            if (needsBytes())
+                fill(is);
+            decodeBuffered(block, last - block.size);
+        }
+    }
+
+    /**
+     * Reads from <tt>is</tt>, blocking only until at least one sample is
+     * available, and appends every buffered sample that fits in <tt>block</tt>.
+     *
+     * @param is the {@link BITalinoTransport} to read from.
+     * @param block the {@link com.bitalino.comm.BITalinoFrameBlock} to append to.
+     * @return the number of samples appended.
+     * @throws java.io.IOException if any.
+     */
+    int readAvailable(final BITalinoTransport is, final BITalinoFrameBlock block)
+            throws IOException {
+        int read = decodeBuffered(block, block.getRemaining());
+        while (read == 0 && block.getRemaining() > 0) {
+            fill(is);
+            read = decodeBuffered(block, block.getRemaining());
+        }
+        return read;
+    }
+
+    /**
+     * Appends every buffered sample that fits in <tt>block</tt>, reading from
+     * <tt>is</tt> only if it reports bytes available, so it never blocks
+     * unless <tt>is</tt> cannot report them.
+     *
+     * @param is the {@link BITalinoTransport} to read from.
+     * @param block the {@link com.bitalino.comm.BITalinoFrameBlock} to append to.
+     * @return the number of samples appended.
+     * @throws java.io.IOException if any.
+     */
+    int poll(final BITalinoTransport is, final BITalinoFrameBlock block)
+            throws IOException {
+        int read = decodeBuffered(block, block.getRemaining());
+        if (read == 0 && block.getRemaining() > 0 && readable(is)) {
+            fill(is);
+            read = decodeBuffered(block, block.getRemaining());
+        }
+        return read;
+    }
+
+    /**
+     * Waits until a valid frame is buffered, without consuming it. Bytes that
+     * cannot start a valid frame are discarded along the way. The timeout is not
+     * enforced on a transport that cannot report bytes available.
+     *
+     * @param is the {@link BITalinoTransport} to read from.
+     * @param timeoutNanos how long to wait.
+     * @return <tt>true</tt> if a valid frame arrived in time.
+     * @throws java.io.IOException if any.
+     */
+    boolean awaitFrame(final BITalinoTransport is, final long timeoutNanos)
+            throws IOException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            if (end - start >= totalBytes) {
+                final int offset = BITalinoFrameSync.align(buffer, start, end - start,
+                        totalBytes, 1);
+                if (offset >= 0) {
+                    discard(offset - start);
+                    return true;
+                }
+                discard(end - start - totalBytes + 1);
+            }
+            if (readable(is))
+                fill(is);
+            else if (System.nanoTime() - deadline >= 0)
+                return false;
+            else
+                LockSupport.parkNanos(this, POLL_NANOS);
+        }
+    }
+
+    /**
+     * Reads until the reply expected by the {@link BITalinoResponseParser}
+     * arrives, while the board is not acquiring. Bytes before the reply are
+     * discarded. The timeout is not enforced on a transport that cannot report
+     * bytes available.
+     *
+     * @param is the {@link BITalinoTransport} to read from.
+     * @param timeoutNanos how long to wait, zero meaning forever.
+     * @return <tt>true</tt> if the reply arrived in time.
+     * @throws java.io.IOException if any.
+     */
+    boolean awaitReply(final BITalinoTransport is, final long timeoutNanos)
+            throws IOException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (replies.isPending()) {
+            final int matched = replies.match(buffer, start, end, totalBytes, -1);
+            if (matched > 0) {
+                start += matched;
+                return true;
+            }
+            if (matched == 0) {
+                discard(1);
+                continue;
+            }
+            if (timeoutNanos == 0 || readable(is))
+                fill(is);
+            else if (System.nanoTime() - deadline >= 0)
+                return false;
+            else
+                LockSupport.parkNanos(this, POLL_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Decodes up to <tt>max</tt> complete frames already in the buffer.
+     * <p>
+     * On a CRC failure the reader enters resynchronisation: once enough bytes
+     * are buffered, {@link BITalinoFrameSync} looks for the next offset where
+     * consecutive frames are valid and in sequence, and every byte before it is
+     * discarded. A frame that passes the CRC check but is out of sequence is
+     * confirmed the same way before it is accepted.
+     * <p>
+     * Filled samples count towards <tt>max</tt>. If they do not all fit, the
+     * frame ending the gap stays buffered and the rest are inserted on the
+     * next call.
+     *
+     * @return the number of samples appended to <tt>block</tt>.
+     */
+    int decodeBuffered(final BITalinoFrameBlock block, final int max) {
+        final long startNanos = System.nanoTime();
+        final int first = block.size;
+        final int last = first + max;
+        int lastAt = -1;
+        while (block.size < last && !needsBytes()) {
+            if (!syncing) {
+                if (replies.isPending()) {
+                    final int matched = replies.match(buffer, start, end, totalBytes,
+                            (prevSeq + 1) & 0xf);
+                    if (matched < 0) {
+                        needed = end - start + 1;
+                        continue;
+                    }
+                    needed = 0;
+                    if (matched > 0) {
+                        start += matched;
+                        continue;
+                    }
+                }
+                if (decoder.decode(buffer, start, block)) {
+                    final int seq = block.seq[block.size - 1];
+                    if (gapLeft == 0 && seq != (prevSeq + 1) % 16) {
+                        if (!aligned) {
+                            // a misaligned frame passes the 4-bit CRC one time
+                            // in 16, so confirm alignment before trusting it
+                            block.size--;
+                            syncing = true;
+                            continue;
+                        }
+                        gapLeft = gapSize = gap(seq);
+                        if (gapLeft > 0 && lastAt >= 0)
+                            remember(block, lastAt);
+                    }
+                    if (gapLeft > 0 && !fill(block, last))
+                        continue;
+                    start += totalBytes;
+                    prevSeq = seq;
+                    aligned = false;
+                    received = true;
+                    sampleNumber++;
+                    lastAt = block.size - 1;
+                    continue;
+                }
+                metrics.addCrcFailure();
+                syncing = true;
+                continue;
+            }
+            final int offset = BITalinoFrameSync.align(buffer, start, end - start,
+                    totalBytes, BITalinoFrameSync.DEFAULT_FRAMES);
+            if (offset < 0) {
+                // keep only the bytes that may still start an aligned run
+                discard(end - start - syncBytes + 1);
+            } else {
+                discard(offset - start);
+                syncing = false;
+                aligned = true;
+            }
+        }
+        final int decoded = block.size - first;
+        if (lastAt >= 0) {
+            if (gapFill != BITalinoGapFill.NONE)
+                remember(block, lastAt);
+            if (clock != null && readNanos != fittedNanos && !backlogged) {
+                // frames still buffered arrived with the same read
+                clock.fit(sampleNumber - 1 + (end - start) / totalBytes, readNanos);
+                fittedNanos = readNanos;
+            }
+        }
+        if (decoded > 0) {
+            metrics.addFrames(decoded - filledFrames);
+            metrics.addFilledFrames(filledFrames);
+            metrics.getDecodeLatency().record(System.nanoTime() - startNanos);
+            filledFrames = 0;
+        }
+        return decoded;
+    }
+
+    /**
+     * Accounts for the frames lost before the buffered frame numbered
+     * <tt>seq</tt>.
+     *
+     * @return the number of samples to fill in.
+     */
+    private int gap(final int seq) {
+        // the first frame may come from a board already streaming
+        if (!received)
+            return 0;
+        final int size = (seq - prevSeq - 1) & 0xf;
+        metrics.addSequenceGap(size);
+        long lost = size;
+        if (clock != null && !backlogged) {
+            // the frames buffered after this one arrived with the same read
+            final long wraps = clock.wraps(sampleNumber + size + (end - start) / totalBytes - 1,
+                    readNanos);
+            metrics.addLostFrames(16 * wraps);
+            lost += 16 * wraps;
+        }
+        sampleNumber += lost;
+        return gapFill == BITalinoGapFill.NONE ? 0 : (int) Math.min(lost, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Inserts the samples still owed to the current gap in place of the frame
+     * just decoded at the end of <tt>block</tt>, moving the frame after them if
+     * there is room below <tt>last</tt>.
+     *
+     * @return <tt>true</tt> if the gap is filled and the frame kept.
+     */
+    private boolean fill(final BITalinoFrameBlock block, final int last) {
+        final int[] channels = decoder.analogChannels;
+        final int at = block.size - 1;
+        final int n = Math.min(gapLeft, last - at);
+        final boolean keep = at + n < last;
+        for (int channel : channels)
+            nextAnalog[channel] = block.analog[channel][at];
+        if (keep) {
+            for (int channel : channels)
+                block.analog[channel][at + n] = block.analog[channel][at];
+            block.seq[at + n] = block.seq[at];
+            block.digital[at + n] = block.digital[at];
+        }
+        for (int i = 0; i < n; i++) {
+            final int index = at + i;
+            final long j = gapSize - gapLeft + 1 + i;
+            prevSeq = (prevSeq + 1) & 0xf;
+            block.seq[index] = prevSeq;
+            for (int channel : channels)
+                block.analog[channel][index] = fillValue(channel, j);
+            block.digital[index] = gapFill == BITalinoGapFill.NAN ? 0 : lastDigital;
+            block.filled[index] = true;
+        }
+        block.anyFilled = true;
+        block.size = keep ? at + n + 1 : at + n;
+        gapLeft -= n;
+        filledFrames += n;
+        return keep;
+    }
+
+    /**
+     * @param j the position of the filled sample in the gap, from 1.
+     */
+    private short fillValue(final int channel, final long j) {
+        switch (gapFill) {
+            case HOLD_LAST:
+                return lastAnalog[channel];
+            case LINEAR:
+                final int from = lastAnalog[channel];
+                return (short) (from + Math.round((double) (nextAnalog[channel] - from)
+                        * j / (gapSize + 1)));
+            default:
+                return 0;
+        }
+    }
+
+    private void remember(final BITalinoFrameBlock block, final int index) {
+        for (int channel : decoder.analogChannels)
+            lastAnalog[channel] = block.analog[channel][index];
+        lastDigital = block.digital[index];
+    }
+
+    /**
+     * @return <tt>true</tt> if reading from <tt>is</tt> will not block, or if
+     *         <tt>is</tt> cannot tell and a blocking read is the only way to
+     *         make progress.
+     */
+    private static boolean readable(final BITalinoTransport is) throws IOException {
+        return is.available() > 0 || is instanceof BITalinoStreamTransport
+                && !((BITalinoStreamTransport) is).isAvailableReported();
+    }
+
+    private boolean needsBytes() {
+        if (needed > 0 && replies.isPending())
+            return end - start < needed;
+        return end - start < (syncing ? syncBytes : totalBytes);
+    }
+
+    private void discard(final int bytes) {
+        start += bytes;
+        discardedBytes += bytes;
+        metrics.addResyncBytes(bytes);
+    }
+
+    /**
+     * Moves any partial frame to the front of the buffer and appends as many
+     * bytes as a single read returns.
+     *
+     * @throws java.io.IOException if any, or {@link java.io.EOFException} if the
+     *           stream has ended.
+     */
+    void fill(final BITalinoTransport is) throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        final long startNanos = System.nanoTime();
+        final int read = is.read(buffer, end, buffer.length - end);
+        readNanos = System.nanoTime();
+        metrics.getReadLatency().record(readNanos - startNanos);
+        if (read < 0)
+            throw new EOFException();
+        // a read that fills the buffer may leave newer frames behind, so its
+        // time says nothing about when the frames in it arrived
+        backlogged = read == buffer.length - end;
+        end += read;
+    }
+
+    /**
+     * @return the number of bytes buffered but not yet decoded.
+     */
+    int buffered() {
+        return end - start;
+    }
+
+    /**
+     * @return the total number of bytes discarded while resynchronising.
+     */
+    long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * @return <tt>true</tt> if the reader is looking for frame alignment.
+     */
+    boolean isSyncing() {
+        return syncing;
+    }
+
+}
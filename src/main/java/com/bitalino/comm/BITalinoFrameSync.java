@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * Frame alignment search used to resynchronise after a CRC failure.
+ * <p>
+ * Rather than shifting one byte at a time and decoding again, the buffered
+ * window is scanned once for the first offset where a run of consecutive
+ * frames all pass the CRC check and carry consecutive 4-bit sequence numbers.
+ */
+final class BITalinoFrameSync {
+
+    /**
+     * Number of consecutive frames needed to accept an alignment.
+     */
+    static final int DEFAULT_FRAMES = 3;
+
+    private BITalinoFrameSync() {
+    }
+
+    /**
+     * Finds the first aligned offset in <tt>buffer[offset, offset + length)</tt>.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte to search.
+     * @param length the number of bytes to search.
+     * @param totalBytes the frame length.
+     * @param frames the number of consecutive frames that must be valid.
+     * @return the index of the first byte of the first aligned frame, or
+     *         <tt>-1</tt> if no alignment is found in the window.
+     */
+    static int align(final byte[] buffer, final int offset, final int length,
+                     final int totalBytes, final int frames) {
+        final int last = offset + length - frames * totalBytes;
+        for (int candidate = offset; candidate <= last; candidate++)
+            if (isAligned(buffer, candidate, totalBytes, frames))
+                return candidate;
+        return -1;
+    }
+
+    private static boolean isAligned(final byte[] buffer, final int offset,
+                                     final int totalBytes, final int frames) {
+        int prevSeq = -1;
+        for (int frame = 0, pos = offset; frame < frames; frame++, pos += totalBytes) {
+            if (!BITalinoCRC.check(buffer, pos, totalBytes))
+                return false;
+            final int seq = (buffer[pos + totalBytes - 1] >> 4) & 0xf;
+            if (prevSeq != -1 && seq != ((prevSeq + 1) & 0xf))
+                return false;
+            prevSeq = seq;
+        }
+        return true;
+    }
+
+}
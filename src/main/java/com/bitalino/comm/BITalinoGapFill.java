@@ -0,0 +1,42 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * What the frame reader puts in place of the samples that sequence numbers
+ * show to be lost. Filled samples carry the missing sequence numbers and are
+ * marked in the {@link BITalinoFrameBlock} (see
+ * {@link BITalinoFrameBlock#isFilled(int)}), so the stream keeps one sample
+ * per sampling period.
+ */
+public enum BITalinoGapFill {
+    /**
+     * Insert nothing; lost samples shorten the stream.
+     */
+    NONE,
+    /**
+     * Insert samples with every input at zero, to be read as missing:
+     * {@link com.bitalino.util.SensorLookupTable} converts them to
+     * {@link Double#NaN}.
+     */
+    NAN,
+    /**
+     * Repeat the last sample received.
+     */
+    HOLD_LAST,
+    /**
+     * Interpolate analog inputs linearly between the samples either side of
+     * the gap; digital inputs hold the last value received.
+     */
+    LINEAR
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Acquires from many {@link BITalinoDevice}s with a small, fixed pool of
+ * worker threads.
+ * <p>
+ * Devices are spread over the workers round-robin. Each worker polls its
+ * devices without blocking and publishes into one {@link BITalinoSampleRing}
+ * per device, whose capacity and {@link BITalinoOverflowPolicy} give per-device
+ * backpressure: a device under {@link BITalinoOverflowPolicy#BLOCK} is simply
+ * not polled while its ring is full, leaving its data in the OS buffer without
+ * holding up the other devices on the same worker.
+ * <p>
+ * {@link #drain(BITalinoFrameBlock[])} merges the streams by time. Each
+ * worker timestamps the samples it reads with a {@link BITalinoClock} per
+ * device, anchored to the arrival of the device's first frames and corrected
+ * for its drift and lost samples, and each call moves every device forward to
+ * the same host time. Samples read as part of a backlog, which their arrival
+ * does not date, are placed on the device's fitted clock instead.
+ */
+public class BITalinoHub {
+
+    /**
+     * Maximum number of samples a worker decodes from one device per poll.
+     */
+    private static final int BATCH = 256;
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final int workers;
+    private final List<BITalinoDevice> devices = new ArrayList<BITalinoDevice>();
+    private final List<BITalinoSampleRing> rings = new ArrayList<BITalinoSampleRing>();
+    private final List<BITalinoOverflowPolicy> policies = new ArrayList<BITalinoOverflowPolicy>();
+    private final List<BITalinoFrameBlock> batches = new ArrayList<BITalinoFrameBlock>();
+    private final List<BITalinoClock> clocks = new ArrayList<BITalinoClock>();
+    private final List<long[]> times = new ArrayList<long[]>();
+
+    private AtomicReferenceArray<BITalinoException> failures;
+    private ExecutorService executor;
+    private volatile boolean running;
+    private long startNanos;
+    private long watermark;
+
+    /**
+     * Creates a hub with one worker per available processor.
+     */
+    public BITalinoHub() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers the maximum number of worker threads.
+     */
+    public BITalinoHub(final int workers) {
+        checkArgument(workers > 0, "At least one worker is required.");
+        this.workers = workers;
+    }
+
+    /**
+     * Adds an open device, buffering up to
+     * {@link BITalinoAcquisition#DEFAULT_CAPACITY} samples and dropping the
+     * oldest when full.
+     *
+     * @param device an open {@link com.bitalino.comm.BITalinoDevice}.
+     * @return the index of the device in this hub.
+     */
+    public int add(final BITalinoDevice device) {
+        return add(device, BITalinoAcquisition.DEFAULT_CAPACITY,
+                BITalinoOverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Adds an open device.
+     *
+     * @param device an open {@link com.bitalino.comm.BITalinoDevice}.
+     * @param capacity the number of samples buffered for this device.
+     * @param policy what to do when this device's buffer is full.
+     * @return the index of the device in this hub.
+     */
+    public synchronized int add(final BITalinoDevice device, final int capacity,
+                                final BITalinoOverflowPolicy policy) {
+        checkNotNull(device, "Device was not provided.");
+        checkNotNull(policy, "Overflow policy was not provided.");
+        checkState(executor == null, "Devices must be added before starting.");
+        devices.add(device);
+        final BITalinoSampleRing ring = new BITalinoSampleRing(capacity,
+                device.getAnalogChannels(), policy, true);
+        rings.add(ring);
+        policies.add(policy);
+        final int batch = Math.min(BATCH, ring.getCapacity());
+        batches.add(new BITalinoFrameBlock(batch));
+        clocks.add(new BITalinoClock(device.getSamplerate()));
+        times.add(new long[batch]);
+        return devices.size() - 1;
+    }
+
+    /**
+     * Starts acquisition on every device and the worker threads.
+     *
+     * @throws com.bitalino.comm.BITalinoException if any device fails to start.
+     */
+    public synchronized void start() throws BITalinoException {
+        checkState(executor == null, "Hub already started.");
+        checkState(!devices.isEmpty(), "No devices were added.");
+        startNanos = System.nanoTime();
+        watermark = startNanos;
+        for (BITalinoDevice device : devices)
+            device.start();
+
+        final int threads = Math.min(workers, devices.size());
+        failures = new AtomicReferenceArray<BITalinoException>(devices.size());
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("BITalino hub worker %d").setDaemon(true).build());
+        running = true;
+        for (int worker = 0; worker < threads; worker++) {
+            final List<Integer> assigned = new ArrayList<Integer>();
+            for (int device = worker; device < devices.size(); device += threads)
+                assigned.add(device);
+            executor.execute(new Worker(assigned));
+        }
+    }
+
+    /**
+     * Stops the worker threads and acquisition on every device.
+     *
+     * @throws com.bitalino.comm.BITalinoException if any device fails to stop;
+     *           every device is still stopped.
+     */
+    public synchronized void stop() throws BITalinoException {
+        if (executor == null)
+            return;
+        running = false;
+        for (BITalinoSampleRing ring : rings)
+            ring.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        BITalinoException failure = null;
+        for (BITalinoDevice device : devices) {
+            try {
+                device.stop();
+            } catch (BITalinoException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Moves every device forward to the latest point in time for which all
+     * devices have samples and every block has room. Devices that failed are
+     * left out once drained.
+     * <p>
+     * Must be called from a single consumer thread.
+     *
+     * @param blocks one {@link com.bitalino.comm.BITalinoFrameBlock} per
+     *          device, in the order the devices were added.
+     * @return the host time, in nanoseconds since {@link #start()}, up to
+     *         which (exclusive) samples have been drained.
+     */
+    public long drain(final BITalinoFrameBlock[] blocks) {
+        checkArgument(blocks.length == devices.size(), "One block per device is required.");
+        long end = Long.MAX_VALUE;
+        for (int device = 0; device < blocks.length; device++) {
+            final BITalinoSampleRing ring = rings.get(device);
+            if (ring.size() == 0 && failures.get(device) != null)
+                continue;
+            final long first = ring.getReadIndex();
+            final long last = Math.min(ring.getWriteIndex(),
+                    first + blocks[device].getRemaining()) - 1;
+            // timestamps never decrease, so later samples come after the last one
+            final long time = last < first ? Long.MIN_VALUE : ring.getTime(last);
+            end = Math.min(end, time == Long.MIN_VALUE ? Long.MIN_VALUE : time + 1);
+        }
+        if (end == Long.MAX_VALUE || end <= watermark)
+            return watermark - startNanos;
+
+        for (int device = 0; device < blocks.length; device++)
+            rings.get(device).drain(blocks[device], Integer.MAX_VALUE, end);
+        watermark = end;
+        return watermark - startNanos;
+    }
+
+    /**
+     * @return the number of devices in this hub.
+     */
+    public int size() {
+        return devices.size();
+    }
+
+    /**
+     * @param device the index of the device.
+     * @return the buffer for that device, to inspect its backlog and drops.
+     */
+    public BITalinoSampleRing getRing(final int device) {
+        return rings.get(device);
+    }
+
+    /**
+     * @param device the index of the device.
+     * @return the error that stopped acquisition from that device, if any.
+     */
+    public BITalinoException getFailure(final int device) {
+        return failures == null ? null : failures.get(device);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("devices", devices.size())
+                .add("workers", workers).add("running", running).toString();
+    }
+
+    /**
+     * Polls a fixed subset of the devices in turn, resting briefly whenever a
+     * whole pass finds nothing to read.
+     */
+    private final class Worker implements Runnable {
+
+        private final int[] assigned;
+        /**
+         * Whether a device has samples waiting that were not read on arrival,
+         * until a poll finds nothing more.
+         */
+        private final boolean[] backlog = new boolean[devices.size()];
+
+        Worker(final List<Integer> assigned) {
+            this.assigned = new int[assigned.size()];
+            for (int i = 0; i < this.assigned.length; i++)
+                this.assigned[i] = assigned.get(i);
+        }
+
+        @Override
+        public void run() {
+            int active = assigned.length;
+            while (running && active > 0) {
+                boolean idle = true;
+                active = 0;
+                for (int device : assigned) {
+                    if (failures.get(device) != null)
+                        continue;
+                    active++;
+                    final BITalinoSampleRing ring = rings.get(device);
+                    final BITalinoFrameBlock batch = batches.get(device);
+                    if (policies.get(device) == BITalinoOverflowPolicy.BLOCK
+                            && ring.getCapacity() - ring.size() < batch.getCapacity()) {
+                        backlog[device] = true;
+                        continue;
+                    }
+                    try {
+                        batch.clear();
+                        if (devices.get(device).poll(batch) == 0) {
+                            backlog[device] = false;
+                        } else {
+                            final long arrival = System.nanoTime();
+                            final BITalinoClock clock = clocks.get(device);
+                            final long[] stamps = times.get(device);
+                            // a full batch may have left newer samples unread
+                            backlog[device] |= batch.size == batch.getCapacity();
+                            if (backlog[device] && clock.isFitted())
+                                clock.timestamp(batch, 0, stamps);
+                            else
+                                clock.timestamp(batch, 0, arrival, stamps);
+                            ring.publish(batch, stamps);
+                            idle = false;
+                        }
+                    } catch (BITalinoException e) {
+                        if (running)
+                            failures.set(device, e);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (idle)
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+
+    }
+
+}
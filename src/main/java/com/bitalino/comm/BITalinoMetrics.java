@@ -0,0 +1,241 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Counters describing the health of an acquisition, updated by the thread
+ * reading from the device and safe to poll from any other thread while
+ * acquisition goes on.
+ * <p>
+ * Each device has a single reading thread, so counters are updated with an
+ * ordered write rather than a compare-and-set and never contend. Updates are
+ * accumulated per read, not per frame, so the cost per sample is negligible.
+ */
+public class BITalinoMetrics {
+
+    private static final int FRAMES = 0;
+    private static final int CRC_FAILURES = 1;
+    private static final int RESYNC_BYTES = 2;
+    private static final int SEQUENCE_GAPS = 3;
+    private static final int LOST_FRAMES = 4;
+    private static final int FILLED_FRAMES = 5;
+    private static final int COUNTERS = 6;
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+    private final AtomicLongArray gaps = new AtomicLongArray(16);
+    private final Histogram readLatency = new Histogram();
+    private final Histogram decodeLatency = new Histogram();
+
+    /**
+     * @return the number of frames decoded.
+     */
+    public long getFramesDecoded() {
+        return counters.get(FRAMES);
+    }
+
+    /**
+     * @return the number of frames that failed the CRC check.
+     */
+    public long getCrcFailures() {
+        return counters.get(CRC_FAILURES);
+    }
+
+    /**
+     * @return the number of bytes skipped while resynchronising.
+     */
+    public long getResyncBytes() {
+        return counters.get(RESYNC_BYTES);
+    }
+
+    /**
+     * @return the number of breaks in the sequence numbers.
+     */
+    public long getSequenceGaps() {
+        return counters.get(SEQUENCE_GAPS);
+    }
+
+    /**
+     * @param size the number of frames missing, from 1 to 15. Since sequence
+     *          numbers wrap at 16, larger gaps are counted modulo 16, and a
+     *          repeated sequence number counts as a gap of 15.
+     * @return the number of gaps of that size.
+     */
+    public long getSequenceGaps(final int size) {
+        checkArgument(size > 0 && size < 16, "Gap size must be between 1 and 15.");
+        return gaps.get(size);
+    }
+
+    /**
+     * @return the number of frames known to be missing from sequence gaps,
+     *         including whole wraps estimated from the time they took.
+     */
+    public long getLostFrames() {
+        return counters.get(LOST_FRAMES);
+    }
+
+    /**
+     * @return the number of samples inserted in place of lost frames, see
+     *         {@link BITalinoGapFill}.
+     */
+    public long getFilledFrames() {
+        return counters.get(FILLED_FRAMES);
+    }
+
+    /**
+     * @return the time spent waiting on the transport for each read.
+     */
+    public Histogram getReadLatency() {
+        return readLatency;
+    }
+
+    /**
+     * @return the time spent decoding each batch of buffered frames.
+     */
+    public Histogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    void addFrames(final long frames) {
+        add(counters, FRAMES, frames);
+    }
+
+    void addCrcFailure() {
+        add(counters, CRC_FAILURES, 1);
+    }
+
+    void addResyncBytes(final long bytes) {
+        add(counters, RESYNC_BYTES, bytes);
+    }
+
+    void addSequenceGap(final int size) {
+        add(counters, SEQUENCE_GAPS, 1);
+        add(counters, LOST_FRAMES, size);
+        add(gaps, size, 1);
+    }
+
+    void addLostFrames(final long frames) {
+        add(counters, LOST_FRAMES, frames);
+    }
+
+    void addFilledFrames(final long frames) {
+        add(counters, FILLED_FRAMES, frames);
+    }
+
+    /**
+     * Increments without a compare-and-set, which is safe with a single writer.
+     */
+    private static void add(final AtomicLongArray array, final int i, final long delta) {
+        array.lazySet(i, array.get(i) + delta);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("frames", getFramesDecoded())
+                .add("crcFailures", getCrcFailures()).add("resyncBytes", getResyncBytes())
+                .add("sequenceGaps", getSequenceGaps()).add("lostFrames", getLostFrames())
+                .add("filledFrames", getFilledFrames())
+                .add("readLatency", readLatency).add("decodeLatency", decodeLatency)
+                .toString();
+    }
+
+    /**
+     * A histogram of durations in power-of-two buckets: bucket <tt>b</tt>
+     * counts durations from <tt>2^(b-1)</tt> up to <tt>2^b - 1</tt>
+     * nanoseconds, bucket 0 counting zero.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+        private static final int TOTAL = BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+
+        Histogram() {
+        }
+
+        void record(final long nanos) {
+            add(counts, BUCKETS - Long.numberOfLeadingZeros(Math.max(0, nanos)), 1);
+            add(counts, TOTAL, nanos);
+        }
+
+        /**
+         * @return the number of durations recorded.
+         */
+        public long getCount() {
+            long count = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+                count += counts.get(bucket);
+            return count;
+        }
+
+        /**
+         * @param bucket the bucket, from 0 to 63.
+         * @return the number of durations recorded in that bucket.
+         */
+        public long getCount(final int bucket) {
+            checkArgument(bucket >= 0 && bucket < BUCKETS, "Bucket must be between 0 and 63.");
+            return counts.get(bucket);
+        }
+
+        /**
+         * @return the sum of every duration recorded, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return counts.get(TOTAL);
+        }
+
+        /**
+         * @return the mean duration, in nanoseconds, or 0 if none was recorded.
+         */
+        public double getMeanNanos() {
+            final long count = getCount();
+            return count == 0 ? 0 : (double) getTotalNanos() / count;
+        }
+
+        /**
+         * @param quantile the quantile, between 0 and 1.
+         * @return an upper bound, within a factor of two, of that quantile of
+         *         the durations recorded, in nanoseconds.
+         */
+        public long getQuantileNanos(final double quantile) {
+            checkArgument(quantile >= 0 && quantile <= 1, "Quantile must be between 0 and 1.");
+            final long[] snapshot = new long[BUCKETS];
+            long count = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+                count += snapshot[bucket] = counts.get(bucket);
+            final long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += snapshot[bucket];
+                if (seen >= rank && seen > 0)
+                    return (1L << bucket) - 1;
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("count", getCount())
+                    .add("mean", getMeanNanos()).add("p99", getQuantileNanos(0.99))
+                    .toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+/**
+ * What a {@link BITalinoSampleRing} does when the producer outpaces the
+ * consumer and the ring is full.
+ */
+public enum BITalinoOverflowPolicy {
+    /**
+     * Overwrite the oldest unread samples, so the consumer always sees the
+     * most recent data.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the incoming samples, keeping what is already buffered.
+     */
+    DROP_NEWEST,
+    /**
+     * Make the producer wait for free space. The device keeps sending while the
+     * producer waits, so prolonged blocking only moves the backlog to the OS
+     * buffer.
+     */
+    BLOCK
+}
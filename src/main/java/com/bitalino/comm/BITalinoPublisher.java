@@ -0,0 +1,319 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Reactive Streams {@link org.reactivestreams.Publisher} of the sample batches
+ * of a {@link BITalinoAcquisition}. On Java 9 and later,
+ * <tt>org.reactivestreams.FlowAdapters.toFlowPublisher</tt> turns it into a
+ * <tt>java.util.concurrent.Flow.Publisher</tt>.
+ * <p>
+ * The publisher listens to the acquisition like any
+ * {@link BITalinoFrameListener}, so it shares the device's single read with
+ * the ring and other listeners. Each subscriber has its own bounded buffer of
+ * batches, emptied on a thread of its own as it signals demand; when a slow
+ * subscriber's buffer is full, batches are dropped according to the overflow
+ * policy, so no subscriber ever holds up the reader thread. Every batch is a
+ * fresh {@link BITalinoFrameBlock} that the subscriber may keep.
+ * <p>
+ * A subscriber whose <tt>onNext</tt> throws is cancelled, and what it threw
+ * goes to the delivering thread's uncaught exception handler.
+ */
+public class BITalinoPublisher implements Publisher<BITalinoFrameBlock> {
+
+    /**
+     * Default number of batches buffered per subscriber.
+     */
+    public static final int DEFAULT_BUFFER = 64;
+
+    private final BITalinoAcquisition acquisition;
+    private final int[] analogChannels;
+    private final int buffer;
+    private final BITalinoOverflowPolicy policy;
+    private final Listener listener = new Listener();
+    private final List<BatchSubscription> subscriptions =
+            new CopyOnWriteArrayList<BatchSubscription>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ExecutorService executor;
+
+    private volatile Throwable terminal;
+    private volatile boolean closed;
+
+    /**
+     * Publishes batches of up to <tt>batchSize</tt> samples, each delivered
+     * within <tt>maxLatency</tt>, buffering up to {@link #DEFAULT_BUFFER}
+     * batches per subscriber and dropping the oldest when full.
+     *
+     * @param acquisition the {@link com.bitalino.comm.BITalinoAcquisition} to publish.
+     * @param batchSize the maximum number of samples per batch.
+     * @param maxLatency how long a sample may wait for its batch to fill.
+     * @param unit the unit of <tt>maxLatency</tt>.
+     */
+    public BITalinoPublisher(final BITalinoAcquisition acquisition, final int batchSize,
+                             final long maxLatency, final TimeUnit unit) {
+        this(acquisition, batchSize, maxLatency, unit, DEFAULT_BUFFER,
+                BITalinoOverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param acquisition the {@link com.bitalino.comm.BITalinoAcquisition} to publish.
+     * @param batchSize the maximum number of samples per batch.
+     * @param maxLatency how long a sample may wait for its batch to fill.
+     * @param unit the unit of <tt>maxLatency</tt>.
+     * @param buffer the number of batches buffered per subscriber.
+     * @param policy which batches to drop when a subscriber's buffer is full;
+     *          {@link BITalinoOverflowPolicy#BLOCK} is not supported, as it
+     *          would stall the reader.
+     */
+    public BITalinoPublisher(final BITalinoAcquisition acquisition, final int batchSize,
+                             final long maxLatency, final TimeUnit unit, final int buffer,
+                             final BITalinoOverflowPolicy policy) {
+        checkNotNull(acquisition, "Acquisition was not provided.");
+        checkArgument(buffer > 0, "Buffer must hold at least one batch.");
+        checkArgument(policy != BITalinoOverflowPolicy.BLOCK,
+                "Subscribers must not block the reader.");
+        this.acquisition = acquisition;
+        this.analogChannels = acquisition.getAnalogChannels();
+        this.buffer = buffer;
+        this.policy = checkNotNull(policy, "Overflow policy was not provided.");
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("BITalino publisher %d").setDaemon(true).build());
+        acquisition.addListener(listener, batchSize, maxLatency, unit);
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super BITalinoFrameBlock> subscriber) {
+        checkNotNull(subscriber, "Subscriber was not provided.");
+        final BatchSubscription subscription = new BatchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscriptions.add(subscription);
+        // a subscriber arriving after the end is told so at once
+        if (closed)
+            subscription.terminate(terminal);
+    }
+
+    /**
+     * Stops publishing: subscribers receive the batches already buffered, then
+     * completion. Acquisition itself is left running.
+     */
+    public void close() {
+        acquisition.removeListener(listener);
+        terminate(null);
+    }
+
+    /**
+     * @return the number of batches dropped because a subscriber's buffer was
+     *         full, over all subscribers.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of active subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private void terminate(final Throwable failure) {
+        if (closed)
+            return;
+        terminal = failure;
+        closed = true;
+        for (BatchSubscription subscription : subscriptions)
+            subscription.terminate(failure);
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("subscribers", subscriptions.size())
+                .add("buffer", buffer).add("policy", policy).add("dropped", dropped.get())
+                .add("closed", closed).toString();
+    }
+
+    /**
+     * Copies each batch of the acquisition to every subscriber's buffer.
+     */
+    private final class Listener implements BITalinoFrameListener {
+
+        @Override
+        public void onFrames(final BITalinoFrameBlock block) {
+            if (subscriptions.isEmpty())
+                return;
+            final BITalinoFrameBlock copy = new BITalinoFrameBlock(block.size);
+            copy.append(block, 0, block.size, analogChannels);
+            // batches are never modified once published, so one copy is shared
+            for (BatchSubscription subscription : subscriptions)
+                subscription.offer(copy);
+        }
+
+        @Override
+        public void onFailure(final BITalinoException failure) {
+            terminate(failure);
+        }
+
+    }
+
+    /**
+     * A subscriber's bounded buffer and demand, emptied by at most one task at
+     * a time on the publisher's executor.
+     */
+    private final class BatchSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super BITalinoFrameBlock> subscriber;
+        private final ArrayDeque<BITalinoFrameBlock> queue = new ArrayDeque<BITalinoFrameBlock>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable failure;
+
+        BatchSubscription(final Subscriber<? super BITalinoFrameBlock> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                // rule 3.9
+                terminate(new IllegalArgumentException("Demand must be positive."));
+                return;
+            }
+            long current, next;
+            do {
+                current = requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!requested.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                queue.clear();
+            }
+        }
+
+        void offer(final BITalinoFrameBlock batch) {
+            synchronized (this) {
+                if (queue.size() == buffer) {
+                    dropped.incrementAndGet();
+                    if (policy == BITalinoOverflowPolicy.DROP_NEWEST)
+                        return;
+                    queue.poll();
+                }
+                queue.add(batch);
+            }
+            schedule();
+        }
+
+        void terminate(final Throwable failure) {
+            this.failure = failure;
+            done = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    // the executor was shut down: finish on the caller thread
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (!cancelled) {
+                final BITalinoFrameBlock batch;
+                synchronized (this) {
+                    batch = requested.get() > 0 || failure != null ? queue.poll() : null;
+                }
+                if (batch == null) {
+                    boolean empty;
+                    synchronized (this) {
+                        empty = queue.isEmpty();
+                    }
+                    if (done && (empty || failure != null)) {
+                        cancelled = true;
+                        subscriptions.remove(this);
+                        try {
+                            if (failure != null)
+                                subscriber.onError(failure);
+                            else
+                                subscriber.onComplete();
+                        } catch (Throwable t) {
+                            // rule 2.13: nothing left to signal it to
+                        }
+                    }
+                    return;
+                }
+                if (failure != null)
+                    continue;
+                if (requested.get() != Long.MAX_VALUE)
+                    requested.decrementAndGet();
+                try {
+                    subscriber.onNext(batch);
+                } catch (Throwable t) {
+                    // rule 2.13: the subscription is cancelled without
+                    // signalling the subscriber again, and the drain loop
+                    // must still return to release the work count
+                    cancel();
+                    final Thread thread = Thread.currentThread();
+                    try {
+                        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                    } catch (Throwable ignored) {
+                        // the handler is broken beyond reporting
+                    }
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.File;
+
+/**
+ * Layout of BITalino recording files, shared by
+ * {@link BITalinoRecordingWriter} and {@link BITalinoRecordingReader}.
+ * <p>
+ * A recording is a fixed 64-byte header followed by segments. Each segment is
+ * a 24-byte index block, a bitmap with one bit per frame, and up to
+ * <tt>indexInterval</tt> frames exactly as they travel on the wire, so every
+ * frame has a fixed position and seeking by sample number is arithmetic. A bit
+ * is set when its frame holds a sample filled in place of a lost one (see
+ * {@link BITalinoGapFill}). All values are big-endian.
+ *
+ * <pre>
+ * header  0  int   magic "BITR"
+ *         4  short format version
+ *         6  short header length
+ *         8  int   sampling rate (Hz)
+ *        12  int   frame length (bytes)
+ *        16  byte  number of analog channels
+ *        17  byte[6] analog channels
+ *        24  int   frames per segment
+ *        32  long  start time (ms since the epoch)
+ *        40  long  number of samples
+ * index   0  int   magic "IDXB"
+ *         8  long  number of the first sample in the segment
+ *        16  long  arrival time of that sample (ns since the start)
+ * filled  0  byte[(indexInterval + 7) / 8]
+ *                  bit i % 8 of byte i / 8 set if frame i was filled
+ * </pre>
+ */
+final class BITalinoRecording {
+
+    static final int MAGIC = 0x42495452;
+    static final short VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int INDEX_MAGIC = 0x49445842;
+    static final int INDEX_BYTES = 24;
+
+    static final int SAMPLERATE = 8;
+    static final int TOTAL_BYTES = 12;
+    static final int CHANNEL_COUNT = 16;
+    static final int CHANNELS = 17;
+    static final int INDEX_INTERVAL = 24;
+    static final int START_TIME = 32;
+    static final int SAMPLE_COUNT = 40;
+
+    static final int INDEX_FIRST_SAMPLE = 8;
+    static final int INDEX_TIME = 16;
+
+    static final int ROLLUP_MAGIC = 0x4249524C;
+    static final int ROLLUP_HEADER_BYTES = 32;
+    static final int ROLLUP_FACTOR = 12;
+    static final int ROLLUP_SAMPLE_COUNT = 24;
+    static final int ROLLUP_RECORD_BYTES = 8;
+
+    /**
+     * Size of each mapped region; rounded down to whole segments.
+     */
+    static final int REGION_BYTES = 16 * 1024 * 1024;
+
+    private BITalinoRecording() {
+    }
+
+    /**
+     * @return the file holding the rollup level of <tt>recording</tt> with
+     *         buckets of <tt>factor</tt> samples.
+     */
+    static File rollupFile(final File recording, final int factor) {
+        return new File(recording.getPath() + ".r" + factor);
+    }
+
+    /**
+     * @return the length of the filled bitmap following each index block.
+     */
+    static int filledBytes(final int indexInterval) {
+        return (indexInterval + 7) / 8;
+    }
+
+    /**
+     * @return the length of a segment of <tt>indexInterval</tt> frames of
+     *         <tt>totalBytes</tt> each.
+     */
+    static int segmentBytes(final int indexInterval, final int totalBytes) {
+        return INDEX_BYTES + filledBytes(indexInterval) + indexInterval * totalBytes;
+    }
+
+    /**
+     * @return the number of whole segments in a mapped region.
+     */
+    static int segmentsPerRegion(final int segmentBytes) {
+        return Math.max(1, REGION_BYTES / segmentBytes);
+    }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads a BITalino recording file (see {@link BITalinoRecording}) through
+ * memory-mapped regions. Opening only maps the file, so it takes the same
+ * time whatever the recording length; pages are loaded as samples are read.
+ * <p>
+ * Samples are located by number with arithmetic and by time with a binary
+ * search over the index blocks. Not thread-safe.
+ */
+public class BITalinoRecordingReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final int samplerate;
+    private final int[] analogChannels;
+    private final int totalBytes;
+    private final BITalinoFrameDecoder decoder;
+    private final int indexInterval;
+    private final int filledBytes;
+    private final int segmentBytes;
+    private final int segmentsPerRegion;
+    private final long startTime;
+    private final long sampleCount;
+    private final MappedByteBuffer[] regions;
+    private final byte[] frames;
+
+    /**
+     * @param file the recording to open.
+     * @throws java.io.IOException if any, or if <tt>file</tt> is not a
+     *           recording.
+     */
+    public BITalinoRecordingReader(final File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = this.file.getChannel();
+            if (channel.size() < BITalinoRecording.HEADER_BYTES)
+                throw new IOException("Not a BITalino recording: " + file);
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    BITalinoRecording.HEADER_BYTES);
+            if (header.getInt(0) != BITalinoRecording.MAGIC)
+                throw new IOException("Not a BITalino recording: " + file);
+            if (header.getShort(4) != BITalinoRecording.VERSION)
+                throw new IOException("Unsupported recording version: " + header.getShort(4));
+
+            samplerate = header.getInt(BITalinoRecording.SAMPLERATE);
+            totalBytes = header.getInt(BITalinoRecording.TOTAL_BYTES);
+            analogChannels = new int[header.get(BITalinoRecording.CHANNEL_COUNT)];
+            for (int k = 0; k < analogChannels.length; k++)
+                analogChannels[k] = header.get(BITalinoRecording.CHANNELS + k);
+            if (analogChannels.length < 1 || analogChannels.length > 6
+                    || totalBytes != BITalinoDevice.totalBytes(analogChannels.length))
+                throw new IOException("Corrupt recording header: " + file);
+            decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+            indexInterval = header.getInt(BITalinoRecording.INDEX_INTERVAL);
+            startTime = header.getLong(BITalinoRecording.START_TIME);
+            filledBytes = BITalinoRecording.filledBytes(indexInterval);
+            segmentBytes = BITalinoRecording.segmentBytes(indexInterval, totalBytes);
+            segmentsPerRegion = BITalinoRecording.segmentsPerRegion(segmentBytes);
+
+            // never trust the count beyond what the file actually holds
+            final long length = channel.size() - BITalinoRecording.HEADER_BYTES;
+            final long complete = length / segmentBytes * indexInterval + Math.max(0,
+                    (length % segmentBytes - BITalinoRecording.INDEX_BYTES - filledBytes)
+                            / totalBytes);
+            sampleCount = Math.min(header.getLong(BITalinoRecording.SAMPLE_COUNT), complete);
+
+            final long segments = (sampleCount + indexInterval - 1) / indexInterval;
+            regions = new MappedByteBuffer[(int) ((segments + segmentsPerRegion - 1) / segmentsPerRegion)];
+            final long regionBytes = (long) segmentsPerRegion * segmentBytes;
+            for (int r = 0; r < regions.length; r++) {
+                final long start = BITalinoRecording.HEADER_BYTES + r * regionBytes;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(regionBytes, channel.size() - start));
+            }
+            frames = new byte[indexInterval * totalBytes];
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes up to <tt>numberOfSamples</tt> samples starting at
+     * <tt>sample</tt> and appends them to <tt>block</tt>.
+     * <p>
+     * Samples recorded as filled (see {@link BITalinoFrameBlock#isFilled(int)})
+     * are read back marked as such. A frame that fails the CRC check is
+     * replaced by a sample with every input at zero, also marked as filled,
+     * so the samples after it keep their position.
+     *
+     * @param sample the number of the first sample to read.
+     * @param block the {@link BITalinoFrameBlock} to append to.
+     * @param numberOfSamples the maximum number of samples to read.
+     * @return the number of samples read, fewer at the end of the recording or
+     *         if <tt>block</tt> fills up.
+     */
+    public int read(final long sample, final BITalinoFrameBlock block,
+                    final int numberOfSamples) {
+        checkArgument(sample >= 0 && sample <= sampleCount, "No sample %s.", sample);
+        final long last = Math.min(sampleCount,
+                sample + Math.min(numberOfSamples, block.getRemaining()));
+        final int first = block.size;
+        long next = sample;
+        while (next < last) {
+            final int run = (int) Math.min(last - next,
+                    indexInterval - next % indexInterval);
+            final ByteBuffer source = frames(next);
+            source.get(frames, 0, run * totalBytes);
+            for (int j = 0; j < run; j++) {
+                if (!decoder.decode(frames, j * totalBytes, block))
+                    fillCorrupt(block, first, j * totalBytes);
+                else if (isFilled(next + j)) {
+                    block.filled[block.size - 1] = true;
+                    block.anyFilled = true;
+                }
+            }
+            next += run;
+        }
+        return block.size - first;
+    }
+
+    /**
+     * Appends, marked as filled, a sample standing in for the frame at
+     * <tt>pos</tt> that failed the CRC check.
+     */
+    private void fillCorrupt(final BITalinoFrameBlock block, final int first, final int pos) {
+        final int i = block.size;
+        // the stored sequence number may be the corrupt part
+        block.seq[i] = i > first ? (block.seq[i - 1] + 1) & 0xf
+                : (frames[pos + totalBytes - 1] >> 4) & 0xf;
+        for (int channel : analogChannels)
+            block.analog[channel][i] = 0;
+        block.digital[i] = 0;
+        block.filled[i] = true;
+        block.anyFilled = true;
+        block.size = i + 1;
+    }
+
+    /**
+     * Returns the raw frames from <tt>sample</tt> to the end of its segment,
+     * without copying.
+     *
+     * @param sample the number of the first sample.
+     * @return a read-only view of the mapped file.
+     */
+    public ByteBuffer frames(final long sample) {
+        checkArgument(sample >= 0 && sample < sampleCount, "No sample %s.", sample);
+        final long segment = sample / indexInterval;
+        final int inSegment = (int) (sample % indexInterval);
+        final int count = (int) Math.min(indexInterval - inSegment, sampleCount - sample);
+        final ByteBuffer view = regions[(int) (segment / segmentsPerRegion)].duplicate();
+        final int position = (int) (segment % segmentsPerRegion) * segmentBytes
+                + BITalinoRecording.INDEX_BYTES + filledBytes + inSegment * totalBytes;
+        view.limit(position + count * totalBytes);
+        view.position(position);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Finds the sample acquired at a point in time.
+     *
+     * @param nanos the time, in nanoseconds since the recording started.
+     * @return the number of the last sample acquired at or before
+     *         <tt>nanos</tt>, or 0 if the recording started after it.
+     */
+    public long sampleAt(final long nanos) {
+        if (sampleCount == 0)
+            return 0;
+        long low = 0, high = (sampleCount + indexInterval - 1) / indexInterval - 1;
+        while (low < high) {
+            final long mid = (low + high + 1) >>> 1;
+            if (indexTime(mid) <= nanos)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        final long first = low * indexInterval;
+        final long offset = Math.max(0, nanos - indexTime(low)) * samplerate
+                / TimeUnit.SECONDS.toNanos(1);
+        return Math.min(first + offset, Math.min(first + indexInterval, sampleCount) - 1);
+    }
+
+    /**
+     * @param sample the number of a sample.
+     * @return the time the sample was acquired, in nanoseconds since the
+     *         recording started, interpolated from its segment index.
+     */
+    public long timeOf(final long sample) {
+        checkArgument(sample >= 0 && sample < sampleCount, "No sample %s.", sample);
+        final long segment = sample / indexInterval;
+        return indexTime(segment) + (sample % indexInterval)
+                * TimeUnit.SECONDS.toNanos(1) / samplerate;
+    }
+
+    public int getSamplerate() {
+        return samplerate;
+    }
+
+    public int[] getAnalogChannels() {
+        return analogChannels.clone();
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the time the recording started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Releases the file. Views returned by {@link #frames(long)} must not be used
+     * afterwards.
+     *
+     * @throws java.io.IOException if any.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private boolean isFilled(final long sample) {
+        final long segment = sample / indexInterval;
+        final int bit = (int) (sample % indexInterval);
+        return (regions[(int) (segment / segmentsPerRegion)].get(
+                (int) (segment % segmentsPerRegion) * segmentBytes
+                        + BITalinoRecording.INDEX_BYTES + bit / 8) & 1 << bit % 8) != 0;
+    }
+
+    private long indexTime(final long segment) {
+        return regions[(int) (segment / segmentsPerRegion)].getLong(
+                (int) (segment % segmentsPerRegion) * segmentBytes + BITalinoRecording.INDEX_TIME);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("samples", sampleCount)
+                .add("samplerate", samplerate)
+                .add("analogChannels", Arrays.toString(analogChannels)).toString();
+    }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Appends frames to a BITalino recording file (see {@link BITalinoRecording})
+ * through memory-mapped regions, so writing costs a memory copy per frame.
+ * <p>
+ * The sample count in the header is updated at every index block, so a
+ * recording that was not closed properly is still readable up to its last
+ * segment. Not thread-safe.
+ */
+public class BITalinoRecordingWriter implements Closeable {
+
+    /**
+     * Default number of frames between index blocks.
+     */
+    public static final int DEFAULT_INDEX_INTERVAL = 1000;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int[] analogChannels;
+    private final int totalBytes;
+    private final int indexInterval;
+    private final int filledBytes;
+    private final int segmentBytes;
+    private final int segmentsPerRegion;
+    private final long startNanos;
+    private final long periodNanos;
+    private final byte[] frame;
+    private final int[] analog = new int[6];
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    private int filledStart;
+    private long sampleCount;
+
+    /**
+     * @param file the file to create or overwrite.
+     * @param samplerate the sampling frequency (Hz).
+     * @param analogChannels the analog channels acquired.
+     * @throws java.io.IOException if any.
+     */
+    public BITalinoRecordingWriter(final File file, final int samplerate,
+                                   final int[] analogChannels) throws IOException {
+        this(file, samplerate, analogChannels, DEFAULT_INDEX_INTERVAL);
+    }
+
+    /**
+     * @param file the file to create or overwrite.
+     * @param samplerate the sampling frequency (Hz).
+     * @param analogChannels the analog channels acquired.
+     * @param indexInterval the number of frames between index blocks.
+     * @throws java.io.IOException if any.
+     */
+    public BITalinoRecordingWriter(final File file, final int samplerate,
+                                   final int[] analogChannels, final int indexInterval)
+            throws IOException {
+        checkArgument(samplerate > 0, "Invalid sampling rate.");
+        checkArgument(analogChannels.length >= 1 && analogChannels.length <= 6,
+                "Between 1 and 6 analog channels are required.");
+        checkArgument(indexInterval > 0, "Index interval must be positive.");
+        this.analogChannels = analogChannels.clone();
+        Arrays.sort(this.analogChannels);
+        this.totalBytes = BITalinoDevice.totalBytes(analogChannels.length);
+        this.indexInterval = indexInterval;
+        this.filledBytes = BITalinoRecording.filledBytes(indexInterval);
+        this.segmentBytes = BITalinoRecording.segmentBytes(indexInterval, totalBytes);
+        this.segmentsPerRegion = BITalinoRecording.segmentsPerRegion(segmentBytes);
+        this.frame = new byte[totalBytes];
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                BITalinoRecording.HEADER_BYTES);
+        header.putInt(0, BITalinoRecording.MAGIC);
+        header.putShort(4, BITalinoRecording.VERSION);
+        header.putShort(6, (short) BITalinoRecording.HEADER_BYTES);
+        header.putInt(BITalinoRecording.SAMPLERATE, samplerate);
+        header.putInt(BITalinoRecording.TOTAL_BYTES, totalBytes);
+        header.put(BITalinoRecording.CHANNEL_COUNT, (byte) this.analogChannels.length);
+        for (int k = 0; k < this.analogChannels.length; k++)
+            header.put(BITalinoRecording.CHANNELS + k, (byte) this.analogChannels[k]);
+        header.putInt(BITalinoRecording.INDEX_INTERVAL, indexInterval);
+        header.putLong(BITalinoRecording.START_TIME, System.currentTimeMillis());
+        header.putLong(BITalinoRecording.SAMPLE_COUNT, 0);
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / samplerate;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Appends raw frames exactly as received from the device, just now.
+     *
+     * @param frames an array of byte.
+     * @param offset the index of the first byte of the first frame.
+     * @param length the number of bytes, a multiple of the frame length.
+     * @throws java.io.IOException if any.
+     */
+    public void write(final byte[] frames, final int offset, final int length)
+            throws IOException {
+        write(frames, offset, length, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Appends raw frames exactly as received from the device.
+     *
+     * @param frames an array of byte.
+     * @param offset the index of the first byte of the first frame.
+     * @param length the number of bytes, a multiple of the frame length.
+     * @param nanos the arrival time of the first frame, in nanoseconds since the
+     *          recording started.
+     * @throws java.io.IOException if any.
+     */
+    public void write(final byte[] frames, final int offset, final int length,
+                      final long nanos) throws IOException {
+        checkArgument(length % totalBytes == 0, "Length must be whole frames.");
+        for (int i = 0; i < length / totalBytes; i++)
+            append(frames, offset + i * totalBytes, nanos + i * periodNanos);
+    }
+
+    /**
+     * Appends decoded samples received just now, packing them back into wire
+     * frames.
+     *
+     * @param block the samples to append.
+     * @throws java.io.IOException if any.
+     */
+    public void write(final BITalinoFrameBlock block) throws IOException {
+        write(block, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Appends decoded samples, packing them back into wire frames. Samples
+     * filled in place of lost frames are flagged in their segment's bitmap
+     * (see {@link BITalinoRecording}).
+     *
+     * @param block the samples to append.
+     * @param nanos the arrival time of the first sample, in nanoseconds since
+     *          the recording started.
+     * @throws java.io.IOException if any.
+     */
+    public void write(final BITalinoFrameBlock block, final long nanos)
+            throws IOException {
+        final int channels = analogChannels.length;
+        for (int i = 0; i < block.size; i++) {
+            for (int k = 0; k < channels; k++)
+                analog[k] = block.analog[analogChannels[k]][i];
+            BITalinoFrameEncoder.encode(frame, 0, totalBytes, block.seq[i],
+                    block.digital[i], analog, channels);
+            append(frame, 0, nanos + i * periodNanos);
+            if (block.anyFilled && block.filled[i])
+                markFilled(sampleCount - 1);
+        }
+    }
+
+    /**
+     * @return the number of samples written so far.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Flushes the recording to disk and releases the file.
+     *
+     * @throws java.io.IOException if any.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        try {
+            header.putLong(BITalinoRecording.SAMPLE_COUNT, sampleCount);
+            header.force();
+            if (region != null) {
+                region.force();
+                try {
+                    channel.truncate(regionStart + region.position());
+                } catch (IOException e) {
+                    // some platforms refuse to truncate a mapped file; readers
+                    // rely on the sample count, not the file length
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void append(final byte[] source, final int offset, final long nanos)
+            throws IOException {
+        checkState(channel.isOpen(), "Recording was closed.");
+        if (sampleCount % indexInterval == 0)
+            startSegment(nanos);
+        region.put(source, offset, totalBytes);
+        sampleCount++;
+    }
+
+    private void startSegment(final long nanos) throws IOException {
+        final long segment = sampleCount / indexInterval;
+        if (segment % segmentsPerRegion == 0) {
+            regionStart = BITalinoRecording.HEADER_BYTES + segment * segmentBytes;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart,
+                    (long) segmentsPerRegion * segmentBytes);
+        }
+        region.putInt(BITalinoRecording.INDEX_MAGIC);
+        region.putInt(0);
+        region.putLong(sampleCount);
+        region.putLong(nanos);
+        // a freshly mapped file reads as zeros: no frame filled yet
+        filledStart = region.position();
+        region.position(filledStart + filledBytes);
+        header.putLong(BITalinoRecording.SAMPLE_COUNT, sampleCount);
+    }
+
+    private void markFilled(final long sample) {
+        final int bit = (int) (sample % indexInterval);
+        final int position = filledStart + bit / 8;
+        region.put(position, (byte) (region.get(position) | 1 << bit % 8));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("samples", sampleCount)
+                .add("analogChannels", Arrays.toString(analogChannels)).toString();
+    }
+
+}
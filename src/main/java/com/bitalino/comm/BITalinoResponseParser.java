@@ -0,0 +1,185 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Picks replies to the version and state commands out of the byte stream, in
+ * place in the {@link BITalinoFrameReader} buffer.
+ * <p>
+ * At most one reply is expected at a time. While acquiring, the board sends a
+ * reply between two frames, so the reader offers every frame boundary to
+ * {@link #match(byte[], int, int, int, int)} before decoding a frame there: a
+ * version reply is recognised by its <tt>BITalino</tt> prefix and ends at the
+ * first newline. A state reply must pass its own CRC check and be followed by
+ * a valid frame carrying the expected sequence number; a valid frame carrying
+ * that number is never taken for the start of one, so a clean stream cannot
+ * lose frames to it. Nothing is allocated but the reply itself.
+ * <p>
+ * Only BITalino 2 boards, firmware 4.2 onwards, answer these commands while
+ * acquiring; older boards take them for digital output triggers. The parser
+ * tells the two apart from the last version reply it matched.
+ */
+final class BITalinoResponseParser {
+
+    /**
+     * Longest version reply accepted, in bytes, including its newline.
+     */
+    static final int MAX_LINE = 64;
+
+    private static final byte[] PREFIX = "BITalino".getBytes(Charsets.US_ASCII);
+
+    private volatile SettableFuture<String> version;
+    private volatile SettableFuture<BITalinoState> state;
+    private volatile boolean bitalino2;
+
+    /**
+     * Expects a reply to the version command. Must be called before the
+     * command is written.
+     *
+     * @return a future completing with the version, without its newline.
+     */
+    ListenableFuture<String> expectVersion() {
+        final SettableFuture<String> future = SettableFuture.create();
+        version = future;
+        return future;
+    }
+
+    /**
+     * Expects a reply to the state command. Must be called before the command
+     * is written.
+     *
+     * @return a future completing with the decoded state.
+     */
+    ListenableFuture<BITalinoState> expectState() {
+        final SettableFuture<BITalinoState> future = SettableFuture.create();
+        state = future;
+        return future;
+    }
+
+    /**
+     * Stops expecting a reply, cancelling the future of a reply not matched
+     * yet.
+     */
+    void cancel() {
+        final SettableFuture<String> version = this.version;
+        final SettableFuture<BITalinoState> state = this.state;
+        this.version = null;
+        this.state = null;
+        if (version != null)
+            version.cancel(false);
+        if (state != null)
+            state.cancel(false);
+    }
+
+    /**
+     * @return <tt>true</tt> while a reply is expected.
+     */
+    boolean isPending() {
+        return version != null || state != null;
+    }
+
+    /**
+     * Tries to match the expected reply at <tt>start</tt>, completing its
+     * future if it does.
+     *
+     * @param buffer the bytes received.
+     * @param start the index of a frame boundary.
+     * @param end the index after the last byte received.
+     * @param totalBytes the frame length.
+     * @param nextSeq the sequence number of the next frame, or -1 if the board
+     *          is not acquiring.
+     * @return the length of the reply matched, 0 if there is no reply at
+     *         <tt>start</tt>, or -1 if more bytes are needed to tell.
+     */
+    int match(final byte[] buffer, final int start, final int end, final int totalBytes,
+              final int nextSeq) {
+        final SettableFuture<String> version = this.version;
+        if (version != null) {
+            final int length = matchLine(buffer, start, end);
+            if (length > 0) {
+                final String reply = new String(buffer, start, length - 1, Charsets.US_ASCII);
+                bitalino2 = isBITalino2(reply);
+                this.version = null;
+                version.set(reply);
+            }
+            return length;
+        }
+        final SettableFuture<BITalinoState> state = this.state;
+        if (state != null) {
+            final int length = BITalinoState.TOTAL_BYTES;
+            if (nextSeq >= 0 && isFrame(buffer, start, totalBytes, nextSeq))
+                return 0;
+            if (end - start < length + (nextSeq < 0 ? 0 : totalBytes))
+                return -1;
+            if (nextSeq >= 0 && !isFrame(buffer, start + length, totalBytes, nextSeq))
+                return 0;
+            final BITalinoState decoded = BITalinoState.decode(buffer, start);
+            if (decoded == null)
+                return 0;
+            this.state = null;
+            state.set(decoded);
+            return length;
+        }
+        return 0;
+    }
+
+    /**
+     * @return <tt>true</tt> if the last version reply matched came from a
+     *         BITalino 2 board.
+     */
+    boolean isBITalino2() {
+        return bitalino2;
+    }
+
+    /**
+     * @param version a reply to the version command, such as
+     *          <tt>BITalino_v5.1</tt>.
+     * @return <tt>true</tt> if the firmware is version 4.2 or later.
+     */
+    static boolean isBITalino2(final String version) {
+        int i = version.indexOf("_v");
+        if (i < 0)
+            return false;
+        int major = 0;
+        for (i += 2; i < version.length() && Character.isDigit(version.charAt(i)); i++)
+            major = major * 10 + version.charAt(i) - '0';
+        int minor = 0;
+        if (i + 1 < version.length() && version.charAt(i) == '.'
+                && Character.isDigit(version.charAt(i + 1)))
+            minor = version.charAt(i + 1) - '0';
+        return major > 4 || major == 4 && minor >= 2;
+    }
+
+    private static boolean isFrame(final byte[] buffer, final int offset,
+                                   final int totalBytes, final int seq) {
+        return BITalinoCRC.check(buffer, offset, totalBytes)
+                && ((buffer[offset + totalBytes - 1] >> 4) & 0xf) == seq;
+    }
+
+    private static int matchLine(final byte[] buffer, final int start, final int end) {
+        final int prefix = Math.min(PREFIX.length, end - start);
+        for (int i = 0; i < prefix; i++)
+            if (buffer[start + i] != PREFIX[i])
+                return 0;
+        final int last = Math.min(end, start + MAX_LINE);
+        for (int i = start + prefix; i < last; i++)
+            if (buffer[i] == '\n')
+                return i - start + 1;
+        return last - start < MAX_LINE ? -1 : 0;
+    }
+
+}
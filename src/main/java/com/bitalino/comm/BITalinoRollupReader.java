@@ -0,0 +1,207 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads one rollup level of a recording (see {@link BITalinoRecording}) through
+ * a memory-mapped file. Not thread-safe.
+ */
+public class BITalinoRollupReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer records;
+    private final int samplerate;
+    private final int factor;
+    private final int[] analogChannels;
+    private final int[] columns = new int[6];
+    private final int recordBytes;
+    private final long sampleCount;
+    private final int bucketCount;
+
+    /**
+     * @param recording the recording the rollups belong to.
+     * @param factor the samples per bucket of the level to open.
+     * @throws java.io.IOException if any, or if the level does not exist.
+     */
+    public BITalinoRollupReader(final File recording, final int factor) throws IOException {
+        final File path = BITalinoRecording.rollupFile(recording, factor);
+        this.file = new RandomAccessFile(path, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            if (channel.size() < BITalinoRecording.ROLLUP_HEADER_BYTES)
+                throw new IOException("Not a BITalino rollup: " + path);
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    BITalinoRecording.ROLLUP_HEADER_BYTES);
+            if (header.getInt(0) != BITalinoRecording.ROLLUP_MAGIC)
+                throw new IOException("Not a BITalino rollup: " + path);
+            if (header.getShort(4) != BITalinoRecording.VERSION)
+                throw new IOException("Unsupported rollup version: " + header.getShort(4));
+            samplerate = header.getInt(BITalinoRecording.SAMPLERATE);
+            this.factor = header.getInt(BITalinoRecording.ROLLUP_FACTOR);
+            analogChannels = new int[header.get(BITalinoRecording.CHANNEL_COUNT)];
+            Arrays.fill(columns, -1);
+            for (int k = 0; k < analogChannels.length; k++) {
+                analogChannels[k] = header.get(BITalinoRecording.CHANNELS + k);
+                columns[analogChannels[k]] = k;
+            }
+            recordBytes = analogChannels.length * BITalinoRecording.ROLLUP_RECORD_BYTES;
+            sampleCount = header.getLong(BITalinoRecording.ROLLUP_SAMPLE_COUNT);
+            final long length = channel.size() - BITalinoRecording.ROLLUP_HEADER_BYTES;
+            checkArgument(length / recordBytes <= Integer.MAX_VALUE / recordBytes,
+                    "Rollup level is too large to map: %s", path);
+            bucketCount = (int) (length / recordBytes);
+            records = channel.map(FileChannel.MapMode.READ_ONLY,
+                    BITalinoRecording.ROLLUP_HEADER_BYTES, (long) bucketCount * recordBytes);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the summaries of up to <tt>n</tt> consecutive buckets of a channel.
+     *
+     * @param channel the analog channel, from 0 to 5.
+     * @param bucket the first bucket.
+     * @param n the maximum number of buckets.
+     * @param min where to write the minimum of each bucket.
+     * @param max where to write the maximum of each bucket.
+     * @param mean where to write the mean of each bucket.
+     * @param offset the index in the arrays of the first bucket.
+     * @return the number of buckets read, fewer at the end of the level.
+     */
+    public int read(final int channel, final int bucket, final int n, final short[] min,
+                    final short[] max, final float[] mean, final int offset) {
+        final int column = column(channel);
+        checkArgument(bucket >= 0 && bucket <= bucketCount, "No bucket %s.", bucket);
+        final int count = Math.min(n, bucketCount - bucket);
+        for (int b = 0; b < count; b++) {
+            final int position = (bucket + b) * recordBytes
+                    + column * BITalinoRecording.ROLLUP_RECORD_BYTES;
+            min[offset + b] = records.getShort(position);
+            max[offset + b] = records.getShort(position + 2);
+            mean[offset + b] = records.getFloat(position + 4);
+        }
+        return count;
+    }
+
+    /**
+     * @param channel the analog channel, from 0 to 5.
+     * @param bucket the bucket.
+     * @return the smallest raw value of the channel in the bucket.
+     */
+    public int getMin(final int channel, final int bucket) {
+        return records.getShort(position(channel, bucket));
+    }
+
+    /**
+     * @param channel the analog channel, from 0 to 5.
+     * @param bucket the bucket.
+     * @return the largest raw value of the channel in the bucket.
+     */
+    public int getMax(final int channel, final int bucket) {
+        return records.getShort(position(channel, bucket) + 2);
+    }
+
+    /**
+     * @param channel the analog channel, from 0 to 5.
+     * @param bucket the bucket.
+     * @return the mean raw value of the channel in the bucket, or NaN if
+     *         every sample in it was filled.
+     */
+    public double getMean(final int channel, final int bucket) {
+        return records.getFloat(position(channel, bucket) + 4);
+    }
+
+    /**
+     * @param sample a sample number.
+     * @return the bucket summarising that sample.
+     */
+    public int bucketOf(final long sample) {
+        return (int) (sample / factor);
+    }
+
+    private int position(final int channel, final int bucket) {
+        final int column = column(channel);
+        checkArgument(bucket >= 0 && bucket < bucketCount, "No bucket %s.", bucket);
+        return bucket * recordBytes + column * BITalinoRecording.ROLLUP_RECORD_BYTES;
+    }
+
+    private int column(final int channel) {
+        checkArgument(channel >= 0 && channel < 6 && columns[channel] >= 0,
+                "Channel %s was not acquired.", channel);
+        return columns[channel];
+    }
+
+    /**
+     * @return the sampling frequency (Hz) of the recording.
+     */
+    public int getSamplerate() {
+        return samplerate;
+    }
+
+    /**
+     * @return the samples per bucket.
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return the analog channels acquired, in ascending order.
+     */
+    public int[] getAnalogChannels() {
+        return analogChannels.clone();
+    }
+
+    /**
+     * @return the number of buckets, the last of which may be partial.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * @return the number of samples summarised, or 0 if the writer was not
+     *         closed properly.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("factor", factor)
+                .add("buckets", bucketCount)
+                .add("analogChannels", Arrays.toString(analogChannels)).toString();
+    }
+
+}
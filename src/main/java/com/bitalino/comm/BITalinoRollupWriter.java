@@ -0,0 +1,324 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Computes min/max/mean rollups of a recording as frames arrive and writes
+ * them next to it (see {@link BITalinoRecording}), so that long sessions can
+ * be viewed at any zoom level without reading every raw sample.
+ * <p>
+ * Each level summarises buckets of a fixed number of samples and is built
+ * from the level below it, so the cost per sample does not grow with the
+ * number of levels. Samples filled in place of lost frames (see
+ * {@link BITalinoGapFill}) are left out of every summary; a bucket holding
+ * nothing else is written with a min and max of 0 and a NaN mean. Not
+ * thread-safe.
+ */
+public class BITalinoRollupWriter implements Closeable {
+
+    /**
+     * Default samples per bucket of each level: 100 Hz, 10 Hz and 1 Hz views
+     * of a 1000 Hz recording.
+     */
+    public static final int[] DEFAULT_FACTORS = {10, 100, 1000};
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final int[] analogChannels;
+    private final int[] factors;
+    private final Level[] levels;
+    private long sampleCount;
+    private boolean closed;
+
+    /**
+     * Writes the default levels.
+     *
+     * @param recording the recording the rollups belong to.
+     * @param samplerate the sampling frequency (Hz).
+     * @param analogChannels the analog channels acquired.
+     * @throws java.io.IOException if any.
+     */
+    public BITalinoRollupWriter(final File recording, final int samplerate,
+                                final int[] analogChannels) throws IOException {
+        this(recording, samplerate, analogChannels, DEFAULT_FACTORS);
+    }
+
+    /**
+     * @param recording the recording the rollups belong to.
+     * @param samplerate the sampling frequency (Hz).
+     * @param analogChannels the analog channels acquired.
+     * @param factors the samples per bucket of each level, in increasing
+     *          order, each a multiple of the one before.
+     * @throws java.io.IOException if any.
+     */
+    public BITalinoRollupWriter(final File recording, final int samplerate,
+                                final int[] analogChannels, final int[] factors)
+            throws IOException {
+        checkArgument(samplerate > 0, "Invalid sampling rate.");
+        checkArgument(analogChannels.length >= 1 && analogChannels.length <= 6,
+                "Between 1 and 6 analog channels are required.");
+        checkArgument(factors.length > 0, "At least one level is required.");
+        for (int l = 0; l < factors.length; l++)
+            checkArgument(factors[l] > 1 && (l == 0 || factors[l] % factors[l - 1] == 0
+                    && factors[l] > factors[l - 1]),
+                    "Each factor must be a larger multiple of the one before.");
+        this.analogChannels = analogChannels.clone();
+        Arrays.sort(this.analogChannels);
+        this.factors = factors.clone();
+        this.levels = new Level[factors.length];
+        try {
+            for (int l = 0; l < factors.length; l++)
+                levels[l] = new Level(BITalinoRecording.rollupFile(recording, factors[l]),
+                        samplerate, factors[l], l == 0 ? factors[l] : factors[l] / factors[l - 1]);
+        } catch (IOException e) {
+            for (Level level : levels)
+                if (level != null)
+                    level.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the default levels of an existing recording.
+     *
+     * @param recording the recording.
+     * @throws java.io.IOException if any.
+     */
+    public static void rollup(final File recording) throws IOException {
+        final BITalinoRecordingReader reader = new BITalinoRecordingReader(recording);
+        try {
+            final BITalinoRollupWriter writer = new BITalinoRollupWriter(recording,
+                    reader.getSamplerate(), reader.getAnalogChannels());
+            try {
+                final BITalinoFrameBlock block = new BITalinoFrameBlock(4096);
+                for (long sample = 0; sample < reader.getSampleCount(); sample += block.size) {
+                    block.clear();
+                    reader.read(sample, block, block.getCapacity());
+                    writer.add(block);
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Adds the samples of <tt>block</tt> to every level.
+     *
+     * @param block a {@link com.bitalino.comm.BITalinoFrameBlock}.
+     * @throws java.io.IOException if any.
+     */
+    public void add(final BITalinoFrameBlock block) throws IOException {
+        checkState(!closed, "Rollups were closed.");
+        final Level first = levels[0];
+        for (int i = 0; i < block.size; i++) {
+            if (block.anyFilled && block.filled[i]) {
+                if (++first.count == first.ratio)
+                    emit(0);
+                continue;
+            }
+            for (int k = 0; k < analogChannels.length; k++) {
+                final int value = block.analog[analogChannels[k]][i];
+                if (value < first.min[k])
+                    first.min[k] = value;
+                if (value > first.max[k])
+                    first.max[k] = value;
+                first.sum[k] += value;
+            }
+            first.samples++;
+            if (++first.count == first.ratio)
+                emit(0);
+        }
+        sampleCount += block.size;
+    }
+
+    /**
+     * Writes the bucket complete at level <tt>l</tt> and folds it into the
+     * level above.
+     */
+    private void emit(final int l) throws IOException {
+        final Level level = levels[l];
+        level.write();
+        if (l + 1 < levels.length) {
+            final Level next = levels[l + 1];
+            for (int k = 0; k < analogChannels.length; k++) {
+                next.min[k] = Math.min(next.min[k], level.min[k]);
+                next.max[k] = Math.max(next.max[k], level.max[k]);
+                next.sum[k] += level.sum[k];
+            }
+            next.samples += level.samples;
+            if (++next.count == next.ratio) {
+                level.clear();
+                emit(l + 1);
+                return;
+            }
+        }
+        level.clear();
+    }
+
+    /**
+     * @return the number of samples added.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the samples per bucket of each level.
+     */
+    public int[] getFactors() {
+        return factors.clone();
+    }
+
+    /**
+     * Writes partial buckets and the sample count, and releases the files.
+     *
+     * @throws java.io.IOException if any.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        IOException failure = null;
+        for (int l = 0; l < levels.length; l++) {
+            final Level level = levels[l];
+            try {
+                if (level.count > 0) {
+                    level.write();
+                    if (l + 1 < levels.length) {
+                        final Level next = levels[l + 1];
+                        for (int k = 0; k < analogChannels.length; k++) {
+                            next.min[k] = Math.min(next.min[k], level.min[k]);
+                            next.max[k] = Math.max(next.max[k], level.max[k]);
+                            next.sum[k] += level.sum[k];
+                        }
+                        next.samples += level.samples;
+                        next.count++;
+                    }
+                }
+                level.finish(sampleCount);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                level.file.close();
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("samples", sampleCount)
+                .add("factors", Arrays.toString(factors)).toString();
+    }
+
+    /**
+     * The bucket being accumulated at one level, and its file.
+     */
+    private final class Level {
+
+        final RandomAccessFile file;
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        final int ratio;
+        final int[] min = new int[analogChannels.length];
+        final int[] max = new int[analogChannels.length];
+        final double[] sum = new double[analogChannels.length];
+        /**
+         * Buckets of the level below (or samples, at the first level) so far.
+         */
+        int count;
+        /**
+         * Received samples so far, excluding filled ones, which divide the
+         * sum into the mean.
+         */
+        long samples;
+
+        Level(final File path, final int samplerate, final int factor, final int ratio)
+                throws IOException {
+            this.ratio = ratio;
+            this.file = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            this.channel = file.getChannel();
+            buffer.putInt(BITalinoRecording.ROLLUP_MAGIC);
+            buffer.putShort(BITalinoRecording.VERSION);
+            buffer.putShort((short) BITalinoRecording.ROLLUP_HEADER_BYTES);
+            buffer.putInt(samplerate);
+            buffer.putInt(factor);
+            buffer.put((byte) analogChannels.length);
+            for (int k = 0; k < 6; k++)
+                buffer.put((byte) (k < analogChannels.length ? analogChannels[k] : 0));
+            buffer.put((byte) 0);
+            buffer.putLong(0);
+            clear();
+        }
+
+        void write() throws IOException {
+            if (buffer.remaining() < analogChannels.length * BITalinoRecording.ROLLUP_RECORD_BYTES)
+                flush();
+            for (int k = 0; k < analogChannels.length; k++) {
+                if (samples == 0) {
+                    buffer.putShort((short) 0);
+                    buffer.putShort((short) 0);
+                    buffer.putFloat(Float.NaN);
+                    continue;
+                }
+                buffer.putShort((short) min[k]);
+                buffer.putShort((short) max[k]);
+                buffer.putFloat((float) (sum[k] / samples));
+            }
+        }
+
+        void clear() {
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+            Arrays.fill(sum, 0);
+            count = 0;
+            samples = 0;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        void finish(final long sampleCount) throws IOException {
+            flush();
+            buffer.putLong(sampleCount).flip();
+            channel.write(buffer, BITalinoRecording.ROLLUP_SAMPLE_COUNT);
+            buffer.clear();
+            channel.force(false);
+        }
+
+    }
+
+}
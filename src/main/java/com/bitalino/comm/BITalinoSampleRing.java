@@ -0,0 +1,331 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Single-producer/single-consumer ring buffer of decoded samples, stored as
+ * primitive columns sized once at construction.
+ * <p>
+ * The producer copies a whole batch in and publishes it with one ordered
+ * store, so publishing never waits on the consumer unless the ring is full and
+ * the {@link BITalinoOverflowPolicy} is {@link BITalinoOverflowPolicy#BLOCK}.
+ * The consumer drains in batches with the same cost. Only one thread may
+ * publish and only one thread may drain.
+ */
+public class BITalinoSampleRing {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int[] analogChannels;
+    private final BITalinoOverflowPolicy policy;
+    private final int mask;
+    private final byte[] seq;
+    private final short[][] analog;
+    private final byte[] digital;
+    private final boolean[] filled;
+    private final long[] times;
+
+    /**
+     * Sequence of the next sample to be written; only the producer advances it.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Sequence of the next sample to be read; the producer advances it only
+     * when dropping the oldest samples.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param capacity
+     *          the minimum number of samples the ring holds; rounded up to a
+     *          power of two.
+     * @param analogChannels
+     *          the analog channels to keep.
+     * @param policy
+     *          what to do when the ring is full.
+     */
+    public BITalinoSampleRing(final int capacity, final int[] analogChannels,
+                              final BITalinoOverflowPolicy policy) {
+        this(capacity, analogChannels, policy, false);
+    }
+
+    /**
+     * @param capacity
+     *          the minimum number of samples the ring holds; rounded up to a
+     *          power of two.
+     * @param analogChannels
+     *          the analog channels to keep.
+     * @param policy
+     *          what to do when the ring is full.
+     * @param timed
+     *          whether samples are published with a timestamp each.
+     */
+    BITalinoSampleRing(final int capacity, final int[] analogChannels,
+                       final BITalinoOverflowPolicy policy, final boolean timed) {
+        checkArgument(capacity > 0 && capacity <= (1 << 30), "Invalid capacity.");
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+                : Integer.highestOneBit(capacity) << 1;
+        this.analogChannels = analogChannels.clone();
+        this.policy = policy;
+        this.mask = size - 1;
+        this.seq = new byte[size];
+        this.analog = new short[6][];
+        for (int channel : analogChannels)
+            this.analog[channel] = new short[size];
+        this.digital = new byte[size];
+        this.filled = new boolean[size];
+        this.times = timed ? new long[size] : null;
+    }
+
+    /**
+     * Copies every sample in <tt>block</tt> into the ring. Must only be called
+     * from the producer thread.
+     *
+     * @param block the samples to publish.
+     * @return the number of samples from <tt>block</tt> that were stored.
+     * @throws java.lang.InterruptedException if interrupted while waiting for
+     *           space under {@link BITalinoOverflowPolicy#BLOCK}.
+     */
+    public int publish(final BITalinoFrameBlock block) throws InterruptedException {
+        return publish(block, null);
+    }
+
+    /**
+     * Copies every sample in <tt>block</tt>, and its timestamp, into a timed
+     * ring. Must only be called from the producer thread.
+     *
+     * @param block the samples to publish.
+     * @param times the timestamp of sample <tt>i</tt> at index <tt>i</tt>.
+     * @return the number of samples from <tt>block</tt> that were stored.
+     * @throws java.lang.InterruptedException if interrupted while waiting for
+     *           space under {@link BITalinoOverflowPolicy#BLOCK}.
+     */
+    int publish(final BITalinoFrameBlock block, final long[] times)
+            throws InterruptedException {
+        checkArgument(times != null || this.times == null, "Timestamps were not provided.");
+        final int capacity = mask + 1;
+        final int count = block.size;
+        int last = count;
+        int from = 0;
+        if (policy == BITalinoOverflowPolicy.DROP_OLDEST && count > capacity) {
+            from = count - capacity;
+            dropped.addAndGet(from);
+        }
+        final int first = from;
+        while (from < last) {
+            final long h = head.get();
+            final int free = (int) (capacity - (h - tail.get()));
+            int n = last - from;
+            if (n > free) {
+                if (policy == BITalinoOverflowPolicy.DROP_NEWEST) {
+                    dropped.addAndGet(n - free);
+                    n = free;
+                    last = from + n;
+                } else if (policy == BITalinoOverflowPolicy.DROP_OLDEST) {
+                    evict(h + n - capacity);
+                } else {
+                    if (free == 0) {
+                        if (closed)
+                            break;
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                        if (Thread.interrupted())
+                            throw new InterruptedException();
+                        continue;
+                    }
+                    n = free;
+                }
+            }
+            write(block, times, from, h, n);
+            head.lazySet(h + n);
+            from += n;
+        }
+        return from - first;
+    }
+
+    /**
+     * Moves up to <tt>max</tt> samples into <tt>block</tt>, never blocking.
+     * Must only be called from the consumer thread.
+     *
+     * @param block the {@link BITalinoFrameBlock} to append to.
+     * @param max the maximum number of samples to move.
+     * @return the number of samples appended.
+     */
+    public int drain(final BITalinoFrameBlock block, final int max) {
+        return drain(block, max, Long.MAX_VALUE);
+    }
+
+    /**
+     * Moves up to <tt>max</tt> samples timestamped before <tt>nanos</tt> into
+     * <tt>block</tt>, never blocking. Must only be called from the consumer
+     * thread.
+     *
+     * @param block the {@link BITalinoFrameBlock} to append to.
+     * @param max the maximum number of samples to move.
+     * @param nanos the timestamp, exclusive, to drain up to; only honoured by
+     *          a timed ring.
+     * @return the number of samples appended.
+     */
+    int drain(final BITalinoFrameBlock block, final int max, final long nanos) {
+        final int limit = Math.min(max, block.getRemaining());
+        while (true) {
+            final long t = tail.get();
+            final long h = head.get();
+            if (h - t > mask + 1) {
+                // the producer evicted past t and wrapped around since we read it
+                continue;
+            }
+            int n = (int) Math.min(h - t, limit);
+            if (times != null) {
+                for (int i = 0; i < n; i++) {
+                    if (times[(int) (t + i) & mask] >= nanos) {
+                        n = i;
+                        break;
+                    }
+                }
+            }
+            if (n <= 0)
+                return 0;
+            read(t, block, n);
+            if (policy != BITalinoOverflowPolicy.DROP_OLDEST) {
+                tail.lazySet(t + n);
+            } else if (!tail.compareAndSet(t, t + n)) {
+                // the producer overwrote the oldest samples while we copied them
+                continue;
+            }
+            block.size += n;
+            return n;
+        }
+    }
+
+    /**
+     * @return the number of samples waiting to be drained.
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * @return the number of samples the ring can hold.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the total number of samples lost to overflow.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of samples ever published, including those evicted.
+     */
+    long getWriteIndex() {
+        return head.get();
+    }
+
+    /**
+     * @return the index, counted from the first sample ever published, of the
+     *         next sample to be drained.
+     */
+    long getReadIndex() {
+        return tail.get();
+    }
+
+    /**
+     * @param index the index, counted from the first sample ever published,
+     *          of a sample not yet drained, in a timed ring.
+     * @return its timestamp, or {@link Long#MIN_VALUE} if it was evicted
+     *         meanwhile.
+     */
+    long getTime(final long index) {
+        final long time = times[(int) index & mask];
+        // the producer evicts a sample before overwriting it
+        return tail.get() <= index ? time : Long.MIN_VALUE;
+    }
+
+    /**
+     * Releases a producer blocked on a full ring; later publishes store only
+     * what fits.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private void evict(final long target) {
+        long t;
+        while ((t = tail.get()) < target) {
+            if (tail.compareAndSet(t, target)) {
+                dropped.addAndGet(target - t);
+                return;
+            }
+        }
+    }
+
+    private void write(final BITalinoFrameBlock block, final long[] times, final int from,
+                       final long position, final int n) {
+        final int index = (int) position & mask;
+        final int first = Math.min(n, mask + 1 - index);
+        if (this.times != null) {
+            System.arraycopy(times, from, this.times, index, first);
+            System.arraycopy(times, from + first, this.times, 0, n - first);
+        }
+        for (int i = 0; i < n; i++)
+            seq[(index + i) & mask] = (byte) block.seq[from + i];
+        System.arraycopy(block.digital, from, digital, index, first);
+        System.arraycopy(block.digital, from + first, digital, 0, n - first);
+        System.arraycopy(block.filled, from, filled, index, first);
+        System.arraycopy(block.filled, from + first, filled, 0, n - first);
+        for (int channel : analogChannels) {
+            System.arraycopy(block.analog[channel], from, analog[channel], index, first);
+            System.arraycopy(block.analog[channel], from + first, analog[channel], 0, n - first);
+        }
+    }
+
+    private void read(final long position, final BITalinoFrameBlock block, final int n) {
+        final int index = (int) position & mask;
+        final int first = Math.min(n, mask + 1 - index);
+        final int to = block.size;
+        for (int i = 0; i < n; i++)
+            block.seq[to + i] = seq[(index + i) & mask];
+        System.arraycopy(digital, index, block.digital, to, first);
+        System.arraycopy(digital, 0, block.digital, to + first, n - first);
+        System.arraycopy(filled, index, block.filled, to, first);
+        System.arraycopy(filled, 0, block.filled, to + first, n - first);
+        for (int i = 0; i < n && !block.anyFilled; i++)
+            block.anyFilled = block.filled[to + i];
+        for (int channel : analogChannels) {
+            System.arraycopy(analog[channel], index, block.analog[channel], to, first);
+            System.arraycopy(analog[channel], 0, block.analog[channel], to + first, n - first);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("size", size())
+                .add("capacity", getCapacity()).add("policy", policy)
+                .add("dropped", getDropped()).toString();
+    }
+
+}
@@ -0,0 +1,441 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * In-memory stand-in for a BITalino board, to be handed to
+ * {@link BITalinoDevice#open(java.io.InputStream, java.io.OutputStream)}.
+ * <p>
+ * It answers the sampling rate, start, stop, trigger, battery threshold,
+ * version and state commands like BITalino 2 firmware does and, while
+ * acquiring, serves frames with valid CRCs and sequence numbers from a
+ * {@link Source}: synthetic signals or a recording.
+ * Frames are paced in real time, a multiple of it, or served as fast as they
+ * are read, and a fraction of them can be lost or corrupted on purpose.
+ */
+public class BITalinoSimulator {
+
+    /**
+     * Reply to the version command.
+     */
+    public static final String VERSION = "BITalino_v5.1\n";
+
+    /**
+     * Raw battery level reported by the state command.
+     */
+    public static final int BATTERY = 900;
+
+    /**
+     * Provides the samples a simulated board acquires.
+     */
+    public interface Source {
+
+        /**
+         * Fills in sample <tt>n</tt>.
+         *
+         * @param n the sample number, from 0 at the start of acquisition.
+         * @param analog the values of analog channels 0 to 5, to be filled in.
+         * @return the digital inputs, digital input 0 in bit 3 down to digital
+         *         input 3 in bit 0.
+         */
+        int sample(long n, int[] analog);
+
+    }
+
+    /**
+     * Sine waves of 1 to 6 Hz on analog channels 0 to 5, spanning each
+     * channel's range, with the digital inputs counting samples.
+     */
+    public static class SyntheticSource implements Source {
+
+        @Override
+        public int sample(final long n, final int[] analog) {
+            for (int channel = 0; channel < 6; channel++) {
+                final double phase = 2 * Math.PI * (channel + 1) * n / 1000;
+                final int max = channel < 4 ? 1023 : 63;
+                analog[channel] = (int) Math.round((Math.sin(phase) + 1) * max / 2);
+            }
+            return (int) (n & 0xf);
+        }
+
+    }
+
+    /**
+     * Replays a recording, looping at its end.
+     */
+    public static class RecordingSource implements Source {
+
+        private final BITalinoRecordingReader reader;
+        private final int[] analogChannels;
+        private final BITalinoFrameBlock block = new BITalinoFrameBlock(1024);
+        private long first = -1;
+
+        /**
+         * @param reader an open {@link BITalinoRecordingReader} holding at
+         *          least one sample.
+         */
+        public RecordingSource(final BITalinoRecordingReader reader) {
+            checkArgument(reader.getSampleCount() > 0, "Recording is empty.");
+            this.reader = reader;
+            this.analogChannels = reader.getAnalogChannels();
+        }
+
+        @Override
+        public int sample(final long n, final int[] analog) {
+            final long sample = n % reader.getSampleCount();
+            if (first < 0 || sample < first || sample >= first + block.size) {
+                block.clear();
+                reader.read(sample, block, block.getCapacity());
+                first = sample;
+            }
+            final int index = (int) (sample - first);
+            for (int channel : analogChannels)
+                analog[channel] = block.analog[channel][index];
+            return block.digital[index];
+        }
+
+    }
+
+    private static final int[] SAMPLERATES = {1, 10, 100, 1000};
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Source source;
+    private final InputStream input = new SimulatorInputStream();
+    private final OutputStream output = new SimulatorOutputStream();
+    private final byte[] pending = new byte[64 * 1024];
+    private final int[] values = new int[6];
+    private final int[] analog = new int[6];
+    private final int[] acquired = new int[6];
+    private final Random random = new Random();
+
+    private int pendingStart;
+    private int pendingEnd;
+    private int samplerate = 1000;
+    private double speed = 1;
+    private double lossRate;
+    private double corruptionRate;
+    private int channels;
+    private int totalBytes;
+    private boolean acquiring;
+    private boolean closed;
+    private long startNanos;
+    private long sample;
+    private int digitalOutputs;
+    private int batteryThreshold;
+
+    /**
+     * Creates a board acquiring {@link SyntheticSource} signals.
+     */
+    public BITalinoSimulator() {
+        this(new SyntheticSource());
+    }
+
+    /**
+     * @param source where acquired samples come from.
+     */
+    public BITalinoSimulator(final Source source) {
+        checkNotNull(source, "Source was not provided.");
+        this.source = source;
+    }
+
+    /**
+     * @return the stream the board sends on.
+     */
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * @return the stream the board receives commands on.
+     */
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * Sets how fast frames are served relative to the sampling rate.
+     *
+     * @param speed 1 for real time, 50 for fifty times faster, or
+     *          {@link Double#POSITIVE_INFINITY} to serve frames as fast as they
+     *          are read.
+     */
+    public synchronized void setSpeed(final double speed) {
+        checkArgument(speed > 0, "Speed must be positive.");
+        this.speed = speed;
+    }
+
+    /**
+     * @param lossRate the fraction of frames never sent, leaving gaps in the
+     *          sequence numbers.
+     */
+    public synchronized void setLossRate(final double lossRate) {
+        checkArgument(lossRate >= 0 && lossRate < 1, "Loss rate must be in [0, 1).");
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @param corruptionRate the fraction of frames sent with one bit flipped.
+     */
+    public synchronized void setCorruptionRate(final double corruptionRate) {
+        checkArgument(corruptionRate >= 0 && corruptionRate < 1,
+                "Corruption rate must be in [0, 1).");
+        this.corruptionRate = corruptionRate;
+    }
+
+    /**
+     * @param seed the seed for frame loss and corruption, for reproducible runs.
+     */
+    public synchronized void setSeed(final long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * @return the sampling frequency last set by the host (Hz).
+     */
+    public synchronized int getSamplerate() {
+        return samplerate;
+    }
+
+    /**
+     * @return the digital outputs last set by the host, output 0 in bit 0.
+     */
+    public synchronized int getDigitalOutputs() {
+        return digitalOutputs;
+    }
+
+    /**
+     * @return the battery threshold last set by the host (0 to 63).
+     */
+    public synchronized int getBatteryThreshold() {
+        return batteryThreshold;
+    }
+
+    /**
+     * @return <tt>true</tt> while the board is acquiring.
+     */
+    public synchronized boolean isAcquiring() {
+        return acquiring;
+    }
+
+    /**
+     * Disconnects the board: pending and later reads see the end of the stream.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void command(final int command) {
+        if (acquiring) {
+            // like BITalino 2 firmware, answer version and state between frames
+            if (command == 0) {
+                acquiring = false;
+                pendingStart = pendingEnd = 0;
+            } else if (command == 0x07) {
+                reply(VERSION.getBytes(Charsets.US_ASCII));
+            } else if (command == 0x0B) {
+                reply(state());
+            } else if ((command & 0xF3) == 0xB3) {
+                digitalOutputs = (command >> 2) & 0x3;
+            } else if ((command & 0x03) == 0x03) {
+                digitalOutputs = (command >> 2) & 0xf;
+            }
+        } else if (command == 0x07) {
+            reply(VERSION.getBytes(Charsets.US_ASCII));
+        } else if (command == 0x0B) {
+            reply(state());
+        } else if ((command & 0x03) == 0x03) {
+            samplerate = SAMPLERATES[(command >> 6) & 0x03];
+        } else if ((command & 0x03) == 0x01) {
+            channels = 0;
+            for (int channel = 0; channel < 6; channel++)
+                if ((command & (1 << (2 + channel))) != 0)
+                    acquired[channels++] = channel;
+            if (channels > 0) {
+                totalBytes = BITalinoDevice.totalBytes(channels);
+                sample = 0;
+                startNanos = System.nanoTime();
+                acquiring = true;
+            }
+        } else if ((command & 0x03) == 0x00) {
+            batteryThreshold = command >> 2;
+        }
+        // unknown commands are accepted silently
+        notifyAll();
+    }
+
+    private byte[] state() {
+        final byte[] state = new byte[BITalinoState.TOTAL_BYTES];
+        final int digital = source.sample(sample, analog);
+        for (int channel = 0; channel < 6; channel++) {
+            state[2 * channel] = (byte) analog[channel];
+            state[2 * channel + 1] = (byte) (analog[channel] >> 8);
+        }
+        state[12] = (byte) BATTERY;
+        state[13] = (byte) (BATTERY >> 8);
+        state[14] = (byte) batteryThreshold;
+        // digital inputs 0 and 1, then digital outputs 0 and 1
+        final int ports = (digital & 0xc) | (digitalOutputs & 0x1) << 1 | (digitalOutputs >> 1) & 0x1;
+        state[15] = (byte) (ports << 4);
+        state[15] |= BITalinoCRC.compute(state, 0, state.length);
+        return state;
+    }
+
+    private void reply(final byte[] bytes) {
+        compact();
+        final int n = Math.min(bytes.length, pending.length - pendingEnd);
+        System.arraycopy(bytes, 0, pending, pendingEnd, n);
+        pendingEnd += n;
+    }
+
+    private void compact() {
+        if (pendingStart > 0) {
+            System.arraycopy(pending, pendingStart, pending, 0, pendingEnd - pendingStart);
+            pendingEnd -= pendingStart;
+            pendingStart = 0;
+        }
+    }
+
+    /**
+     * @return the number of samples due by now, from the start of acquisition.
+     */
+    private long due() {
+        if (Double.isInfinite(speed))
+            return Long.MAX_VALUE;
+        return (long) ((System.nanoTime() - startNanos) * speed * samplerate / SECOND) + 1;
+    }
+
+    /**
+     * Encodes due frames into the pending buffer.
+     *
+     * @return the number of nanoseconds until the next frame is due, or 0 if
+     *         frames were produced.
+     */
+    private long produce() {
+        compact();
+        final long due = due();
+        final long first = sample;
+        while (sample < due && pending.length - pendingEnd >= totalBytes) {
+            final int digital = source.sample(sample, analog);
+            for (int k = 0; k < channels; k++)
+                values[k] = analog[acquired[k]];
+            if (lossRate == 0 || random.nextDouble() >= lossRate) {
+                BITalinoFrameEncoder.encode(pending, pendingEnd, totalBytes,
+                        (int) (sample & 0xf), digital, values, channels);
+                if (corruptionRate > 0 && random.nextDouble() < corruptionRate)
+                    pending[pendingEnd + random.nextInt(totalBytes)] ^= 1 << random.nextInt(8);
+                pendingEnd += totalBytes;
+            }
+            sample++;
+        }
+        if (sample > first)
+            return 0;
+        final long next = startNanos + (long) (sample * SECOND / (samplerate * speed));
+        return Math.max(1, next - System.nanoTime());
+    }
+
+    private synchronized int read(final byte[] b, final int off, final int len)
+            throws IOException {
+        if (len == 0)
+            return 0;
+        try {
+            while (true) {
+                if (closed)
+                    return -1;
+                if (pendingEnd > pendingStart) {
+                    final int n = Math.min(len, pendingEnd - pendingStart);
+                    System.arraycopy(pending, pendingStart, b, off, n);
+                    pendingStart += n;
+                    return n;
+                }
+                if (!acquiring) {
+                    wait();
+                    continue;
+                }
+                final long wait = produce();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.timedWait(this, wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException();
+        }
+    }
+
+    private synchronized int available() {
+        if (acquiring && pendingEnd == pendingStart)
+            produce();
+        return pendingEnd - pendingStart;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this).add("samplerate", samplerate)
+                .add("acquiring", acquiring).add("sample", sample)
+                .add("speed", speed).toString();
+    }
+
+    private final class SimulatorInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return BITalinoSimulator.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return BITalinoSimulator.this.available();
+        }
+
+        @Override
+        public void close() {
+            BITalinoSimulator.this.close();
+        }
+
+    }
+
+    private final class SimulatorOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (closed)
+                throw new IOException("Simulator was closed.");
+            command(b & 0xff);
+        }
+
+        @Override
+        public void close() {
+            BITalinoSimulator.this.close();
+        }
+
+    }
+
+}
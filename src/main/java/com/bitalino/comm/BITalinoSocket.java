@@ -24,10 +24,7 @@
  */
 package com.bitalino.comm;
 
-import java.io.DataInputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -35,22 +32,25 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 final class BITalinoSocket {
 
-    private DataInputStream dis;
-    private OutputStream os;
-    private int prevSeq;
+    private BITalinoTransport transport;
+    private final BITalinoMetrics metrics;
+    private final BITalinoResponseParser replies = new BITalinoResponseParser();
+    private BITalinoFrameReader reader;
+    private BITalinoFrameBlock frames;
+    private BITalinoGapFill gapFill = BITalinoGapFill.NONE;
+    private BITalinoClock clock;
 
     /**
      * <p>Constructor for BITalinoSocket.</p>
      *
-     * @param is a {@link java.io.DataInputStream} object.
-     * @param os a {@link java.io.OutputStream} object.
+     * @param transport a {@link com.bitalino.comm.BITalinoTransport} object.
+     * @param metrics a {@link com.bitalino.comm.BITalinoMetrics} object to update.
      */
-    public BITalinoSocket(final DataInputStream is, final OutputStream os) {
-        checkNotNull(is, "Input stream was not provided.");
-        checkNotNull(os, "Output stream was not provided.");
-        this.dis = is;
-        this.os = os;
-        this.prevSeq = 15;
+    public BITalinoSocket(final BITalinoTransport transport, final BITalinoMetrics metrics) {
+        checkNotNull(transport, "Transport was not provided.");
+        checkNotNull(metrics, "Metrics were not provided.");
+        this.transport = transport;
+        this.metrics = metrics;
     }
 
     /**
@@ -58,54 +58,184 @@ final class BITalinoSocket {
      *
      * @param numberOfSamples
      *          the number of samples to read
-     * @param analogChannels
-     *          the analog channels to read from
-     * @param totalBytes
-     *          total available bytes to read
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
      * @return an array of decoded {@link com.bitalino.comm.BITalinoFrame}s.
      * @throws com.bitalino.comm.BITalinoException if any.
      */
-    public BITalinoFrame[] read(final int[] analogChannels, final int totalBytes,
+    public BITalinoFrame[] read(final BITalinoFrameDecoder decoder,
                                 final int numberOfSamples) throws BITalinoException {
+        if (frames == null || frames.getCapacity() < numberOfSamples)
+            frames = new BITalinoFrameBlock(numberOfSamples);
+        frames.clear();
+        read(decoder, frames, numberOfSamples);
+        return frames.toFrames();
+    }
+
+    /**
+     * Reads data from open socket, if any, into a compact
+     * {@link com.bitalino.comm.BITalinoFrameBatch}.
+     *
+     * @param numberOfSamples
+     *          the number of samples to read
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @return a {@link com.bitalino.comm.BITalinoFrameBatch} of
+     *         <tt>numberOfSamples</tt> samples.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public BITalinoFrameBatch readBatch(final BITalinoFrameDecoder decoder,
+                                        final int numberOfSamples) throws BITalinoException {
+        if (frames == null || frames.getCapacity() < numberOfSamples)
+            frames = new BITalinoFrameBlock(numberOfSamples);
+        frames.clear();
+        read(decoder, frames, numberOfSamples);
+        return BITalinoFrameBatch.of(frames, decoder.analogChannels);
+    }
+
+    /**
+     * Reads data from open socket, if any, appending decoded samples to
+     * <tt>block</tt>. Allocates nothing once the socket has read its first
+     * frame.
+     *
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @param block
+     *          the {@link com.bitalino.comm.BITalinoFrameBlock} to append to
+     * @param numberOfSamples
+     *          the number of samples to read
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public void read(final BITalinoFrameDecoder decoder,
+                     final BITalinoFrameBlock block, final int numberOfSamples)
+            throws BITalinoException {
+        checkArgument(block.getRemaining() >= numberOfSamples,
+                "Block has no room for %s samples.", numberOfSamples);
+        try {
+            reader(decoder).read(transport, block, numberOfSamples);
+        } catch (Exception e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        }
+    }
+
+    /**
+     * Reads whatever data the open socket has available, blocking only until
+     * one sample can be decoded, and appends it to <tt>block</tt>.
+     *
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @param block
+     *          the {@link com.bitalino.comm.BITalinoFrameBlock} to append to
+     * @return the number of samples appended.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public int readAvailable(final BITalinoFrameDecoder decoder,
+                             final BITalinoFrameBlock block) throws BITalinoException {
+        try {
+            return reader(decoder).readAvailable(transport, block);
+        } catch (Exception e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        }
+    }
+
+    /**
+     * Appends whatever samples can be decoded without blocking to
+     * <tt>block</tt>.
+     *
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @param block
+     *          the {@link com.bitalino.comm.BITalinoFrameBlock} to append to
+     * @return the number of samples appended, possibly zero.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public int poll(final BITalinoFrameDecoder decoder,
+                    final BITalinoFrameBlock block) throws BITalinoException {
         try {
-            BITalinoFrame[] frames = new BITalinoFrame[numberOfSamples];
-            byte[] buffer = new byte[totalBytes];
-            byte[] bTemp = new byte[1];
-            int sampleCounter = 0;
-
-            // parse frames
-            while (sampleCounter < numberOfSamples) {
-                // read number_bytes from buffer
-                dis.readFully(buffer, 0, totalBytes);
-                // let's try to decode the buffer
-                BITalinoFrame f = BITalinoFrameDecoder.decode(buffer, analogChannels, totalBytes);
-                // if CRC isn't valid, sequence equals -1
-                if (f.getSequence() == -1) {
-                    // we're missing data, so let's wait and try to rebuild the buffer or
-                    // throw exception
-                    System.out
-                            .println("Missed a sequence. Are we too far from BITalino? Retrying..");
-                    while (f.getSequence() == -1) {
-                        dis.readFully(bTemp, 0, 1);
-                        for (int j = totalBytes - 2; j >= 0; j--)
-                            buffer[j + 1] = buffer[j];
-                        buffer[0] = bTemp[0];
-                        f = BITalinoFrameDecoder.decode(buffer, analogChannels, totalBytes);
-                    }
-                } else if (f.getSequence() != (prevSeq + 1) % 16) {
-                    System.out.println("Sequence out of order.");
-                }
-                prevSeq = f.getSequence();
-
-                frames[sampleCounter] = f;
-                sampleCounter++;
-            }
-            return frames;
+            return reader(decoder).poll(transport, block);
         } catch (Exception e) {
             throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
         }
     }
 
+    /**
+     * Waits until the open socket delivers a valid frame, without consuming it.
+     *
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @param timeoutNanos
+     *          how long to wait
+     * @return <tt>true</tt> if a valid frame arrived in time.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public boolean awaitFrame(final BITalinoFrameDecoder decoder,
+                              final long timeoutNanos) throws BITalinoException {
+        try {
+            return reader(decoder).awaitFrame(transport, timeoutNanos);
+        } catch (Exception e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        }
+    }
+
+    /**
+     * Reads until the reply expected by {@link #getReplies()} arrives, while
+     * the device is idle.
+     *
+     * @param decoder
+     *          the {@link com.bitalino.comm.BITalinoFrameDecoder} for the
+     *          analog channels to read from
+     * @param timeoutNanos
+     *          how long to wait, zero meaning forever
+     * @return <tt>true</tt> if the reply arrived in time.
+     * @throws com.bitalino.comm.BITalinoException if any.
+     */
+    public boolean awaitReply(final BITalinoFrameDecoder decoder,
+                              final long timeoutNanos) throws BITalinoException {
+        try {
+            return reader(decoder).awaitReply(transport, timeoutNanos);
+        } catch (Exception e) {
+            throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
+        }
+    }
+
+    private BITalinoFrameReader reader(final BITalinoFrameDecoder decoder) {
+        if (reader == null || !reader.accepts(decoder)) {
+            reader = new BITalinoFrameReader(decoder, BITalinoFrameReader.DEFAULT_FRAMES,
+                    metrics, replies);
+            reader.setGapFill(gapFill, clock);
+        }
+        return reader;
+    }
+
+    /**
+     * Sets how lost frames are accounted for, see
+     * {@link BITalinoFrameReader#setGapFill(BITalinoGapFill, BITalinoClock)}.
+     *
+     * @param gapFill what to insert in place of lost frames.
+     * @param clock a {@link com.bitalino.comm.BITalinoClock} to estimate whole
+     *          wraps lost, or <tt>null</tt>.
+     */
+    void setGapFill(final BITalinoGapFill gapFill, final BITalinoClock clock) {
+        checkNotNull(gapFill, "Gap fill policy was not provided.");
+        this.gapFill = gapFill;
+        this.clock = clock;
+        if (reader != null)
+            reader.setGapFill(gapFill, clock);
+    }
+
+    /**
+     * @return the parser that picks command replies out of the frames read.
+     */
+    BITalinoResponseParser getReplies() {
+        return replies;
+    }
+
     /**
      * Writes data to socket.
      *
@@ -114,9 +244,7 @@ final class BITalinoSocket {
      */
     public void write(final int data) throws BITalinoException {
         try {
-            os.write(data);
-            os.flush();
-            Thread.sleep(1000);
+            transport.write(data);
         } catch (Exception e) {
             e.printStackTrace(System.err);
             throw new BITalinoException(BITalinoErrorTypes.LOST_COMMUNICATION);
@@ -130,32 +258,21 @@ final class BITalinoSocket {
      */
     public void close() throws BITalinoException {
         try {
-            dis.close();
-            os.close();
+            transport.close();
         } catch (Exception e) {
             throw new BITalinoException(BITalinoErrorTypes.BT_DEVICE_NOT_CONNECTED);
         } finally {
-            dis = null;
-            os = null;
+            transport = null;
         }
     }
 
     /**
-     * <p>getInputStream.</p>
-     *
-     * @return a {@link java.io.InputStream} object.
-     */
-    public InputStream getInputStream() {
-        return dis;
-    }
-
-    /**
-     * <p>getOutputStream.</p>
+     * <p>getTransport.</p>
      *
-     * @return a {@link java.io.OutputStream} object.
+     * @return a {@link com.bitalino.comm.BITalinoTransport} object.
      */
-    public OutputStream getOutputStream() {
-        return os;
+    public BITalinoTransport getTransport() {
+        return transport;
     }
 
 }
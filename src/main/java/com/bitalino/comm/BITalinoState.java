@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the board returned by the state command: the current value of
+ * every analog channel, the battery level and threshold, and the digital
+ * ports. Immutable.
+ */
+public class BITalinoState {
+
+    /**
+     * Length, in bytes, of the reply to the state command.
+     */
+    static final int TOTAL_BYTES = 16;
+
+    private final int[] analog;
+    private final int battery;
+    private final int batteryThreshold;
+    private final int digital;
+
+    BITalinoState(final int[] analog, final int battery, final int batteryThreshold,
+                  final int digital) {
+        this.analog = analog;
+        this.battery = battery;
+        this.batteryThreshold = batteryThreshold;
+        this.digital = digital;
+    }
+
+    /**
+     * Decodes a reply to the state command: six analog values and the battery
+     * level as little-endian 16-bit words, the battery threshold, then the
+     * digital ports in the high nibble and the CRC in the low nibble of the
+     * last byte.
+     *
+     * @param buffer an array of byte.
+     * @param offset the index of the first byte of the reply.
+     * @return the decoded state, or <tt>null</tt> if the reply failed the CRC
+     *         check.
+     */
+    static BITalinoState decode(final byte[] buffer, final int offset) {
+        if (!BITalinoCRC.check(buffer, offset, TOTAL_BYTES))
+            return null;
+        final int[] analog = new int[6];
+        for (int channel = 0; channel < 6; channel++)
+            analog[channel] = word(buffer, offset + 2 * channel);
+        return new BITalinoState(analog, word(buffer, offset + 12), buffer[offset + 14] & 0xff,
+                (buffer[offset + 15] >> 4) & 0xf);
+    }
+
+    private static int word(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8;
+    }
+
+    /**
+     * @param channel the analog channel (0 to 5).
+     * @return the value the channel read when the state was taken.
+     */
+    public int getAnalog(final int channel) {
+        return analog[channel];
+    }
+
+    /**
+     * @return the raw battery level.
+     */
+    public int getBattery() {
+        return battery;
+    }
+
+    /**
+     * @return the battery threshold (0 to 63).
+     */
+    public int getBatteryThreshold() {
+        return batteryThreshold;
+    }
+
+    /**
+     * @param pos the digital input (0 or 1).
+     * @return the state of the digital input, 0 or 1.
+     */
+    public int getDigitalInput(final int pos) {
+        return (digital >> (3 - pos)) & 0x01;
+    }
+
+    /**
+     * @param pos the digital output (0 or 1).
+     * @return the state of the digital output, 0 or 1.
+     */
+    public int getDigitalOutput(final int pos) {
+        return (digital >> (1 - pos)) & 0x01;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("analog", Arrays.toString(analog))
+                .add("battery", battery).add("batteryThreshold", batteryThreshold)
+                .add("digital", Integer.toBinaryString(digital)).toString();
+    }
+
+}
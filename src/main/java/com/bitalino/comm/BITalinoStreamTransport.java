@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link BITalinoTransport} over a blocking {@link java.io.InputStream} and
+ * {@link java.io.OutputStream} pair, such as a Bluetooth serial connection.
+ * <p>
+ * An input stream that does not override {@link InputStream#available()}
+ * always reports zero bytes available, as its contract allows. Reads from
+ * such a stream then block instead of polling, so waits for the device cannot
+ * time out and non-blocking reads may block.
+ */
+public class BITalinoStreamTransport implements BITalinoTransport {
+
+    private final InputStream is;
+    private final OutputStream os;
+    private final boolean reportsAvailable;
+
+    /**
+     * @param is a {@link java.io.InputStream} object.
+     * @param os a {@link java.io.OutputStream} object.
+     */
+    public BITalinoStreamTransport(final InputStream is, final OutputStream os) {
+        checkNotNull(is, "Input stream was not provided.");
+        checkNotNull(os, "Output stream was not provided.");
+        this.is = is;
+        this.os = os;
+        this.reportsAvailable = overridesAvailable(is.getClass());
+    }
+
+    private static boolean overridesAvailable(final Class<?> type) {
+        try {
+            return type.getMethod("available").getDeclaringClass() != InputStream.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        return is.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return is.available();
+    }
+
+    @Override
+    public void write(final int command) throws IOException {
+        os.write(command);
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            is.close();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * @return <tt>false</tt> if the input stream always reports zero bytes
+     *         available.
+     */
+    public boolean isAvailableReported() {
+        return reportsAvailable;
+    }
+
+    /**
+     * @return the underlying {@link java.io.InputStream}.
+     */
+    public InputStream getInputStream() {
+        return is;
+    }
+
+    /**
+     * @return the underlying {@link java.io.OutputStream}.
+     */
+    public OutputStream getOutputStream() {
+        return os;
+    }
+
+}
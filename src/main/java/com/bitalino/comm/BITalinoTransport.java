@@ -0,0 +1,50 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The byte link between the host and a BITalino board, be it a Bluetooth
+ * serial stream, a TCP connection to a serial gateway or a simulator.
+ */
+public interface BITalinoTransport extends Closeable {
+
+    /**
+     * Reads up to <tt>len</tt> bytes, blocking until at least one is available.
+     *
+     * @param b the buffer to read into.
+     * @param off the offset in <tt>b</tt> of the first byte read.
+     * @param len the maximum number of bytes to read.
+     * @return the number of bytes read, or -1 at the end of the stream.
+     * @throws java.io.IOException if any.
+     */
+    int read(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * @return the number of bytes that can be read without blocking, possibly
+     *         an underestimate.
+     * @throws java.io.IOException if any.
+     */
+    int available() throws IOException;
+
+    /**
+     * Sends a command byte.
+     *
+     * @param command the command, in the low 8 bits.
+     * @throws java.io.IOException if any.
+     */
+    void write(int command) throws IOException;
+
+}
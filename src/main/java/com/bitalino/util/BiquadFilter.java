@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A cascade of second-order IIR sections (biquads), in transposed direct
+ * form II, with Butterworth and notch designs for the BITalino sampling rates.
+ * <p>
+ * For instance, mains interference and EMG band-pass filtering at 1000 Hz:
+ * <pre>
+ * SignalFilter notch = BiquadFilter.notch(1000, 50, 30, channels);
+ * SignalFilter emg = BiquadFilter.bandPass(1000, 20, 450, 4, channels);
+ * </pre>
+ */
+public final class BiquadFilter implements SignalFilter {
+
+    /**
+     * Coefficients per section: b0, b1, b2, a1, a2 (a0 normalised to 1).
+     */
+    private final double[] coefficients;
+    /**
+     * Two state variables per section and channel.
+     */
+    private final double[][] state;
+    /**
+     * Last valid input per channel and section, standing in for missing ones.
+     */
+    private final double[][] held;
+    private final int sections;
+
+    /**
+     * @param coefficients b0, b1, b2, a1 and a2 of each section in turn,
+     *          normalised so that a0 is 1.
+     * @param channels the number of channels to keep state for.
+     */
+    public BiquadFilter(final double[] coefficients, final int channels) {
+        checkArgument(coefficients.length > 0 && coefficients.length % 5 == 0,
+                "Five coefficients are required per section.");
+        checkArgument(channels > 0, "At least one channel is required.");
+        this.coefficients = coefficients.clone();
+        this.sections = coefficients.length / 5;
+        this.state = new double[channels][2 * sections];
+        this.held = new double[channels][sections];
+    }
+
+    /**
+     * Butterworth low-pass filter.
+     *
+     * @param samplerate the sampling frequency (Hz).
+     * @param cutoff the -3 dB frequency (Hz), below half the sampling frequency.
+     * @param order the filter order, an even number from 2 to 12.
+     * @param channels the number of channels to keep state for.
+     * @return a {@link BiquadFilter}.
+     */
+    public static BiquadFilter lowPass(final double samplerate, final double cutoff,
+                                       final int order, final int channels) {
+        return new BiquadFilter(butterworth(samplerate, cutoff, order, false), channels);
+    }
+
+    /**
+     * Butterworth high-pass filter.
+     *
+     * @param samplerate the sampling frequency (Hz).
+     * @param cutoff the -3 dB frequency (Hz), below half the sampling frequency.
+     * @param order the filter order, an even number from 2 to 12.
+     * @param channels the number of channels to keep state for.
+     * @return a {@link BiquadFilter}.
+     */
+    public static BiquadFilter highPass(final double samplerate, final double cutoff,
+                                        final int order, final int channels) {
+        return new BiquadFilter(butterworth(samplerate, cutoff, order, true), channels);
+    }
+
+    /**
+     * Band-pass filter made of a Butterworth high-pass and low-pass cascade.
+     *
+     * @param samplerate the sampling frequency (Hz).
+     * @param low the lower -3 dB frequency (Hz).
+     * @param high the upper -3 dB frequency (Hz), below half the sampling
+     *          frequency.
+     * @param order the order of each of the high-pass and low-pass halves, an
+     *          even number from 2 to 12.
+     * @param channels the number of channels to keep state for.
+     * @return a {@link BiquadFilter}.
+     */
+    public static BiquadFilter bandPass(final double samplerate, final double low,
+                                        final double high, final int order,
+                                        final int channels) {
+        checkArgument(low < high, "Lower frequency must be below upper frequency.");
+        final double[] highPass = butterworth(samplerate, low, order, true);
+        final double[] lowPass = butterworth(samplerate, high, order, false);
+        final double[] coefficients = new double[highPass.length + lowPass.length];
+        System.arraycopy(highPass, 0, coefficients, 0, highPass.length);
+        System.arraycopy(lowPass, 0, coefficients, highPass.length, lowPass.length);
+        return new BiquadFilter(coefficients, channels);
+    }
+
+    /**
+     * Second-order notch filter, such as for 50 or 60 Hz mains interference.
+     *
+     * @param samplerate the sampling frequency (Hz).
+     * @param frequency the rejected frequency (Hz), below half the sampling
+     *          frequency.
+     * @param q the quality factor: the rejected frequency over the -3 dB
+     *          bandwidth.
+     * @param channels the number of channels to keep state for.
+     * @return a {@link BiquadFilter}.
+     */
+    public static BiquadFilter notch(final double samplerate, final double frequency,
+                                     final double q, final int channels) {
+        checkFrequency(samplerate, frequency);
+        checkArgument(q > 0, "Quality factor must be positive.");
+        final double w0 = 2 * Math.PI * frequency / samplerate;
+        final double alpha = Math.sin(w0) / (2 * q);
+        final double cos = Math.cos(w0);
+        return new BiquadFilter(normalise(1, -2 * cos, 1, 1 + alpha, -2 * cos, 1 - alpha),
+                channels);
+    }
+
+    /**
+     * Designs a Butterworth filter as a cascade of biquads with the bilinear
+     * transform, after the audio EQ cookbook, one section per pole pair.
+     */
+    private static double[] butterworth(final double samplerate, final double cutoff,
+                                        final int order, final boolean highPass) {
+        checkFrequency(samplerate, cutoff);
+        checkArgument(order >= 2 && order <= 12 && order % 2 == 0,
+                "Order must be an even number from 2 to 12.");
+        final double w0 = 2 * Math.PI * cutoff / samplerate;
+        final double cos = Math.cos(w0);
+        final double[] coefficients = new double[5 * (order / 2)];
+        for (int k = 0; k < order / 2; k++) {
+            final double q = 1 / (2 * Math.cos(Math.PI * (2 * k + 1) / (2 * order)));
+            final double alpha = Math.sin(w0) / (2 * q);
+            final double[] section = highPass
+                    ? normalise((1 + cos) / 2, -(1 + cos), (1 + cos) / 2,
+                    1 + alpha, -2 * cos, 1 - alpha)
+                    : normalise((1 - cos) / 2, 1 - cos, (1 - cos) / 2,
+                    1 + alpha, -2 * cos, 1 - alpha);
+            System.arraycopy(section, 0, coefficients, 5 * k, 5);
+        }
+        return coefficients;
+    }
+
+    private static double[] normalise(final double b0, final double b1, final double b2,
+                                      final double a0, final double a1, final double a2) {
+        return new double[]{b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0};
+    }
+
+    static void checkFrequency(final double samplerate, final double frequency) {
+        checkArgument(samplerate > 0, "Sampling frequency must be positive.");
+        checkArgument(frequency > 0 && frequency < samplerate / 2,
+                "Frequency %s Hz is not below half the sampling frequency of %s Hz.",
+                frequency, samplerate);
+    }
+
+    @Override
+    public void filter(final int channel, final double[] data, final int offset,
+                       final int length) {
+        final double[] z = state[channel];
+        final double[] h = held[channel];
+        final double[] c = coefficients;
+        for (int s = 0; s < sections; s++) {
+            final double b0 = c[5 * s], b1 = c[5 * s + 1], b2 = c[5 * s + 2],
+                    a1 = c[5 * s + 3], a2 = c[5 * s + 4];
+            double z1 = z[2 * s], z2 = z[2 * s + 1], last = h[s];
+            // one section over the whole batch keeps its state in registers
+            for (int i = offset; i < offset + length; i++) {
+                double x = data[i];
+                final boolean missing = FeatureExtractor.isMissing(x);
+                if (missing)
+                    x = last;
+                else
+                    last = x;
+                final double y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                data[i] = missing ? Double.NaN : y;
+            }
+            z[2 * s] = z1;
+            z[2 * s + 1] = z2;
+            h[s] = last;
+        }
+    }
+
+    @Override
+    public int getChannels() {
+        return state.length;
+    }
+
+    @Override
+    public void reset() {
+        for (double[] z : state)
+            Arrays.fill(z, 0);
+        for (double[] h : held)
+            Arrays.fill(h, 0);
+    }
+
+    /**
+     * @return the number of second-order sections.
+     */
+    public int getSections() {
+        return sections;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("sections", sections)
+                .add("channels", state.length).toString();
+    }
+
+}
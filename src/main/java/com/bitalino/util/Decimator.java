@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reduces the sampling rate of one or more channels by an integer factor,
+ * for instance from 1000 Hz to 100 Hz, after a low-pass FIR filter that
+ * removes the frequencies the lower rate cannot represent.
+ * <p>
+ * The filter output is only computed for the samples that are kept, so the
+ * cost per input sample is the number of taps over the factor. State is kept
+ * per channel, so consecutive batches decimate as one continuous signal.
+ * Missing input samples, NaN or infinite, are taken as the last valid one of
+ * their channel, so the output stays finite.
+ */
+public final class Decimator {
+
+    /**
+     * Default number of taps per unit of the decimation factor.
+     */
+    public static final int DEFAULT_TAPS_PER_FACTOR = 8;
+
+    private final int factor;
+    private final double[] taps;
+    private final double[][] history;
+    private final int[] position;
+    private final int[] phase;
+
+    /**
+     * @param factor the decimation factor.
+     * @param channels the number of channels to keep state for.
+     */
+    public Decimator(final int factor, final int channels) {
+        this(factor, DEFAULT_TAPS_PER_FACTOR * factor + 1, channels);
+    }
+
+    /**
+     * @param factor the decimation factor.
+     * @param taps the number of filter taps, an odd number.
+     * @param channels the number of channels to keep state for.
+     */
+    public Decimator(final int factor, final int taps, final int channels) {
+        checkArgument(factor > 0, "Factor must be positive.");
+        checkArgument(channels > 0, "At least one channel is required.");
+        this.factor = factor;
+        if (factor == 1) {
+            this.taps = new double[]{1};
+        } else {
+            // cut off below the new Nyquist frequency, leaving room for the
+            // transition band
+            final FirFilter design = FirFilter.lowPass(factor, 0.4, taps, 1);
+            this.taps = design.getCoefficients();
+        }
+        this.history = new double[channels][2 * this.taps.length];
+        this.position = new int[channels];
+        this.phase = new int[channels];
+    }
+
+    /**
+     * Decimates a batch of one channel.
+     *
+     * @param channel the channel the samples belong to.
+     * @param in the input samples.
+     * @param offset the index of the first input sample.
+     * @param length the number of input samples.
+     * @param out where to write the decimated samples, with room for
+     *          <tt>length / factor + 1</tt> of them.
+     * @param outOffset the index of the first decimated sample in <tt>out</tt>.
+     * @return the number of decimated samples written.
+     */
+    public int decimate(final int channel, final double[] in, final int offset,
+                        final int length, final double[] out, final int outOffset) {
+        final double[] line = history[channel];
+        final int n = taps.length;
+        int p = position[channel];
+        int ph = phase[channel];
+        int written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            // line[p + n - 1] is the last input, held over a missing one
+            line[p] = line[p + n] = FeatureExtractor.isMissing(in[i]) ? line[p + n - 1] : in[i];
+            p = p + 1 == n ? 0 : p + 1;
+            if (++ph == factor) {
+                ph = 0;
+                double y = 0;
+                for (int k = 0; k < n; k++)
+                    y += taps[k] * line[p + k];
+                out[outOffset + written++] = y;
+            }
+        }
+        position[channel] = p;
+        phase[channel] = ph;
+        return written;
+    }
+
+    /**
+     * @return the decimation factor.
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return the delay introduced by the filter, in input samples.
+     */
+    public int getDelay() {
+        return taps.length / 2;
+    }
+
+    /**
+     * Clears the state of every channel.
+     */
+    public void reset() {
+        for (double[] line : history)
+            Arrays.fill(line, 0);
+        Arrays.fill(position, 0);
+        Arrays.fill(phase, 0);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("factor", factor).add("taps", taps.length)
+                .add("channels", history.length).toString();
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+/**
+ * A feature computed incrementally, in constant time per sample, from one
+ * channel: either scaled values, such as the output of the bulk
+ * {@link SensorDataConverter} methods, or raw values straight from a
+ * {@link com.bitalino.comm.BITalinoFrameBlock} column.
+ * <p>
+ * Missing samples, either NaN, such as those a
+ * {@link com.bitalino.comm.BITalinoGapFill#NAN} policy inserts, or infinite,
+ * such as saturated EDA, stand for the last valid sample, so that the feature
+ * keeps counting time without its state being poisoned. Those added before
+ * the first valid sample are skipped.
+ */
+public abstract class FeatureExtractor {
+
+    /**
+     * Updates the feature with the next sample.
+     *
+     * @param sample the sample.
+     */
+    public abstract void add(double sample);
+
+    /**
+     * Updates the feature with a batch of samples.
+     *
+     * @param data the samples.
+     * @param offset the index of the first sample.
+     * @param length the number of samples.
+     */
+    public void add(final double[] data, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++)
+            add(data[i]);
+    }
+
+    /**
+     * Updates the feature with a batch of raw samples.
+     *
+     * @param raw the raw samples.
+     * @param offset the index of the first sample.
+     * @param length the number of samples.
+     */
+    public void add(final short[] raw, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++)
+            add(raw[i]);
+    }
+
+    /**
+     * Forgets every sample added so far.
+     */
+    public abstract void reset();
+
+    /**
+     * @param sample a scaled sample.
+     * @return <tt>true</tt> if <tt>sample</tt> is NaN or infinite.
+     */
+    protected static boolean isMissing(final double sample) {
+        return Double.isNaN(sample) || Double.isInfinite(sample);
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Applies several {@link SignalFilter}s in turn, for instance a notch filter
+ * followed by a band-pass filter.
+ */
+public final class FilterChain implements SignalFilter {
+
+    private final SignalFilter[] filters;
+
+    /**
+     * @param filters the filters, in the order they are applied, all keeping
+     *          state for the same number of channels.
+     */
+    public FilterChain(final SignalFilter... filters) {
+        checkArgument(filters.length > 0, "At least one filter is required.");
+        for (SignalFilter filter : filters) {
+            checkNotNull(filter, "Filter was not provided.");
+            checkArgument(filter.getChannels() == filters[0].getChannels(),
+                    "Filters must have the same number of channels.");
+        }
+        this.filters = filters.clone();
+    }
+
+    @Override
+    public void filter(final int channel, final double[] data, final int offset,
+                       final int length) {
+        for (SignalFilter filter : filters)
+            filter.filter(channel, data, offset, length);
+    }
+
+    @Override
+    public int getChannels() {
+        return filters[0].getChannels();
+    }
+
+    @Override
+    public void reset() {
+        for (SignalFilter filter : filters)
+            filter.reset();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("filters", filters.length)
+                .add("channels", getChannels()).toString();
+    }
+
+}
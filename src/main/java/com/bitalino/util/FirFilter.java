@@ -0,0 +1,135 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A finite impulse response filter, with a windowed-sinc low-pass design.
+ * <p>
+ * Each channel keeps its last samples in a delay line stored twice over, so
+ * that the taps are always read from one contiguous range without wrapping.
+ */
+public final class FirFilter implements SignalFilter {
+
+    private final double[] taps;
+    private final double[][] history;
+    private final int[] position;
+
+    /**
+     * @param taps the impulse response.
+     * @param channels the number of channels to keep state for.
+     */
+    public FirFilter(final double[] taps, final int channels) {
+        checkArgument(taps.length > 0, "At least one tap is required.");
+        checkArgument(channels > 0, "At least one channel is required.");
+        // reversed, so that taps and history are walked in the same direction
+        this.taps = new double[taps.length];
+        for (int i = 0; i < taps.length; i++)
+            this.taps[i] = taps[taps.length - 1 - i];
+        this.history = new double[channels][2 * taps.length];
+        this.position = new int[channels];
+    }
+
+    /**
+     * Linear-phase low-pass filter: a sinc truncated by a Hamming window and
+     * normalised to unit gain at DC. Its delay is <tt>(taps - 1) / 2</tt>
+     * samples.
+     *
+     * @param samplerate the sampling frequency (Hz).
+     * @param cutoff the cut-off frequency (Hz), below half the sampling
+     *          frequency.
+     * @param taps the number of taps, an odd number; more taps give a sharper
+     *          transition.
+     * @param channels the number of channels to keep state for.
+     * @return a {@link FirFilter}.
+     */
+    public static FirFilter lowPass(final double samplerate, final double cutoff,
+                                    final int taps, final int channels) {
+        BiquadFilter.checkFrequency(samplerate, cutoff);
+        checkArgument(taps > 0 && taps % 2 == 1, "Number of taps must be odd.");
+        final double fc = cutoff / samplerate;
+        final int middle = taps / 2;
+        final double[] h = new double[taps];
+        double sum = 0;
+        for (int i = 0; i < taps; i++) {
+            final int n = i - middle;
+            final double sinc = n == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * n) / (Math.PI * n);
+            final double window = taps == 1 ? 1
+                    : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            h[i] = sinc * window;
+            sum += h[i];
+        }
+        for (int i = 0; i < taps; i++)
+            h[i] /= sum;
+        return new FirFilter(h, channels);
+    }
+
+    @Override
+    public void filter(final int channel, final double[] data, final int offset,
+                       final int length) {
+        final double[] line = history[channel];
+        final int n = taps.length;
+        int p = position[channel];
+        for (int i = offset; i < offset + length; i++) {
+            final boolean missing = FeatureExtractor.isMissing(data[i]);
+            // line[p + n - 1] is the last input, held over a missing one
+            line[p] = line[p + n] = missing ? line[p + n - 1] : data[i];
+            p = p + 1 == n ? 0 : p + 1;
+            // line[p .. p + n - 1] holds the last n samples, oldest first
+            double y = 0;
+            for (int k = 0; k < n; k++)
+                y += taps[k] * line[p + k];
+            data[i] = missing ? Double.NaN : y;
+        }
+        position[channel] = p;
+    }
+
+    @Override
+    public int getChannels() {
+        return history.length;
+    }
+
+    @Override
+    public void reset() {
+        for (double[] line : history)
+            Arrays.fill(line, 0);
+        Arrays.fill(position, 0);
+    }
+
+    /**
+     * @return the impulse response, reversed: the first coefficient applies to
+     *         the oldest sample.
+     */
+    double[] getCoefficients() {
+        return taps.clone();
+    }
+
+    /**
+     * @return the number of taps.
+     */
+    public int getTaps() {
+        return taps.length;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("taps", taps.length)
+                .add("channels", history.length).toString();
+    }
+
+}
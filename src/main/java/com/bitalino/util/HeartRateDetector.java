@@ -0,0 +1,187 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Detects ECG R peaks and tracks the heart rate, after the Pan-Tompkins
+ * algorithm: 5-15 Hz band-pass, derivative, squaring and moving-window
+ * integration, followed by adaptive thresholds on the integrated signal.
+ * <p>
+ * Thresholds are learned from the first two seconds, during which no beat is
+ * reported. Beats are reported once the integrated wave falls back to half its
+ * height, so a little after the R peak itself.
+ */
+public final class HeartRateDetector extends FeatureExtractor {
+
+    private static final int RR_AVERAGE = 8;
+
+    private final double samplerate;
+    private final BiquadFilter bandPass;
+    private final SlidingStatistics integration;
+    private final double[] scratch = new double[1];
+    private final long learning;
+    private final long refractory;
+    private final long[] intervals = new long[RR_AVERAGE];
+
+    private long n;
+    private boolean started;
+    private double offset;
+    private double held;
+    private double previous;
+    private double signalLevel;
+    private double noiseLevel;
+    private double noisePeak;
+    private boolean inPeak;
+    private double peakValue;
+    private long peakIndex;
+    private long lastBeat = -1;
+    private long beats;
+    private int intervalCount;
+    private int intervalPosition;
+    private long intervalSum;
+
+    /**
+     * @param samplerate the sampling frequency (Hz), at least 100.
+     */
+    public HeartRateDetector(final int samplerate) {
+        checkArgument(samplerate >= 100, "Sampling frequency must be at least 100 Hz.");
+        this.samplerate = samplerate;
+        this.bandPass = BiquadFilter.bandPass(samplerate, 5, 15, 2, 1);
+        this.integration = new SlidingStatistics((int) (0.15 * samplerate));
+        this.learning = 2 * samplerate;
+        this.refractory = samplerate / 5;
+    }
+
+    @Override
+    public void add(final double value) {
+        if (isMissing(value) && !started)
+            return;
+        final double sample = isMissing(value) ? held : value;
+        held = sample;
+        if (!started) {
+            // start from the first sample rather than from zero
+            offset = sample;
+            started = true;
+        }
+        scratch[0] = sample - offset;
+        bandPass.filter(0, scratch, 0, 1);
+        final double derivative = scratch[0] - previous;
+        previous = scratch[0];
+        integration.add(derivative * derivative);
+        detect(integration.getMean());
+        n++;
+    }
+
+    private void detect(final double value) {
+        if (n < learning) {
+            signalLevel = Math.max(signalLevel, value);
+            noiseLevel += (value - noiseLevel) / (n + 1);
+            if (n == learning - 1)
+                signalLevel /= 2;
+            return;
+        }
+        final double threshold = noiseLevel + 0.25 * (signalLevel - noiseLevel);
+        if (!inPeak) {
+            if (value > threshold) {
+                inPeak = true;
+                peakValue = value;
+                peakIndex = n;
+            } else {
+                noisePeak = Math.max(noisePeak, value);
+            }
+            return;
+        }
+        if (value > peakValue) {
+            peakValue = value;
+            peakIndex = n;
+        } else if (value < peakValue / 2) {
+            inPeak = false;
+            if (lastBeat < 0 || peakIndex - lastBeat >= refractory)
+                beat();
+            else
+                noisePeak = Math.max(noisePeak, peakValue);
+        }
+    }
+
+    private void beat() {
+        if (lastBeat >= 0) {
+            final long interval = peakIndex - lastBeat;
+            if (intervalCount == RR_AVERAGE)
+                intervalSum -= intervals[intervalPosition];
+            else
+                intervalCount++;
+            intervals[intervalPosition] = interval;
+            intervalSum += interval;
+            intervalPosition = (intervalPosition + 1) % RR_AVERAGE;
+        }
+        lastBeat = peakIndex;
+        beats++;
+        signalLevel = 0.125 * peakValue + 0.875 * signalLevel;
+        noiseLevel = 0.125 * noisePeak + 0.875 * noiseLevel;
+        noisePeak = 0;
+    }
+
+    /**
+     * @return the number of beats detected.
+     */
+    public long getBeats() {
+        return beats;
+    }
+
+    /**
+     * @return the index, counting samples from the first one added, of the
+     *         last beat detected, or -1 if none was.
+     */
+    public long getLastBeat() {
+        return lastBeat;
+    }
+
+    /**
+     * @return the last R-R interval (s), or 0 before the second beat.
+     */
+    public double getLastInterval() {
+        if (intervalCount == 0)
+            return 0;
+        return intervals[(intervalPosition + RR_AVERAGE - 1) % RR_AVERAGE] / samplerate;
+    }
+
+    /**
+     * @return the heart rate (beats per minute) over the last eight R-R
+     *         intervals, or 0 before the second beat.
+     */
+    public double getHeartRate() {
+        return intervalCount == 0 ? 0 : 60 * samplerate * intervalCount / intervalSum;
+    }
+
+    @Override
+    public void reset() {
+        bandPass.reset();
+        integration.reset();
+        n = beats = intervalSum = 0;
+        started = inPeak = false;
+        previous = held = signalLevel = noiseLevel = noisePeak = 0;
+        lastBeat = -1;
+        intervalCount = intervalPosition = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("beats", beats)
+                .add("heartRate", getHeartRate()).toString();
+    }
+
+}
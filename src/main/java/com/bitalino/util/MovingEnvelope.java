@@ -0,0 +1,95 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Moving envelope: the largest magnitude, around a baseline, over a sliding
+ * window of the last samples, as used for EMG activation.
+ * <p>
+ * Candidates are kept in a monotonic queue: a sample is dropped as soon as a
+ * later one is at least as large, so each sample is queued and dequeued at
+ * most once.
+ */
+public final class MovingEnvelope extends FeatureExtractor {
+
+    private final int length;
+    private final double baseline;
+    private final double[] values;
+    private final long[] indices;
+    private int head;
+    private int size;
+    private long n;
+    private boolean started;
+    private double held;
+
+    /**
+     * @param length the window length, in samples.
+     * @param baseline the value around which magnitudes are taken, such as 512
+     *          for raw EMG on a 10-bit port or 0 for scaled values.
+     */
+    public MovingEnvelope(final int length, final double baseline) {
+        checkArgument(length > 0, "Window length must be positive.");
+        this.length = length;
+        this.baseline = baseline;
+        this.values = new double[length];
+        this.indices = new long[length];
+    }
+
+    @Override
+    public void add(final double value) {
+        if (isMissing(value) && !started)
+            return;
+        final double sample = isMissing(value) ? held : value;
+        held = sample;
+        started = true;
+        final double magnitude = Math.abs(sample - baseline);
+        // expire the candidate that left the window
+        if (size > 0 && indices[head] <= n - length) {
+            head = head + 1 == length ? 0 : head + 1;
+            size--;
+        }
+        // drop smaller candidates from the back
+        while (size > 0 && values[(head + size - 1) % length] <= magnitude)
+            size--;
+        final int tail = (head + size) % length;
+        values[tail] = magnitude;
+        indices[tail] = n++;
+        size++;
+    }
+
+    /**
+     * @return the envelope, or 0 if no sample was added.
+     */
+    public double getEnvelope() {
+        return size == 0 ? 0 : values[head];
+    }
+
+    @Override
+    public void reset() {
+        head = size = 0;
+        n = 0;
+        started = false;
+        held = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("length", length)
+                .add("envelope", getEnvelope()).toString();
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Detects skin conductance responses (SCRs) in an EDA signal in microSiemens,
+ * such as the output of {@link SensorDataConverter#scaleEDA(int, int)}, or
+ * in raw values, converted through the EDA {@link SensorLookupTable} of the
+ * port they were read on.
+ * <p>
+ * The signal is low-pass filtered at 1 Hz; a response starts when its slope
+ * rises above {@link #ONSET_SLOPE} and peaks when the slope turns negative. It
+ * is counted if it rose by at least the minimum amplitude.
+ * <p>
+ * Saturated electrodes make {@link SensorDataConverter#scaleEDA(int, int)}
+ * return infinity; such samples, and missing ones, hold the last valid level
+ * and are skipped until the first valid one. Values passed to
+ * {@link #add(double)} must already be in microSiemens, as the slope and
+ * amplitude thresholds are.
+ */
+public final class ScrDetector extends FeatureExtractor {
+
+    /**
+     * Default minimum amplitude of a response (microSiemens).
+     */
+    public static final double DEFAULT_MIN_AMPLITUDE = 0.05;
+
+    /**
+     * Slope that marks the onset of a response (microSiemens per second).
+     */
+    public static final double ONSET_SLOPE = 0.05;
+
+    private final double samplerate;
+    private final double minAmplitude;
+    private final SensorLookupTable eda;
+    private final BiquadFilter lowPass;
+    private final double[] scratch = new double[1];
+
+    private long n;
+    private boolean started;
+    private double offset;
+    private double held;
+    private double previous;
+    private boolean rising;
+    private double onsetValue;
+    private long onsetIndex;
+    private long responses;
+    private long lastPeak = -1;
+    private double lastAmplitude;
+    private double lastRiseTime;
+
+    /**
+     * Creates a detector converting raw values as read on ports 0 to 3.
+     *
+     * @param samplerate the sampling frequency (Hz), at least 10.
+     */
+    public ScrDetector(final int samplerate) {
+        this(samplerate, DEFAULT_MIN_AMPLITUDE);
+    }
+
+    /**
+     * Creates a detector converting raw values as read on ports 0 to 3.
+     *
+     * @param samplerate the sampling frequency (Hz), at least 10.
+     * @param minAmplitude the minimum rise of a response (microSiemens).
+     */
+    public ScrDetector(final int samplerate, final double minAmplitude) {
+        this(samplerate, minAmplitude,
+                SensorLookupTable.get(SensorLookupTable.Sensor.EDA, 0));
+    }
+
+    /**
+     * @param samplerate the sampling frequency (Hz), at least 10.
+     * @param minAmplitude the minimum rise of a response (microSiemens).
+     * @param eda the {@link SensorLookupTable#get(SensorLookupTable.Sensor, int)
+     *          EDA table} of the port raw values are read on.
+     */
+    public ScrDetector(final int samplerate, final double minAmplitude,
+                       final SensorLookupTable eda) {
+        checkArgument(samplerate >= 10, "Sampling frequency must be at least 10 Hz.");
+        checkArgument(minAmplitude > 0, "Minimum amplitude must be positive.");
+        checkNotNull(eda, "EDA table was not provided.");
+        this.samplerate = samplerate;
+        this.minAmplitude = minAmplitude;
+        this.eda = eda;
+        this.lowPass = BiquadFilter.lowPass(samplerate, 1, 2, 1);
+    }
+
+    @Override
+    public void add(final double sample) {
+        if (isMissing(sample)) {
+            // one non-finite value would poison the filter state for good
+            if (started)
+                add(held);
+            return;
+        }
+        held = sample;
+        if (!started) {
+            // the tonic level is not a response
+            offset = sample;
+            started = true;
+        }
+        scratch[0] = sample - offset;
+        lowPass.filter(0, scratch, 0, 1);
+        final double value = scratch[0];
+        final double slope = (value - previous) * samplerate;
+        if (!rising && slope > ONSET_SLOPE) {
+            rising = true;
+            onsetValue = previous;
+            onsetIndex = n - 1;
+        } else if (rising && slope <= 0) {
+            rising = false;
+            final double amplitude = previous - onsetValue;
+            if (amplitude >= minAmplitude) {
+                responses++;
+                lastPeak = n - 1;
+                lastAmplitude = amplitude;
+                lastRiseTime = (lastPeak - onsetIndex) / samplerate;
+            }
+        }
+        previous = value;
+        n++;
+    }
+
+    /**
+     * Converts raw values to microSiemens through the EDA table before
+     * detecting.
+     */
+    @Override
+    public void add(final short[] raw, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++)
+            add(eda.convert(raw[i]));
+    }
+
+    /**
+     * @return the number of responses detected.
+     */
+    public long getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return the index, counting samples from the first one added, of the
+     *         peak of the last response, or -1 if none was detected.
+     */
+    public long getLastPeak() {
+        return lastPeak;
+    }
+
+    /**
+     * @return the amplitude of the last response (microSiemens).
+     */
+    public double getLastAmplitude() {
+        return lastAmplitude;
+    }
+
+    /**
+     * @return the time from onset to peak of the last response (s).
+     */
+    public double getLastRiseTime() {
+        return lastRiseTime;
+    }
+
+    @Override
+    public void reset() {
+        lowPass.reset();
+        n = responses = 0;
+        started = rising = false;
+        previous = lastAmplitude = lastRiseTime = 0;
+        lastPeak = -1;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("responses", responses)
+                .add("lastAmplitude", lastAmplitude).toString();
+    }
+
+}
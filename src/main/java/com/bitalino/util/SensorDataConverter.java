@@ -36,6 +36,8 @@ public class SensorDataConverter {
     private static final double VCC = 3.3; // volts
     private static final int ACC_MIN = 185;
     private static final int ACC_MAX = 275;
+    private static final double G_EEG = 40000; // EEG sensor gain
+    private static final double MICRO = 1e6;
 
     /**
      * ElectroMyoGraphy conversion.
@@ -196,6 +198,537 @@ public class SensorDataConverter {
                 .doubleValue();
     }
 
+    /**
+     * Bulk ElectroMyoGraphy conversion, see {@link #scaleEMG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEMG(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (raw[offset + i] * VCC / resolution - VCC / 2);
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk ElectroMyoGraphy conversion, see {@link #scaleEMG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEMG(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (raw[offset + i] * VCC / resolution - VCC / 2);
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk ElectroCardioGraphy conversion, see {@link #scaleECG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleECG(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (((raw[offset + i] / resolution - 0.5) * VCC) / 1100) * 1000;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk ElectroCardioGraphy conversion, see {@link #scaleECG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleECG(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (((raw[offset + i] / resolution - 0.5) * VCC) / 1100) * 1000;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Accelerometer conversion, see {@link #scaleAccelerometer(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleAccelerometer(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 2 * ((double) (raw[offset + i] - ACC_MIN) / (ACC_MAX - ACC_MIN)) - 1;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Accelerometer conversion, see {@link #scaleAccelerometer(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleAccelerometer(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 2 * ((double) (raw[offset + i] - ACC_MIN) / (ACC_MAX - ACC_MIN)) - 1;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Accelerometer conversion, see {@link #scaleAccelerometerWithPrecision(int, int, int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param min
+     *          the calibration minimum value
+     * @param max
+     *          the calibration maximum value
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     */
+    public static void scaleAccelerometerWithPrecision(final int port, final int[] raw,
+            final int offset, final int length, final int min, final int max, final double[] out,
+            final int outOffset) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 2 * ((double) (raw[offset + i] - min) / (max - min)) - 1;
+    }
+
+    /**
+     * Bulk Accelerometer conversion, see {@link #scaleAccelerometerWithPrecision(int, int, int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param min
+     *          the calibration minimum value
+     * @param max
+     *          the calibration maximum value
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     */
+    public static void scaleAccelerometerWithPrecision(final int port, final short[] raw,
+            final int offset, final int length, final int min, final int max, final double[] out,
+            final int outOffset) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 2 * ((double) (raw[offset + i] - min) / (max - min)) - 1;
+    }
+
+    /**
+     * Bulk Electrodermal Activity conversion, see {@link #scaleEDA(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 4 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEDA(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 1 / (1 - ((double) raw[offset + i] / (double) 1023));
+        if (round)
+            round(out, outOffset, length, 10000);
+    }
+
+    /**
+     * Bulk Electrodermal Activity conversion, see {@link #scaleEDA(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 4 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEDA(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 1 / (1 - ((double) raw[offset + i] / (double) 1023));
+        if (round)
+            round(out, outOffset, length, 10000);
+    }
+
+    /**
+     * Bulk Luminosity conversion, see {@link #scaleLuminosity(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     */
+    public static void scaleLuminosity(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 100 * (raw[offset + i] / resolution);
+    }
+
+    /**
+     * Bulk Luminosity conversion, see {@link #scaleLuminosity(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     */
+    public static void scaleLuminosity(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = 100 * (raw[offset + i] / resolution);
+    }
+
+    /**
+     * Bulk Temperature conversion, see {@link #scaleTMP(int, int, boolean)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param celsius
+     *          <tt>true</tt>:use celsius as metric,
+     *          <tt>false</tt>: fahrenheit is used.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleTMP(final int port, final int[] raw,
+            final int offset, final int length, final boolean celsius, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (((raw[offset + i] / resolution) * VCC) - 0.5) * 100;
+        if (!celsius)
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] = out[outOffset + i] * ((double) 9 / 5) + 32;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Temperature conversion, see {@link #scaleTMP(int, int, boolean)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param celsius
+     *          <tt>true</tt>:use celsius as metric,
+     *          <tt>false</tt>: fahrenheit is used.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleTMP(final int port, final short[] raw,
+            final int offset, final int length, final boolean celsius, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = (((raw[offset + i] / resolution) * VCC) - 0.5) * 100;
+        if (!celsius)
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] = out[outOffset + i] * ((double) 9 / 5) + 32;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Respiration conversion, see {@link #scalePZT(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scalePZT(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = ((raw[offset + i] / resolution) - 0.5) * 100;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Respiration conversion, see {@link #scalePZT(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scalePZT(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = ((raw[offset + i] / resolution) - 0.5) * 100;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Electroencephalography conversion, see {@link #scaleEEG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEEG(final int port, final int[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = ((((raw[offset + i] / resolution) - 0.5) * VCC) / G_EEG) * MICRO;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Bulk Electroencephalography conversion, see {@link #scaleEEG(int, int)}.
+     *
+     * @param port
+     *          the port where the <tt>raw</tt> values were read from.
+     * @param raw
+     *          the values read.
+     * @param offset
+     *          the index of the first value to convert.
+     * @param length
+     *          the number of values to convert.
+     * @param out
+     *          the array to write converted values to.
+     * @param outOffset
+     *          the index in <tt>out</tt> of the first converted value.
+     * @param round
+     *          <tt>true</tt> to round to 2 decimal places, as the scalar
+     *          method does.
+     */
+    public static void scaleEEG(final int port, final short[] raw,
+            final int offset, final int length, final double[] out,
+            final int outOffset, final boolean round) {
+        final double resolution = getResolution(port);
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = ((((raw[offset + i] / resolution) - 0.5) * VCC) / G_EEG) * MICRO;
+        if (round)
+            round(out, outOffset, length, 100);
+    }
+
+    /**
+     * Rounds values half up to a number of decimal places given by
+     * <tt>scale</tt> (100 for 2 places), in place. Across the raw value range
+     * this gives exactly the same results as
+     * <tt>new BigDecimal(value).setScale(places, RoundingMode.HALF_UP)</tt>.
+     */
+    private static void round(final double[] values, final int offset,
+                              final int length, final double scale) {
+        for (int i = offset; i < offset + length; i++) {
+            final double value = values[i];
+            // adding 0.0 turns -0.0 into 0.0, as BigDecimal does
+            values[i] = Math.copySign(Math.floor(Math.abs(value) * scale + 0.5) / scale, value) + 0.0;
+        }
+    }
+
     /**
      * Returns the resolution (maximum value) for a certain port.
      * <p>
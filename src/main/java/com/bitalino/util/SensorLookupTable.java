@@ -0,0 +1,193 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Precomputed {@link SensorDataConverter} results for every raw value a port
+ * can produce: 0 to 1023 on ports 0 to 3 and 0 to 63 on ports 4 and 5.
+ * <p>
+ * Each table is built on first use from the scalar conversion methods, so a
+ * lookup returns exactly what they return, and is then shared by all threads.
+ */
+public final class SensorLookupTable {
+
+    /**
+     * The sensors, and units, that tables can be built for.
+     */
+    public enum Sensor {
+        EMG {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleEMG(port, raw);
+            }
+        },
+        ECG {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleECG(port, raw);
+            }
+        },
+        ACCELEROMETER {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleAccelerometer(port, raw);
+            }
+        },
+        EDA {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleEDA(port, raw);
+            }
+        },
+        LUMINOSITY {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleLuminosity(port, raw);
+            }
+        },
+        TMP_CELSIUS {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleTMP(port, raw, true);
+            }
+        },
+        TMP_FAHRENHEIT {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleTMP(port, raw, false);
+            }
+        },
+        PZT {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scalePZT(port, raw);
+            }
+        },
+        EEG {
+            @Override
+            double scale(final int port, final int raw) {
+                return SensorDataConverter.scaleEEG(port, raw);
+            }
+        };
+
+        abstract double scale(int port, int raw);
+    }
+
+    private static final int PORTS = 6;
+
+    private static final AtomicReferenceArray<SensorLookupTable> TABLES =
+            new AtomicReferenceArray<SensorLookupTable>(Sensor.values().length * PORTS);
+
+    private final double[] values;
+
+    private SensorLookupTable(final Sensor sensor, final int port) {
+        values = new double[port < 4 ? 1024 : 64];
+        for (int raw = 0; raw < values.length; raw++)
+            values[raw] = sensor.scale(port, raw);
+    }
+
+    /**
+     * Returns the table for a sensor connected to a port, building it on first
+     * use.
+     *
+     * @param sensor the sensor, and unit.
+     * @param port the port (0 to 5) the sensor is connected to.
+     * @return a shared {@link SensorLookupTable}.
+     */
+    public static SensorLookupTable get(final Sensor sensor, final int port) {
+        checkNotNull(sensor, "Sensor was not provided.");
+        checkArgument(port >= 0 && port < PORTS, "Port must be between 0 and 5.");
+        final int index = sensor.ordinal() * PORTS + port;
+        SensorLookupTable table = TABLES.get(index);
+        if (table == null) {
+            // racing threads build identical tables, keep the first one
+            TABLES.compareAndSet(index, null, new SensorLookupTable(sensor, port));
+            table = TABLES.get(index);
+        }
+        return table;
+    }
+
+    /**
+     * @param raw the value read, within the port resolution.
+     * @return the converted value.
+     * @throws java.lang.ArrayIndexOutOfBoundsException if <tt>raw</tt> is outside
+     *           the port resolution.
+     */
+    public double convert(final int raw) {
+        return values[raw];
+    }
+
+    /**
+     * Bulk conversion.
+     *
+     * @param raw the values read, within the port resolution.
+     * @param offset the index of the first value to convert.
+     * @param length the number of values to convert.
+     * @param out the array to write converted values to.
+     * @param outOffset the index in <tt>out</tt> of the first converted value.
+     */
+    public void convert(final short[] raw, final int offset, final int length,
+                        final double[] out, final int outOffset) {
+        final double[] values = this.values;
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = values[raw[offset + i]];
+    }
+
+    /**
+     * Bulk conversion.
+     *
+     * @param raw the values read, within the port resolution.
+     * @param offset the index of the first value to convert.
+     * @param length the number of values to convert.
+     * @param out the array to write converted values to.
+     * @param outOffset the index in <tt>out</tt> of the first converted value.
+     */
+    public void convert(final int[] raw, final int offset, final int length,
+                        final double[] out, final int outOffset) {
+        final double[] values = this.values;
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = values[raw[offset + i]];
+    }
+
+    /**
+     * Bulk conversion of samples some of which are missing, such as those a
+     * {@link com.bitalino.comm.BITalinoGapFill#NAN} policy inserts.
+     *
+     * @param raw the values read, within the port resolution.
+     * @param missing marks the values to convert to {@link Double#NaN},
+     *          indexed as <tt>raw</tt>.
+     * @param offset the index of the first value to convert.
+     * @param length the number of values to convert.
+     * @param out the array to write converted values to.
+     * @param outOffset the index in <tt>out</tt> of the first converted value.
+     */
+    public void convert(final short[] raw, final boolean[] missing, final int offset,
+                        final int length, final double[] out, final int outOffset) {
+        final double[] values = this.values;
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = missing[offset + i] ? Double.NaN : values[raw[offset + i]];
+    }
+
+    /**
+     * @return the number of raw values covered, 1024 or 64.
+     */
+    public int size() {
+        return values.length;
+    }
+
+}
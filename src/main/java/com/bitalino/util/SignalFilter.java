@@ -0,0 +1,47 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+/**
+ * A streaming filter over one or more channels, keeping separate state for
+ * each so that consecutive batches of a channel are filtered as one
+ * continuous signal.
+ * <p>
+ * A missing sample, NaN or infinite, is filtered as the last valid input of
+ * its channel, so it never poisons the state, and comes out as NaN.
+ */
+public interface SignalFilter {
+
+    /**
+     * Filters <tt>length</tt> samples of <tt>channel</tt> in place. Allocates
+     * nothing.
+     *
+     * @param channel the channel the samples belong to, from 0 to
+     *          {@link #getChannels()} - 1.
+     * @param data the samples, replaced by the filtered samples.
+     * @param offset the index of the first sample.
+     * @param length the number of samples.
+     */
+    void filter(int channel, double[] data, int offset, int length);
+
+    /**
+     * @return the number of channels this filter keeps state for.
+     */
+    int getChannels();
+
+    /**
+     * Clears the state of every channel, as if no sample had been filtered.
+     */
+    void reset();
+
+}
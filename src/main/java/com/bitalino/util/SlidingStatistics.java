@@ -0,0 +1,135 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Mean, variance and RMS over a sliding window of the last samples.
+ * <p>
+ * Running sums are updated as samples enter and leave the window, and
+ * recomputed from the window once per revolution so that rounding errors do
+ * not accumulate, which keeps the cost constant per sample.
+ */
+public final class SlidingStatistics extends FeatureExtractor {
+
+    private final double[] window;
+    private int position;
+    private int count;
+    private int sinceRecompute;
+    private double sum;
+    private double sumOfSquares;
+    private boolean started;
+    private double held;
+
+    /**
+     * @param length the window length, in samples.
+     */
+    public SlidingStatistics(final int length) {
+        checkArgument(length > 0, "Window length must be positive.");
+        this.window = new double[length];
+    }
+
+    @Override
+    public void add(final double value) {
+        if (isMissing(value) && !started)
+            return;
+        final double sample = isMissing(value) ? held : value;
+        held = sample;
+        started = true;
+        if (count == window.length) {
+            final double oldest = window[position];
+            sum -= oldest;
+            sumOfSquares -= oldest * oldest;
+        } else {
+            count++;
+        }
+        window[position] = sample;
+        sum += sample;
+        sumOfSquares += sample * sample;
+        position = position + 1 == window.length ? 0 : position + 1;
+        if (++sinceRecompute == window.length)
+            recompute();
+    }
+
+    private void recompute() {
+        sinceRecompute = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        for (int i = 0; i < count; i++) {
+            sum += window[i];
+            sumOfSquares += window[i] * window[i];
+        }
+    }
+
+    /**
+     * @return the mean of the window, or 0 if empty.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return the population variance of the window, or 0 if empty.
+     */
+    public double getVariance() {
+        if (count == 0)
+            return 0;
+        final double mean = sum / count;
+        return Math.max(0, sumOfSquares / count - mean * mean);
+    }
+
+    /**
+     * @return the standard deviation of the window, or 0 if empty.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the root mean square of the window, or 0 if empty.
+     */
+    public double getRms() {
+        return count == 0 ? 0 : Math.sqrt(Math.max(0, sumOfSquares / count));
+    }
+
+    /**
+     * @return the number of samples in the window.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return <tt>true</tt> once the window holds its full length of samples.
+     */
+    public boolean isFull() {
+        return count == window.length;
+    }
+
+    @Override
+    public void reset() {
+        position = count = sinceRecompute = 0;
+        sum = sumOfSquares = held = 0;
+        started = false;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("length", window.length).add("count", count)
+                .add("mean", getMean()).add("rms", getRms()).toString();
+    }
+
+}
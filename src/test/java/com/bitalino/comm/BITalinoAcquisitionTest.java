@@ -0,0 +1,260 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoAcquisitionTest {
+
+    @Test
+    public void test_listeners_share_one_read() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        final BITalinoDevice device = new BITalinoDevice(1000, new int[]{0, 3});
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        final BITalinoAcquisition acquisition = new BITalinoAcquisition(device);
+        final RecordingListener small = new RecordingListener();
+        final RecordingListener bulk = new RecordingListener();
+        acquisition.addListener(small, 50, 20, TimeUnit.MILLISECONDS);
+        acquisition.addListener(bulk, 1000, 1, TimeUnit.SECONDS);
+        acquisition.start();
+        while (bulk.samples() < 5000)
+            Thread.sleep(1);
+        acquisition.stop();
+
+        assertNull(small.failure);
+        for (int size : bulk.sizes.subList(0, 5))
+            assertEquals(size, 1000);
+        for (int size : small.sizes)
+            assertTrue(size <= 50);
+        // both saw the same uninterrupted stream
+        final BITalinoSimulator.SyntheticSource source = new BITalinoSimulator.SyntheticSource();
+        final int[] analog = new int[6];
+        for (RecordingListener listener : new RecordingListener[]{small, bulk}) {
+            for (int n = 0; n < 5000; n++) {
+                source.sample(n, analog);
+                assertEquals(listener.seq.get(n).intValue(), n & 0xf);
+                assertEquals(listener.analog3.get(n).intValue(), analog[3]);
+            }
+        }
+    }
+
+    @Test
+    public void test_max_latency() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        final BITalinoDevice device = new BITalinoDevice(100, new int[]{1});
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        final BITalinoAcquisition acquisition = new BITalinoAcquisition(device);
+        final RecordingListener listener = new RecordingListener();
+        // a full batch would take 10 s at 100 Hz
+        acquisition.addListener(listener, 1000, 30, TimeUnit.MILLISECONDS);
+        acquisition.start();
+        Thread.sleep(300);
+        acquisition.stop();
+
+        assertTrue(listener.sizes.size() >= 5, "only " + listener.sizes.size() + " batches");
+        for (int size : listener.sizes)
+            assertTrue(size < 10, "batch of " + size);
+    }
+
+    @Test
+    public void test_filled_samples_stay_marked() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        simulator.setSeed(3);
+        simulator.setLossRate(0.05);
+        final int[] channels = {0, 3};
+        final BITalinoDevice device = new BITalinoDevice(1000, channels.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        device.setGapFill(BITalinoGapFill.HOLD_LAST);
+        final File file = File.createTempFile("bitalino", ".rec");
+        file.deleteOnExit();
+        final BITalinoRecordingWriter writer = new BITalinoRecordingWriter(file, 1000, channels);
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public synchronized void onFrames(final BITalinoFrameBlock block) {
+                super.onFrames(block);
+                try {
+                    writer.write(block);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        final BITalinoAcquisition acquisition = new BITalinoAcquisition(device);
+        acquisition.addListener(listener, 100, 20, TimeUnit.MILLISECONDS);
+        acquisition.start();
+        while (listener.samples() < 5000)
+            Thread.sleep(1);
+        acquisition.stop();
+        writer.close();
+
+        // every lost frame was filled, and the listener saw which
+        int filled = 0;
+        for (int n = 0; n < 5000; n++) {
+            assertEquals(listener.seq.get(n).intValue(), n & 0xf);
+            if (listener.filled.get(n))
+                filled++;
+        }
+        assertTrue(filled > 100, "only " + filled + " filled");
+
+        final BITalinoRecordingReader reader = new BITalinoRecordingReader(file);
+        try {
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(5000);
+            assertEquals(reader.read(0, block, 5000), 5000);
+            final BITalinoFrameBatch batch = BITalinoFrameBatch.of(block, channels);
+            final BITalinoFrameBlock copy = new BITalinoFrameBlock(5000);
+            batch.copyTo(copy);
+            for (int n = 0; n < 5000; n++) {
+                final boolean expected = listener.filled.get(n);
+                assertEquals(block.isFilled(n), expected, "Sample " + n);
+                assertEquals(batch.isFilled(n), expected, "Sample " + n);
+                assertEquals(copy.isFilled(n), expected, "Sample " + n);
+                assertEquals(block.getAnalog(3, n), listener.analog3.get(n).intValue());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void test_stop_while_blocked_in_read() throws Exception {
+        final Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        final List<Throwable> uncaught = new ArrayList<Throwable>();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread t, final Throwable e) {
+                synchronized (uncaught) {
+                    uncaught.add(e);
+                }
+            }
+        });
+        try {
+            for (boolean interruptible : new boolean[]{true, false}) {
+                // the first frame acknowledges start, the next is hours away
+                final BITalinoSimulator simulator = new BITalinoSimulator();
+                simulator.setSpeed(0.0001);
+                final BITalinoDevice device = new BITalinoDevice(100, new int[]{0});
+                device.open(interruptible ? simulator.getInputStream()
+                        : new UninterruptibleInputStream(simulator.getInputStream()),
+                        simulator.getOutputStream());
+                final BITalinoAcquisition acquisition = new BITalinoAcquisition(device);
+                acquisition.start();
+                Thread.sleep(50);
+                acquisition.stop();
+
+                assertFalse(acquisition.isRunning());
+                assertFalse(simulator.isAcquiring());
+                assertNull(device.getTransport());
+                final BITalinoFrameBlock block = new BITalinoFrameBlock(16);
+                assertEquals(acquisition.drain(block), 1);
+                assertEquals(acquisition.drain(block), 0);
+            }
+            synchronized (uncaught) {
+                assertTrue(uncaught.isEmpty(), uncaught.toString());
+            }
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+
+    /**
+     * Retries reads that were interrupted, like a blocking socket.
+     */
+    private static final class UninterruptibleInputStream extends InputStream {
+
+        private final InputStream in;
+
+        UninterruptibleInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return in.read(b, off, len);
+                    } catch (InterruptedIOException e) {
+                        Thread.interrupted();
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    private static class RecordingListener implements BITalinoFrameListener {
+
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final List<Integer> seq = new ArrayList<Integer>();
+        final List<Integer> analog3 = new ArrayList<Integer>();
+        final List<Boolean> filled = new ArrayList<Boolean>();
+        volatile BITalinoException failure;
+
+        @Override
+        public synchronized void onFrames(final BITalinoFrameBlock block) {
+            sizes.add(block.getSize());
+            for (int i = 0; i < block.getSize(); i++) {
+                seq.add(block.getSequence(i));
+                analog3.add(block.getAnalog(3, i));
+                filled.add(block.isFilled(i));
+            }
+        }
+
+        @Override
+        public void onFailure(final BITalinoException failure) {
+            this.failure = failure;
+        }
+
+        synchronized int samples() {
+            return seq.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class BITalinoCRCTest {
+
+    /**
+     * Frame length for 1 to 6 analog channels.
+     */
+    private static final int[] TOTAL_BYTES = {3, 4, 6, 7, 8, 8};
+
+    @Test
+    public void test_every_single_channel_frame() {
+        final byte[] buffer = new byte[3];
+        for (int frame = 0; frame < (1 << 24); frame++) {
+            buffer[0] = (byte) (frame >> 16);
+            buffer[1] = (byte) (frame >> 8);
+            buffer[2] = (byte) frame;
+            assertCRC(buffer);
+        }
+    }
+
+    /**
+     * Longer frames cannot be enumerated, but every pair of adjacent bytes at
+     * every position drives every (register state, byte) table entry at that
+     * position.
+     */
+    @Test
+    public void test_every_adjacent_byte_pair() {
+        for (int totalBytes : TOTAL_BYTES) {
+            final byte[] buffer = new byte[totalBytes];
+            for (int position = 0; position < totalBytes - 1; position++) {
+                for (int pair = 0; pair < (1 << 16); pair++) {
+                    buffer[position] = (byte) (pair >> 8);
+                    buffer[position + 1] = (byte) pair;
+                    assertCRC(buffer);
+                }
+                buffer[position] = 0;
+                buffer[position + 1] = 0;
+            }
+        }
+    }
+
+    @Test
+    public void test_random_frames() {
+        final Random random = new Random(42);
+        for (int totalBytes : TOTAL_BYTES) {
+            final byte[] buffer = new byte[totalBytes + 3];
+            for (int i = 0; i < 100000; i++) {
+                random.nextBytes(buffer);
+                final int offset = random.nextInt(4);
+                final byte[] frame = new byte[totalBytes];
+                System.arraycopy(buffer, offset, frame, 0, totalBytes);
+                assertEquals(BITalinoCRC.compute(buffer, offset, totalBytes),
+                        shiftRegister(frame, totalBytes));
+            }
+        }
+    }
+
+    private static void assertCRC(final byte[] buffer) {
+        final int expected = shiftRegister(buffer, buffer.length);
+        assertEquals(BITalinoCRC.compute(buffer, 0, buffer.length), expected);
+        assertEquals(BITalinoCRC.check(buffer, 0, buffer.length),
+                expected == (buffer[buffer.length - 1] & 0x0F));
+    }
+
+    /**
+     * The original bit-by-bit implementation.
+     */
+    private static int shiftRegister(final byte[] buffer, final int totalBytes) {
+        int x0 = 0, x1 = 0, x2 = 0, x3 = 0, out = 0, inp = 0;
+        for (int bytes = 0; bytes < totalBytes; bytes++) {
+            for (int bit = 7; bit > -1; bit--) {
+                inp = (buffer[bytes]) >> bit & 0x01;
+                if (bytes == (totalBytes - 1) && bit < 4)
+                    inp = 0;
+                out = x3;
+                x3 = x2;
+                x2 = x1;
+                x1 = out ^ x0;
+                x0 = inp ^ out;
+            }
+        }
+        return (x3 << 3) | (x2 << 2) | (x1 << 1) | x0;
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoClockTest {
+
+    private static final int SAMPLERATE = 1000;
+    private static final int BATCH = 20;
+
+    private void acquire(final BITalinoClock clock, final double ppm, final int seconds,
+                         final long dropFrom, final int dropCount, final long expectedLost) {
+        acquire(clock, ppm, seconds, dropFrom, dropCount, expectedLost, 4000000);
+    }
+
+    /**
+     * Acquires samples from a board <tt>ppm</tt> slower than nominal, reading
+     * them in batches that arrive after a latency of 5 ms plus up to
+     * <tt>jitter</tt> nanoseconds, and checks every timestamp against when the
+     * sample was really acquired.
+     */
+    private void acquire(final BITalinoClock clock, final double ppm, final int seconds,
+                         final long dropFrom, final int dropCount, final long expectedLost,
+                         final int jitter) {
+        final Random random = new Random(7);
+        final double period = 1e6 * (1 + ppm / 1e6);
+        final long origin = 1000000000L;
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(BATCH);
+        final long[] times = new long[BATCH];
+        final long[] samples = new long[BATCH];
+        long prev = Long.MIN_VALUE;
+        long lost = 0;
+        for (long k = 0; k < (long) seconds * SAMPLERATE; ) {
+            block.clear();
+            while (block.size < BATCH) {
+                if (k < dropFrom || k >= dropFrom + dropCount) {
+                    block.seq[block.size] = (int) (k & 0xf);
+                    samples[block.size++] = k;
+                }
+                k++;
+            }
+            final long last = origin + Math.round(samples[BATCH - 1] * period);
+            final long arrival = last + 5000000 + random.nextInt(jitter);
+            lost += clock.timestamp(block, 0, arrival, times);
+            for (int i = 0; i < BATCH; i++) {
+                assertTrue(times[i] > prev, "Timestamps must increase.");
+                prev = times[i];
+                if (samples[i] > 10 * SAMPLERATE) {
+                    // the mean latency is part of every timestamp
+                    final long actual = origin + Math.round(samples[i] * period)
+                            + 5000000 + jitter / 2;
+                    assertEquals((double) times[i], (double) actual, Math.max(1500000, jitter / 4),
+                            "Sample " + samples[i]);
+                }
+            }
+        }
+        assertEquals(lost, expectedLost);
+        assertEquals(clock.getLostSamples(), expectedLost);
+        assertEquals(clock.getSampleCount(), samples[BATCH - 1] + 1);
+    }
+
+    @Test
+    public void test_drift() {
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        acquire(clock, 100, 120, Long.MAX_VALUE, 0, 0);
+        assertEquals(clock.getDriftPpm(), 100, 20);
+        assertEquals(clock.getPeriodNanos(), 1e6 * 1.0001, 20);
+
+        final BITalinoClock fast = new BITalinoClock(SAMPLERATE);
+        acquire(fast, -50, 120, Long.MAX_VALUE, 0, 0);
+        assertEquals(fast.getDriftPpm(), -50, 20);
+    }
+
+    @Test
+    public void test_gap_within_sequence() {
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        acquire(clock, 0, 30, 15005, 5, 5);
+    }
+
+    @Test
+    public void test_whole_wraps_lost() {
+        // 20 samples are exactly one batch, so the loss falls between reads
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        acquire(clock, 0, 30, 15000, 20 + 32, 52);
+    }
+
+    @Test
+    public void test_jitter_is_not_lost_wraps() {
+        // reads up to 30 samples late, more than half a wrap, lose nothing
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        acquire(clock, 0, 30, Long.MAX_VALUE, 0, 0, 30000000);
+        assertEquals(clock.getLostSamples(), 0);
+        assertTrue(clock.getJitterNanos() > 20000000);
+    }
+
+    @Test
+    public void test_whole_wraps_lost_despite_jitter() {
+        // 30 ms of jitter hides 16 lost samples but not 64
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        acquire(clock, 0, 30, 15000, 20 + 64, 84, 30000000);
+    }
+
+    @Test
+    public void test_partial_block() {
+        final BITalinoClock clock = new BITalinoClock(SAMPLERATE);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(4);
+        final long[] times = new long[4];
+        block.seq[0] = 14;
+        block.seq[1] = 15;
+        block.size = 2;
+        assertEquals(clock.timestamp(block, 0, 10000000L, times), 0);
+        assertEquals(times[1] - times[0], 1000000);
+        assertEquals(times[1], 10000000L);
+
+        block.seq[2] = 2;
+        block.size = 3;
+        assertEquals(clock.timestamp(block, 2, 13000000L, times), 2);
+        assertEquals(times[2], 13000000L);
+        assertEquals(clock.timestamp(block, 3, 14000000L, times), 0);
+        assertEquals(clock.getSampleCount(), 5);
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class BITalinoDeviceTest {
+
+    private static final int[] CHANNELS = {0, 1, 4};
+
+    @Test
+    public void test_idle_commands() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+
+        device.setBatteryThreshold(20).get();
+        assertEquals(simulator.getBatteryThreshold(), 20);
+        assertEquals(device.requestVersion().get(), BITalinoSimulator.VERSION.trim());
+
+        final BITalinoState state = device.requestState().get();
+        final int[] analog = new int[6];
+        final int digital = new BITalinoSimulator.SyntheticSource().sample(0, analog);
+        for (int channel = 0; channel < 6; channel++)
+            assertEquals(state.getAnalog(channel), analog[channel]);
+        assertEquals(state.getBattery(), BITalinoSimulator.BATTERY);
+        assertEquals(state.getBatteryThreshold(), 20);
+        assertEquals(state.getDigitalInput(0), (digital >> 3) & 1);
+        assertEquals(state.getDigitalInput(1), (digital >> 2) & 1);
+
+        assertError(BITalinoErrorTypes.INVALID_THRESHOLD, new Command() {
+            @Override
+            public void run() throws BITalinoException {
+                device.setBatteryThreshold(64);
+            }
+        });
+        assertError(BITalinoErrorTypes.DEVICE_NOT_IN_ACQUISITION_MODE, new Command() {
+            @Override
+            public void run() throws BITalinoException {
+                device.trigger(new int[]{1, 0, 0, 0});
+            }
+        });
+    }
+
+    @Test
+    public void test_trigger_during_acquisition() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        device.start();
+
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(50);
+        device.read(block);
+        device.trigger(new int[]{1, 0, 1, 0}).get();
+        device.read(block);
+        assertEquals(simulator.getDigitalOutputs(), 0x5);
+        device.trigger(new int[]{0, 1, 0, 0});
+        device.trigger(new int[]{0, 0, 0, 1});
+
+        assertError(BITalinoErrorTypes.INVALID_DIGITAL_CHANNELS, new Command() {
+            @Override
+            public void run() throws BITalinoException {
+                device.trigger(new int[]{1, 1});
+            }
+        });
+        assertError(BITalinoErrorTypes.DEVICE_NOT_IDLE, new Command() {
+            @Override
+            public void run() throws BITalinoException {
+                device.requestState();
+            }
+        });
+        // stop is queued behind the pending triggers
+        device.stop();
+        assertEquals(simulator.getDigitalOutputs(), 0x8);
+    }
+
+    @Test
+    public void test_replies_during_acquisition() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        assertEquals(device.version(), BITalinoSimulator.VERSION.trim());
+        device.start();
+
+        final ListenableFuture<String> version = device.requestVersion();
+        final ListenableFuture<BITalinoState> state = device.requestState();
+        device.trigger(new int[]{0, 1, 0, 0});
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(100);
+        for (int n = 0; n < 5 && !state.isDone(); n++)
+            device.read(block);
+        assertEquals(version.get(1, TimeUnit.SECONDS), BITalinoSimulator.VERSION.trim());
+        assertEquals(state.get(1, TimeUnit.SECONDS).getBattery(), BITalinoSimulator.BATTERY);
+        assertEquals(simulator.getDigitalOutputs(), 0x2);
+        // no frame was lost to the replies
+        assertEquals(device.getMetrics().getCrcFailures(), 0);
+        assertEquals(device.getMetrics().getResyncBytes(), 0);
+        assertEquals(device.getMetrics().getSequenceGaps(), 0);
+        device.stop();
+    }
+
+    @Test
+    public void test_state_crc() {
+        final byte[] reply = new byte[BITalinoState.TOTAL_BYTES];
+        reply[14] = 7;
+        reply[15] = (byte) 0x90;
+        reply[15] |= BITalinoCRC.compute(reply, 0, reply.length);
+        final BITalinoState state = BITalinoState.decode(reply, 0);
+        assertEquals(state.getBatteryThreshold(), 7);
+        assertEquals(state.getDigitalInput(0), 1);
+        assertEquals(state.getDigitalOutput(1), 1);
+        reply[3] ^= 0x20;
+        assertNull(BITalinoState.decode(reply, 0));
+    }
+
+    private interface Command {
+        void run() throws BITalinoException;
+    }
+
+    @Test
+    public void test_stream_without_available() throws Exception {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        final InputStream simulated = simulator.getInputStream();
+        // inherits InputStream.available(), which always returns 0
+        final InputStream is = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return simulated.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return simulated.read(b, off, len);
+            }
+        };
+        assertFalse(new BITalinoStreamTransport(is, simulator.getOutputStream())
+                .isAvailableReported());
+        assertTrue(new BITalinoStreamTransport(simulated, simulator.getOutputStream())
+                .isAvailableReported());
+
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(is, simulator.getOutputStream());
+        assertEquals(device.version(), BITalinoSimulator.VERSION.trim());
+        device.start();
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(100);
+        while (block.getSize() < 100)
+            device.poll(block);
+        for (int i = 0; i < 100; i++)
+            assertEquals(block.getSequence(i), i & 0xf);
+        device.stop();
+    }
+
+    private static void assertError(final BITalinoErrorTypes type, final Command command) {
+        try {
+            command.run();
+            fail("expected " + type);
+        } catch (BITalinoException e) {
+            assertEquals(e.getCode(), type.getValue());
+        }
+    }
+
+}
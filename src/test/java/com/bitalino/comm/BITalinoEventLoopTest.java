@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class BITalinoEventLoopTest {
+
+    private static final int DEVICES = 3;
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void test_many_devices_one_thread() throws Exception {
+        final BITalinoEventLoop loop = new BITalinoEventLoop();
+        final BITalinoDevice[] devices = new BITalinoDevice[DEVICES];
+        final BITalinoSampleRing[] rings = new BITalinoSampleRing[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            final BITalinoSimulator simulator = new BITalinoSimulator();
+            simulator.setSpeed(Double.POSITIVE_INFINITY);
+            devices[i] = new BITalinoDevice(1000, new int[]{0, i + 1});
+            devices[i].open(bridge(simulator));
+            devices[i].start();
+            rings[i] = loop.register(devices[i], SAMPLES, BITalinoOverflowPolicy.BLOCK);
+        }
+
+        final BITalinoSimulator.SyntheticSource source = new BITalinoSimulator.SyntheticSource();
+        final int[] analog = new int[6];
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(SAMPLES);
+        for (int i = 0; i < DEVICES; i++) {
+            block.clear();
+            while (block.getSize() < SAMPLES) {
+                rings[i].drain(block, block.getRemaining());
+                assertNull(loop.getFailure(rings[i]));
+                Thread.sleep(1);
+            }
+            for (int n = 0; n < SAMPLES; n++) {
+                source.sample(n, analog);
+                assertEquals(block.getSequence(n), n & 0xf);
+                assertEquals(block.getAnalog(i + 1, n), analog[i + 1]);
+            }
+        }
+        loop.close();
+        for (BITalinoDevice device : devices)
+            device.stop();
+    }
+
+    @Test
+    public void test_failed_device_does_not_stop_others() throws Exception {
+        final BITalinoEventLoop loop = new BITalinoEventLoop();
+        final BITalinoDevice lost = new BITalinoDevice(1000, new int[]{0});
+        lost.open(bridge(new BITalinoSimulator()));
+        ((BITalinoChannelTransport) lost.getTransport()).getChannel().close();
+        final BITalinoSampleRing lostRing = loop.register(lost);
+
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        final BITalinoDevice device = new BITalinoDevice(1000, new int[]{0});
+        device.open(bridge(simulator));
+        device.start();
+        final BITalinoSampleRing ring = loop.register(device, SAMPLES,
+                BITalinoOverflowPolicy.BLOCK);
+
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(SAMPLES);
+        while (block.getSize() < SAMPLES) {
+            ring.drain(block, block.getRemaining());
+            assertNull(loop.getFailure(ring));
+            Thread.sleep(1);
+        }
+        for (int n = 0; n < SAMPLES; n++)
+            assertEquals(block.getSequence(n), n & 0xf);
+        assertNotNull(loop.getFailure(lostRing));
+        assertEquals(loop.getFailure(lostRing).getCode(),
+                BITalinoErrorTypes.LOST_COMMUNICATION.getValue());
+        loop.close();
+        device.stop();
+    }
+
+    /**
+     * Connects a simulator to a pair of selectable pipes, as a serial-to-TCP
+     * gateway would.
+     */
+    private static BITalinoTransport bridge(final BITalinoSimulator simulator)
+            throws IOException {
+        final Pipe frames = Pipe.open();
+        final Pipe commands = Pipe.open();
+        pump(simulator.getInputStream(), Channels.newOutputStream(frames.sink()));
+        pump(Channels.newInputStream(commands.source()), simulator.getOutputStream());
+        return new BITalinoChannelTransport(frames.source(), commands.sink(),
+                BITalinoChannelTransport.DEFAULT_BUFFER_SIZE);
+    }
+
+    private static void pump(final InputStream in, final OutputStream out) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[4096];
+                try {
+                    int read;
+                    while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                } catch (IOException ignored) {
+                    // the other end was closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
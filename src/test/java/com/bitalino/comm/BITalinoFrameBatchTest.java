@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class BITalinoFrameBatchTest {
+
+    private static final int[] CHANNELS = {1, 3, 5};
+
+    @Test
+    public void test_frames_round_trip() {
+        final BITalinoFrame[] frames = new BITalinoFrame[100];
+        for (int n = 0; n < frames.length; n++) {
+            frames[n] = new BITalinoFrame();
+            frames[n].setSequence(n & 0xf);
+            frames[n].setAnalog(1, (n * 7) % 1024);
+            frames[n].setAnalog(3, (n * 11) % 1024);
+            frames[n].setAnalog(5, n % 64);
+            for (int pos = 0; pos < 4; pos++)
+                frames[n].setDigital(pos, (n >> pos) & 1);
+        }
+        final BITalinoFrameBatch batch = BITalinoFrameBatch.of(frames, CHANNELS);
+        assertEquals(batch.getSize(), frames.length);
+        final BITalinoFrame[] copies = batch.toFrames();
+        for (int n = 0; n < frames.length; n++) {
+            assertEquals(copies[n].toString(), frames[n].toString());
+            assertEquals(batch.getDigital(n), ((n & 1) << 3) | ((n & 2) << 1)
+                    | ((n & 4) >> 1) | ((n & 8) >> 3));
+        }
+    }
+
+    @Test
+    public void test_block_round_trip_and_slices() {
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(50);
+        for (int i = 0; i < 50; i++) {
+            block.seq[i] = i & 0xf;
+            block.digital[i] = (byte) (15 - (i & 0xf));
+            block.analog[1][i] = (short) (i * 20);
+            block.analog[3][i] = (short) (1023 - i);
+            block.analog[5][i] = (short) (i % 64);
+            block.size++;
+        }
+        final BITalinoFrameBatch batch = new BITalinoFrameBatch(CHANNELS, 100);
+        batch.append(block, 0, 50);
+        batch.append(block, 10, 20);
+        assertEquals(batch.getSize(), 70);
+
+        final BITalinoFrameBatch slice = batch.slice(45, 60);
+        assertEquals(slice.getSize(), 15);
+        for (int i = 0; i < slice.getSize(); i++) {
+            final int source = 45 + i < 50 ? 45 + i : 45 + i - 40;
+            assertEquals(slice.getSequence(i), source & 0xf);
+            assertEquals(slice.getDigital(i), 15 - (source & 0xf));
+            assertEquals(slice.getAnalog(3, i), 1023 - source);
+        }
+        final ShortBuffer column = slice.getAnalog(1);
+        assertEquals(column.remaining(), 15);
+        assertEquals(column.get(0), 45 * 20);
+        // samples 50 to 54 of the batch came from samples 10 to 14 of the block
+        assertEquals(slice.slice(5, 10).getAnalog(5, 0), 10);
+
+        final BITalinoFrameBlock copy = new BITalinoFrameBlock(15);
+        slice.copyTo(copy);
+        for (int i = 0; i < 15; i++) {
+            assertEquals(copy.getSequence(i), slice.getSequence(i));
+            assertEquals(copy.getDigital()[i], slice.getDigital(i));
+            assertEquals(copy.getAnalog(5, i), slice.getAnalog(5, i));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void test_inactive_channel() {
+        new BITalinoFrameBatch(CHANNELS, 10).getAnalog(0);
+    }
+
+    @Test
+    public void test_device_read_batch() throws BITalinoException {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        device.start();
+        final BITalinoFrameBatch batch = device.readBatch(1000);
+        device.stop();
+        final BITalinoSimulator.SyntheticSource source = new BITalinoSimulator.SyntheticSource();
+        final int[] analog = new int[6];
+        for (int n = 0; n < batch.getSize(); n++) {
+            final int digital = source.sample(n, analog);
+            assertEquals(batch.getSequence(n), n & 0xf);
+            assertEquals(batch.getDigital(n), digital);
+            for (int channel : CHANNELS)
+                assertEquals(batch.getAnalog(channel, n), analog[channel]);
+        }
+        assertFalse(batch.toString().isEmpty());
+    }
+
+}
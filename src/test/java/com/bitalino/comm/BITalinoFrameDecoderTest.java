@@ -0,0 +1,128 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Checks every specialised decoder against the generic one.
+ */
+public class BITalinoFrameDecoderTest {
+
+    private static final int[] TOTAL_BYTES = {3, 4, 6, 7, 8, 8};
+
+    @Test
+    public void test_every_single_channel_frame() {
+        final byte[] buffer = new byte[3];
+        for (int channel = 0; channel < 6; channel++) {
+            final int[] analogChannels = {channel};
+            final BITalinoFrameDecoder decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+            final BITalinoFrameBlock expected = new BITalinoFrameBlock(1);
+            final BITalinoFrameBlock actual = new BITalinoFrameBlock(1);
+            // enumerating once covers every layout, other ports only move the column
+            final int frames = channel == 0 ? 1 << 24 : 1 << 16;
+            for (int frame = 0; frame < frames; frame++) {
+                buffer[0] = (byte) (frame >> 16);
+                buffer[1] = (byte) (frame >> 8);
+                buffer[2] = (byte) frame;
+                expected.clear();
+                actual.clear();
+                assertEquals(decoder.decode(buffer, 0, actual), BITalinoFrameDecoder.decode(
+                        buffer, 0, analogChannels, 3, expected));
+                assertSame(actual, expected);
+            }
+        }
+    }
+
+    @Test
+    public void test_every_channel_subset() {
+        final Random random = new Random(11);
+        for (int mask = 1; mask < (1 << 6); mask++) {
+            final int[] analogChannels = channels(mask);
+            final int totalBytes = TOTAL_BYTES[analogChannels.length - 1];
+            final BITalinoFrameDecoder decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+            assertEquals(decoder.totalBytes, totalBytes);
+            final byte[] buffer = new byte[totalBytes + 5];
+            final BITalinoFrameBlock expected = new BITalinoFrameBlock(1);
+            final BITalinoFrameBlock actual = new BITalinoFrameBlock(1);
+            for (int n = 0; n < 20000; n++) {
+                final int offset = n % 5;
+                random.nextBytes(buffer);
+                // half of the frames carry a valid CRC
+                if ((n & 1) == 0)
+                    buffer[offset + totalBytes - 1] = (byte) ((buffer[offset + totalBytes - 1] & 0xf0)
+                            | BITalinoCRC.compute(buffer, offset, totalBytes));
+                expected.clear();
+                actual.clear();
+                assertEquals(decoder.decode(buffer, offset, actual), BITalinoFrameDecoder.decode(
+                        buffer, offset, analogChannels, totalBytes, expected));
+                assertSame(actual, expected);
+            }
+        }
+    }
+
+    @Test
+    public void test_every_field_value() {
+        for (int channels = 1; channels <= 6; channels++) {
+            final int[] analogChannels = channels((1 << channels) - 1);
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final BITalinoFrameDecoder decoder = BITalinoFrameDecoder.forChannels(analogChannels);
+            final byte[] buffer = new byte[totalBytes];
+            final int[] analog = new int[channels];
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(1);
+            for (int field = 0; field < channels; field++) {
+                for (int value = 0; value < (field < 4 ? 1024 : 64); value++) {
+                    for (int k = 0; k < channels; k++)
+                        analog[k] = k == field ? value : (value * 7 + k) & (k < 4 ? 0x3ff : 0x3f);
+                    BITalinoFrameEncoder.encode(buffer, 0, totalBytes, value, value >> 4,
+                            analog, channels);
+                    block.clear();
+                    assertEquals(decoder.decode(buffer, 0, block), true);
+                    assertEquals(block.getSequence(0), value & 0xf);
+                    assertEquals(block.getDigital()[0], (value >> 4) & 0xf);
+                    for (int k = 0; k < channels; k++)
+                        assertEquals(block.getAnalog(k, 0), analog[k]);
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void test_no_channels() {
+        BITalinoFrameDecoder.forChannels(new int[0]);
+    }
+
+    private static int[] channels(final int mask) {
+        final int[] analogChannels = new int[Integer.bitCount(mask)];
+        for (int channel = 0, k = 0; channel < 6; channel++)
+            if ((mask & (1 << channel)) != 0)
+                analogChannels[k++] = channel;
+        return analogChannels;
+    }
+
+    private static void assertSame(final BITalinoFrameBlock actual,
+                                   final BITalinoFrameBlock expected) {
+        assertEquals(actual.getSize(), expected.getSize());
+        if (expected.getSize() == 0)
+            return;
+        assertEquals(actual.getSequence(0), expected.getSequence(0));
+        assertEquals(actual.getDigital()[0], expected.getDigital()[0]);
+        for (int channel = 0; channel < 6; channel++)
+            assertEquals(actual.getAnalog(channel, 0), expected.getAnalog(channel, 0));
+    }
+
+}
@@ -0,0 +1,438 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoFrameReaderTest {
+
+    private static final int[] TOTAL_BYTES = {3, 4, 6, 7, 8, 8};
+    private static final int FRAMES = 100;
+
+    @Test
+    public void test_clean_stream() throws IOException {
+        for (int channels = 1; channels <= 6; channels++) {
+            final byte[] stream = record(channels, FRAMES);
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES);
+            reader.read(transport(new ByteArrayInputStream(stream)), block, FRAMES);
+            for (int i = 0; i < FRAMES; i++)
+                assertSample(block, i, i, channels);
+            assertEquals(reader.getDiscardedBytes(), 0);
+        }
+    }
+
+    @Test
+    public void test_one_byte_reads() throws IOException {
+        for (int channels = 1; channels <= 6; channels++) {
+            final byte[] stream = record(channels, FRAMES);
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES);
+            reader.read(transport(new TrickleInputStream(stream)), block, FRAMES);
+            for (int i = 0; i < FRAMES; i++)
+                assertSample(block, i, i, channels);
+        }
+    }
+
+    @Test
+    public void test_garbage_before_first_frame() throws IOException {
+        final Random random = new Random(7);
+        for (int channels = 1; channels <= 6; channels++) {
+            final byte[] garbage = new byte[5];
+            random.nextBytes(garbage);
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(garbage);
+            stream.write(record(channels, FRAMES));
+
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES);
+            reader.read(transport(new ByteArrayInputStream(stream.toByteArray())), block, FRAMES);
+            for (int i = 0; i < FRAMES; i++)
+                assertSample(block, i, i, channels);
+            assertEquals(reader.getDiscardedBytes(), garbage.length);
+        }
+    }
+
+    @Test
+    public void test_dropped_bytes() throws IOException {
+        for (int channels = 1; channels <= 6; channels++) {
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final byte[] clean = record(channels, FRAMES);
+            // lose the first two bytes of frame 50
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(clean, 0, 50 * totalBytes);
+            stream.write(clean, 50 * totalBytes + 2, clean.length - 50 * totalBytes - 2);
+
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES - 1);
+            reader.read(transport(new ByteArrayInputStream(stream.toByteArray())), block, FRAMES - 1);
+            for (int i = 0; i < FRAMES - 1; i++)
+                assertSample(block, i, i < 50 ? i : i + 1, channels);
+            assertEquals(reader.getDiscardedBytes(), totalBytes - 2);
+            assertFalse(reader.isSyncing());
+        }
+    }
+
+    @Test
+    public void test_lost_frames() throws IOException {
+        for (int channels = 1; channels <= 6; channels++) {
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final byte[] clean = record(channels, FRAMES);
+            // lose frames 30 to 32 entirely
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(clean, 0, 30 * totalBytes);
+            stream.write(clean, 33 * totalBytes, clean.length - 33 * totalBytes);
+
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES - 3);
+            reader.read(transport(new ByteArrayInputStream(stream.toByteArray())), block, FRAMES - 3);
+            for (int i = 0; i < FRAMES - 3; i++)
+                assertSample(block, i, i < 30 ? i : i + 3, channels);
+            assertEquals(reader.getDiscardedBytes(), 0);
+        }
+    }
+
+    @Test
+    public void test_gap_fill() throws IOException {
+        final BITalinoGapFill[] policies = {BITalinoGapFill.NAN, BITalinoGapFill.HOLD_LAST,
+                BITalinoGapFill.LINEAR};
+        for (int channels = 1; channels <= 6; channels++) {
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final byte[] clean = record(channels, FRAMES);
+            // lose frames 30 to 32 entirely
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(clean, 0, 30 * totalBytes);
+            stream.write(clean, 33 * totalBytes, clean.length - 33 * totalBytes);
+
+            for (BITalinoGapFill policy : policies) {
+                for (int step : new int[]{FRAMES, 1}) {
+                    final BITalinoMetrics metrics = new BITalinoMetrics();
+                    final BITalinoFrameReader reader = new BITalinoFrameReader(
+                            BITalinoFrameDecoder.forChannels(channels(channels)), 16, metrics);
+                    reader.setGapFill(policy, null);
+                    final BITalinoTransport transport = transport(
+                            new ByteArrayInputStream(stream.toByteArray()));
+                    // single-sample reads leave the gap to be filled over calls
+                    final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES);
+                    while (block.getSize() < FRAMES)
+                        reader.read(transport, block, step);
+
+                    for (int i = 0; i < FRAMES; i++) {
+                        if (i < 30 || i > 32) {
+                            assertSample(block, i, i, channels);
+                            assertFalse(block.isFilled(i));
+                            continue;
+                        }
+                        assertTrue(block.isFilled(i));
+                        assertEquals(block.getSequence(i), i & 0xf);
+                        for (int k = 0; k < channels; k++) {
+                            final int expected = policy == BITalinoGapFill.NAN ? 0
+                                    : policy == BITalinoGapFill.HOLD_LAST ? value(29, k)
+                                    : value(29, k) + Math.round((value(33, k) - value(29, k))
+                                    * (i - 29) / 4f);
+                            assertEquals(block.getAnalog(k, i), expected, policy + " " + i);
+                        }
+                    }
+                    assertEquals(metrics.getFramesDecoded(), FRAMES - 3);
+                    assertEquals(metrics.getFilledFrames(), 3);
+                    assertEquals(metrics.getLostFrames(), 3);
+
+                    block.clear();
+                    assertFalse(block.isFilled(30));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_whole_wraps_lost() throws Exception {
+        final int totalBytes = TOTAL_BYTES[0];
+        final byte[] clean = record(1, 135);
+        // at 100 Hz, frames 0 to 79 arrive 5 every 50 ms, so the clock learns
+        // the jitter; frames 80 to 129 are lost and frames 130 to 134 arrive
+        // 550 ms after the last read: 3 whole wraps and 2 frames
+        final byte[] stream = new byte[85 * totalBytes];
+        System.arraycopy(clean, 0, stream, 0, 80 * totalBytes);
+        System.arraycopy(clean, 130 * totalBytes, stream, 80 * totalBytes, 5 * totalBytes);
+
+        final BITalinoMetrics metrics = new BITalinoMetrics();
+        final BITalinoFrameReader reader = new BITalinoFrameReader(
+                BITalinoFrameDecoder.forChannels(channels(1)), 16, metrics);
+        reader.setGapFill(BITalinoGapFill.HOLD_LAST, new BITalinoClock(100));
+        final BITalinoTransport transport = transport(new ChunkInputStream(stream,
+                5 * totalBytes));
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(135);
+        final long start = System.nanoTime();
+        for (int k = 0; k < 16; k++) {
+            sleepUntil(start + k * 50000000L);
+            reader.read(transport, block, 5);
+        }
+        sleepUntil(start + 26 * 50000000L);
+        reader.read(transport, block, 55);
+
+        for (int i = 0; i < 135; i++) {
+            assertEquals(block.getSequence(i), i & 0xf);
+            assertEquals(block.isFilled(i), i >= 80 && i < 130);
+        }
+        assertEquals(block.getAnalog(0, 129), value(79, 0));
+        assertSample(block, 130, 130, 1);
+        assertEquals(metrics.getLostFrames(), 50);
+        assertEquals(metrics.getSequenceGaps(2), 1);
+    }
+
+    private static void sleepUntil(final long nanos) throws InterruptedException {
+        final long millis = (nanos - System.nanoTime()) / 1000000;
+        if (millis > 0)
+            Thread.sleep(millis);
+    }
+
+    @Test
+    public void test_first_frame_is_not_a_gap() throws IOException {
+        final int totalBytes = TOTAL_BYTES[1];
+        final byte[] clean = record(2, FRAMES);
+        // joined a board already streaming, at frame 5
+        final byte[] stream = new byte[clean.length - 5 * totalBytes];
+        System.arraycopy(clean, 5 * totalBytes, stream, 0, stream.length);
+
+        final BITalinoMetrics metrics = new BITalinoMetrics();
+        final BITalinoFrameReader reader = new BITalinoFrameReader(
+                BITalinoFrameDecoder.forChannels(channels(2)), 16, metrics);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES - 5);
+        reader.read(transport(new ByteArrayInputStream(stream)), block, FRAMES - 5);
+        for (int i = 0; i < FRAMES - 5; i++)
+            assertSample(block, i, i + 5, 2);
+        assertEquals(metrics.getSequenceGaps(), 0);
+        assertEquals(metrics.getLostFrames(), 0);
+    }
+
+    @Test
+    public void test_corrupted_frame() throws IOException {
+        for (int channels = 1; channels <= 6; channels++) {
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final byte[] stream = record(channels, FRAMES);
+            stream[20 * totalBytes + 1] ^= 0x10;
+
+            final BITalinoFrameReader reader = reader(channels);
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES - 1);
+            reader.read(transport(new ByteArrayInputStream(stream)), block, FRAMES - 1);
+            for (int i = 0; i < FRAMES - 1; i++)
+                assertSample(block, i, i < 20 ? i : i + 1, channels);
+            assertEquals(reader.getDiscardedBytes(), totalBytes);
+        }
+    }
+
+    @Test
+    public void test_metrics() throws IOException {
+        final int channels = 4;
+        final int totalBytes = TOTAL_BYTES[channels - 1];
+        final byte[] clean = record(channels, FRAMES);
+        clean[60 * totalBytes + 1] ^= 0x10;
+        // lose frames 30 to 32 entirely and corrupt frame 60
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(clean, 0, 30 * totalBytes);
+        stream.write(clean, 33 * totalBytes, clean.length - 33 * totalBytes);
+
+        final BITalinoMetrics metrics = new BITalinoMetrics();
+        final BITalinoFrameReader reader = new BITalinoFrameReader(
+                BITalinoFrameDecoder.forChannels(channels(channels)), 16, metrics);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES - 4);
+        reader.read(transport(new ByteArrayInputStream(stream.toByteArray())), block, FRAMES - 4);
+        assertEquals(metrics.getFramesDecoded(), FRAMES - 4);
+        assertEquals(metrics.getCrcFailures(), 1);
+        assertEquals(metrics.getResyncBytes(), totalBytes);
+        assertEquals(metrics.getSequenceGaps(), 2);
+        assertEquals(metrics.getSequenceGaps(3), 1);
+        assertEquals(metrics.getSequenceGaps(1), 1);
+        assertEquals(metrics.getLostFrames(), 4);
+        assertTrue(metrics.getReadLatency().getCount() > 0);
+        assertTrue(metrics.getDecodeLatency().getCount() > 0);
+    }
+
+    @Test
+    public void test_latency_histogram() {
+        final BITalinoMetrics.Histogram histogram = new BITalinoMetrics().getDecodeLatency();
+        for (int i = 0; i < 99; i++)
+            histogram.record(1000);
+        histogram.record(1000000);
+        assertEquals(histogram.getCount(), 100);
+        assertEquals(histogram.getCount(10), 99);
+        assertEquals(histogram.getTotalNanos(), 99 * 1000 + 1000000);
+        assertEquals(histogram.getQuantileNanos(0.5), 1023);
+        assertEquals(histogram.getQuantileNanos(0.99), 1023);
+        assertEquals(histogram.getQuantileNanos(1), (1L << 20) - 1);
+    }
+
+    @Test
+    public void test_align() {
+        final int totalBytes = TOTAL_BYTES[3];
+        final byte[] clean = record(4, 10);
+        final byte[] window = new byte[clean.length + 3];
+        System.arraycopy(clean, 0, window, 3, clean.length);
+        assertEquals(BITalinoFrameSync.align(window, 0, window.length, totalBytes,
+                BITalinoFrameSync.DEFAULT_FRAMES), 3);
+        assertEquals(BITalinoFrameSync.align(window, 0, 3 + 2 * totalBytes, totalBytes,
+                BITalinoFrameSync.DEFAULT_FRAMES), -1);
+    }
+
+    @Test
+    public void test_replies_between_frames() throws Exception {
+        final byte[] version = "BITalino_v5.1\n".getBytes("US-ASCII");
+        final byte[] state = new byte[BITalinoState.TOTAL_BYTES];
+        state[14] = 9;
+        state[15] |= BITalinoCRC.compute(state, 0, state.length);
+        for (int channels = 1; channels <= 6; channels++) {
+            final int totalBytes = TOTAL_BYTES[channels - 1];
+            final byte[] clean = record(channels, FRAMES);
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(clean, 0, 10 * totalBytes);
+            stream.write(version);
+            stream.write(clean, 10 * totalBytes, 40 * totalBytes);
+            stream.write(state);
+            stream.write(clean, 50 * totalBytes, clean.length - 50 * totalBytes);
+
+            final BITalinoMetrics metrics = new BITalinoMetrics();
+            final BITalinoResponseParser replies = new BITalinoResponseParser();
+            final BITalinoFrameReader reader = new BITalinoFrameReader(
+                    BITalinoFrameDecoder.forChannels(channels(channels)), 16, metrics, replies);
+            final ListenableFuture<String> versionReply = replies.expectVersion();
+            final BITalinoTransport transport = transport(new TrickleInputStream(stream.toByteArray()));
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(FRAMES);
+            reader.read(transport, block, 30);
+            assertEquals(versionReply.get(), "BITalino_v5.1");
+            assertTrue(replies.isBITalino2());
+            final ListenableFuture<BITalinoState> stateReply = replies.expectState();
+            reader.read(transport, block, FRAMES - 30);
+            assertEquals(stateReply.get().getBatteryThreshold(), 9);
+
+            for (int i = 0; i < FRAMES; i++)
+                assertSample(block, i, i, channels);
+            assertEquals(metrics.getCrcFailures(), 0);
+            assertEquals(reader.getDiscardedBytes(), 0);
+        }
+    }
+
+    private static BITalinoTransport transport(final InputStream is) {
+        return new BITalinoStreamTransport(is, new ByteArrayOutputStream());
+    }
+
+    private static BITalinoFrameReader reader(final int channels) {
+        return new BITalinoFrameReader(BITalinoFrameDecoder.forChannels(channels(channels)),
+                16, new BITalinoMetrics());
+    }
+
+    private static int[] channels(final int channels) {
+        final int[] analogChannels = new int[channels];
+        for (int i = 0; i < channels; i++)
+            analogChannels[i] = i;
+        return analogChannels;
+    }
+
+    /**
+     * Builds a stream where sample <tt>n</tt> carries <tt>n</tt>-derived values.
+     */
+    private static byte[] record(final int channels, final int frames) {
+        final int totalBytes = TOTAL_BYTES[channels - 1];
+        final byte[] stream = new byte[frames * totalBytes];
+        final int[] analog = new int[6];
+        for (int n = 0; n < frames; n++) {
+            for (int k = 0; k < 6; k++)
+                analog[k] = value(n, k);
+            BITalinoFrameEncoder.encode(stream, n * totalBytes, totalBytes, n,
+                    n & 0xf, analog, channels);
+        }
+        return stream;
+    }
+
+    private static int value(final int n, final int k) {
+        return (n * 37 + k * 101) & (k < 4 ? 0x3ff : 0x3f);
+    }
+
+    private static void assertSample(final BITalinoFrameBlock block,
+                                     final int index, final int n, final int channels) {
+        assertEquals(block.getSequence(index), n & 0xf);
+        assertEquals(block.getDigital()[index], (byte) (n & 0xf));
+        for (int k = 0; k < channels; k++)
+            assertEquals(block.getAnalog(k, index), value(n, k));
+    }
+
+    /**
+     * Hands out at most a fixed number of bytes per read.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int chunk;
+        private int pos;
+
+        ChunkInputStream(final byte[] data, final int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (pos == data.length)
+                return -1;
+            final int n = Math.min(Math.min(len, chunk), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+    }
+
+    /**
+     * Hands out a single byte per read, like a slow serial link.
+     */
+    private static final class TrickleInputStream extends InputStream {
+
+        private final byte[] data;
+        private int pos;
+
+        TrickleInputStream(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            final int value = read();
+            if (value < 0)
+                return -1;
+            b[off] = (byte) value;
+            return 1;
+        }
+
+    }
+
+}
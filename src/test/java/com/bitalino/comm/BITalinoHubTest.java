@@ -0,0 +1,154 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoHubTest {
+
+    /**
+     * Samples are numbered on analog channels 0 and 2, low and high bits.
+     */
+    private static final BITalinoSimulator.Source COUNTER = new BITalinoSimulator.Source() {
+        @Override
+        public int sample(final long n, final int[] analog) {
+            analog[0] = analog[1] = (int) (n & 0x3ff);
+            analog[2] = (int) (n >> 10 & 0x3ff);
+            return 0;
+        }
+    };
+
+    private static final int[] CHANNELS = {0, 2};
+
+    /**
+     * Host time allowed between samples drained together, for the transport
+     * latency and the boards starting one after the other.
+     */
+    private static final long TOLERANCE_NANOS = 8000000L;
+
+    @Test
+    public void test_merges_devices_by_time() throws Exception {
+        final BITalinoHub hub = new BITalinoHub(1);
+        hub.add(device(1000, simulator()));
+        hub.add(device(100, simulator()));
+        hub.start();
+
+        final BITalinoFrameBlock[] blocks = {new BITalinoFrameBlock(2000),
+                new BITalinoFrameBlock(200)};
+        drain(hub, blocks, new int[]{1000, 100}, 1000000000L, 0);
+        hub.stop();
+
+        assertContiguous(blocks[0]);
+        assertContiguous(blocks[1]);
+        // 10 fast samples per slow sample, drained to the same instant
+        assertAligned(blocks[0], 1000, blocks[1], 100);
+        assertNull(hub.getFailure(0));
+        assertEquals(hub.getRing(1).getDropped(), 0);
+    }
+
+    @Test
+    public void test_lossy_device() throws Exception {
+        final BITalinoSimulator lossy = simulator();
+        lossy.setSeed(11);
+        lossy.setLossRate(0.2);
+        final BITalinoHub hub = new BITalinoHub(2);
+        hub.add(device(1000, simulator()));
+        hub.add(device(1000, lossy));
+        hub.start();
+
+        final BITalinoFrameBlock[] blocks = {new BITalinoFrameBlock(2000),
+                new BITalinoFrameBlock(2000)};
+        drain(hub, blocks, new int[]{1000, 1000}, 1000000000L, 0);
+        hub.stop();
+
+        // a fifth of the lossy device's samples are missing, not late
+        assertTrue(blocks[1].getSize() < 0.9 * blocks[0].getSize());
+        assertAligned(blocks[0], 1000, blocks[1], 1000);
+    }
+
+    @Test
+    public void test_block_backpressure() throws Exception {
+        final BITalinoHub hub = new BITalinoHub(1);
+        hub.add(device(1000, simulator()));
+        hub.add(device(1000, simulator()), 64, BITalinoOverflowPolicy.BLOCK);
+        hub.start();
+
+        // the consumer falls behind, so the second ring fills up
+        final BITalinoFrameBlock[] blocks = {new BITalinoFrameBlock(2000),
+                new BITalinoFrameBlock(2000)};
+        drain(hub, blocks, new int[]{1000, 1000}, 1000000000L, 100);
+        hub.stop();
+
+        assertEquals(hub.getRing(1).getDropped(), 0);
+        assertContiguous(blocks[0]);
+        assertContiguous(blocks[1]);
+        assertAligned(blocks[0], 1000, blocks[1], 1000);
+    }
+
+    /**
+     * Drains until <tt>nanos</tt> after the start, resting <tt>millis</tt>
+     * between calls, checking after each one that the devices were drained to
+     * the same instant.
+     */
+    private static void drain(final BITalinoHub hub, final BITalinoFrameBlock[] blocks,
+                              final int[] rates, final long nanos, final long millis)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        long watermark = 0;
+        while (watermark < nanos && System.currentTimeMillis() < deadline) {
+            watermark = hub.drain(blocks);
+            if (blocks[0].getSize() > 0 && blocks[1].getSize() > 0)
+                assertAligned(blocks[0], rates[0], blocks[1], rates[1]);
+            Thread.sleep(millis);
+        }
+        assertTrue(watermark >= nanos, "Drained to " + watermark);
+    }
+
+    /**
+     * Checks that the last samples drained from two boards started together
+     * were acquired at the same time, give or take a sampling period.
+     */
+    private static void assertAligned(final BITalinoFrameBlock a, final int rateA,
+                                      final BITalinoFrameBlock b, final int rateB) {
+        final long timeA = number(a, a.getSize() - 1) * 1000000000L / rateA;
+        final long timeB = number(b, b.getSize() - 1) * 1000000000L / rateB;
+        final long slack = 1000000000L / Math.min(rateA, rateB) + TOLERANCE_NANOS;
+        assertTrue(Math.abs(timeA - timeB) <= slack,
+                "Drained to sample times " + timeA + " and " + timeB);
+    }
+
+    private static void assertContiguous(final BITalinoFrameBlock block) {
+        for (int i = 0; i < block.getSize(); i++)
+            assertEquals(number(block, i), i);
+    }
+
+    private static long number(final BITalinoFrameBlock block, final int i) {
+        return block.getAnalog(0, i) | (long) block.getAnalog(2, i) << 10;
+    }
+
+    private static BITalinoSimulator simulator() {
+        return new BITalinoSimulator(COUNTER);
+    }
+
+    private static BITalinoDevice device(final int samplerate, final BITalinoSimulator simulator)
+            throws BITalinoException {
+        final BITalinoDevice device = new BITalinoDevice(samplerate, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        return device;
+    }
+
+}
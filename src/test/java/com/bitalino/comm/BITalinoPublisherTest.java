@@ -0,0 +1,207 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoPublisherTest {
+
+    @Test
+    public void test_slow_subscriber_does_not_stall_others() throws Exception {
+        final BITalinoAcquisition acquisition = acquisition();
+        // 16 batches give the fast subscriber 80 ms of slack on a busy
+        // machine, while the slow one falls behind by far more
+        final BITalinoPublisher publisher = new BITalinoPublisher(acquisition, 100, 10,
+                TimeUnit.MILLISECONDS, 16, BITalinoOverflowPolicy.DROP_OLDEST);
+        final TestSubscriber fast = new TestSubscriber(Long.MAX_VALUE, 0);
+        final TestSubscriber slow = new TestSubscriber(1, 20);
+        publisher.subscribe(fast);
+        publisher.subscribe(slow);
+        acquisition.start();
+        while (fast.samples.get() < 20000)
+            Thread.sleep(1);
+        publisher.close();
+        acquisition.stop();
+        assertTrue(fast.completed.await(1, TimeUnit.SECONDS));
+        assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(fast.gaps.get(), 0);
+        assertEquals(slow.excess.get(), 0);
+        assertTrue(slow.batches.get() < fast.batches.get());
+        assertTrue(publisher.getDropped() > 0);
+        assertEquals(publisher.getSubscriberCount(), 0);
+    }
+
+    @Test
+    public void test_non_positive_request() throws Exception {
+        final BITalinoAcquisition acquisition = acquisition();
+        final BITalinoPublisher publisher = new BITalinoPublisher(acquisition, 10, 10,
+                TimeUnit.MILLISECONDS);
+        final TestSubscriber subscriber = new TestSubscriber(0, 0);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.completed.await(1, TimeUnit.SECONDS));
+        assertTrue(subscriber.failure.get() instanceof IllegalArgumentException);
+        publisher.close();
+    }
+
+    @Test
+    public void test_throwing_subscriber_is_cancelled() throws Exception {
+        final BITalinoAcquisition acquisition = acquisition();
+        final BITalinoPublisher publisher = new BITalinoPublisher(acquisition, 100, 10,
+                TimeUnit.MILLISECONDS);
+        final RuntimeException thrown = new IllegalStateException("broken subscriber");
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicBoolean signalled = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread thread, final Throwable t) {
+                failure.set(t);
+                failed.countDown();
+            }
+        });
+        try {
+            publisher.subscribe(new Subscriber<BITalinoFrameBlock>() {
+                @Override
+                public void onSubscribe(final Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(final BITalinoFrameBlock block) {
+                    calls.incrementAndGet();
+                    throw thrown;
+                }
+
+                @Override
+                public void onError(final Throwable t) {
+                    signalled.set(true);
+                }
+
+                @Override
+                public void onComplete() {
+                    signalled.set(true);
+                }
+            });
+            final TestSubscriber healthy = new TestSubscriber(Long.MAX_VALUE, 0);
+            publisher.subscribe(healthy);
+            acquisition.start();
+            assertTrue(failed.await(1, TimeUnit.SECONDS));
+            while (healthy.samples.get() < 5000)
+                Thread.sleep(1);
+            publisher.close();
+            acquisition.stop();
+
+            assertEquals(failure.get(), thrown);
+            assertEquals(calls.get(), 1);
+            // rule 2.13: no signal after the subscriber threw
+            assertFalse(signalled.get());
+            assertTrue(healthy.completed.await(1, TimeUnit.SECONDS));
+            assertEquals(healthy.gaps.get(), 0);
+            assertEquals(publisher.getSubscriberCount(), 0);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+
+    private static BITalinoAcquisition acquisition() throws BITalinoException {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(20);
+        final BITalinoDevice device = new BITalinoDevice(1000, new int[]{2});
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        return new BITalinoAcquisition(device);
+    }
+
+    /**
+     * Requests <tt>batch</tt> batches at a time, taking <tt>millis</tt> to
+     * handle each.
+     */
+    private static final class TestSubscriber implements Subscriber<BITalinoFrameBlock> {
+
+        final long batch;
+        final long millis;
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger samples = new AtomicInteger();
+        final AtomicInteger gaps = new AtomicInteger();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger excess = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        private Subscription subscription;
+        private int prevSeq = -1;
+
+        TestSubscriber(final long batch, final long millis) {
+            this.batch = batch;
+            this.millis = millis;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            outstanding.set((int) Math.min(batch, Integer.MAX_VALUE));
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(final BITalinoFrameBlock block) {
+            // more batches than requested
+            if (outstanding.decrementAndGet() < 0)
+                excess.incrementAndGet();
+            batches.incrementAndGet();
+            samples.addAndGet(block.getSize());
+            for (int i = 0; i < block.getSize(); i++) {
+                if (prevSeq >= 0 && block.getSequence(i) != (prevSeq + 1) % 16)
+                    gaps.incrementAndGet();
+                prevSeq = block.getSequence(i);
+            }
+            if (millis > 0) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (outstanding.get() == 0) {
+                outstanding.set((int) batch);
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable failure) {
+            this.failure.set(failure);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+    }
+
+}
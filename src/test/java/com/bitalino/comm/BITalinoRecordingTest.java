@@ -0,0 +1,163 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoRecordingTest {
+
+    private static final int[] CHANNELS = {1, 3, 4};
+
+    @Test
+    public void test_round_trip() throws IOException {
+        final File file = record();
+        final BITalinoRecordingReader reader = new BITalinoRecordingReader(file);
+        try {
+            assertEquals(reader.getSampleCount(), 1000);
+            assertEquals(reader.getSamplerate(), 1000);
+            assertEquals(reader.getAnalogChannels(), CHANNELS);
+
+            // spans several segments
+            final BITalinoFrameBlock read = new BITalinoFrameBlock(300);
+            assertEquals(reader.read(250, read, 300), 300);
+            for (int i = 0; i < 300; i++) {
+                final int n = 250 + i;
+                assertEquals(read.getSequence(i), n & 0xf);
+                assertEquals(read.getDigital()[i], (byte) (n & 0xf));
+                assertEquals(read.getAnalog(1, i), n & 0x3ff);
+                assertEquals(read.getAnalog(3, i), (n * 3) & 0x3ff);
+                assertEquals(read.getAnalog(4, i), n & 0x3f);
+            }
+
+            read.clear();
+            assertEquals(reader.read(950, read, 300), 50);
+
+            final ByteBuffer frames = reader.frames(120);
+            assertEquals(frames.remaining(), 80 * BITalinoDevice.totalBytes(3));
+
+            for (long sample : new long[]{0, 99, 100, 555, 999}) {
+                assertEquals(reader.timeOf(sample), sample * 1000000L);
+                assertEquals(reader.sampleAt(reader.timeOf(sample)), sample);
+                assertEquals(reader.sampleAt(reader.timeOf(sample) + 999999L), sample);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    @Test
+    public void test_corrupt_frame() throws IOException {
+        final File file = record();
+        final int totalBytes = BITalinoDevice.totalBytes(CHANNELS.length);
+        // break the CRC of sample 310, in the fourth segment
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            final long position = BITalinoRecording.HEADER_BYTES
+                    + 3 * BITalinoRecording.segmentBytes(100, totalBytes)
+                    + BITalinoRecording.INDEX_BYTES + BITalinoRecording.filledBytes(100)
+                    + 11 * totalBytes - 1;
+            raw.seek(position);
+            final int last = raw.read();
+            raw.seek(position);
+            raw.write(last ^ 0x01);
+        } finally {
+            raw.close();
+        }
+
+        final BITalinoRecordingReader reader = new BITalinoRecordingReader(file);
+        try {
+            final BITalinoFrameBlock read = new BITalinoFrameBlock(300);
+            assertEquals(reader.read(250, read, 300), 300);
+            for (int i = 0; i < 300; i++) {
+                final int n = 250 + i;
+                assertEquals(read.getSequence(i), n & 0xf);
+                if (n == 310) {
+                    assertTrue(read.isFilled(i));
+                    assertEquals(read.getAnalog(1, i), 0);
+                    continue;
+                }
+                assertFalse(read.isFilled(i));
+                assertEquals(read.getAnalog(1, i), n & 0x3ff);
+                assertEquals(read.getAnalog(3, i), (n * 3) & 0x3ff);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void test_filled_samples() throws IOException {
+        final File file = File.createTempFile("bitalino", ".rec");
+        file.deleteOnExit();
+        final BITalinoRecordingWriter writer = new BITalinoRecordingWriter(file, 1000, CHANNELS, 10);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(64);
+        for (int n = 0; n < 64; n++) {
+            block.seq[n] = n & 0xf;
+            block.analog[1][n] = (short) n;
+            if (n % 7 == 3) {
+                block.filled[n] = true;
+                block.anyFilled = true;
+            }
+        }
+        block.size = 64;
+        writer.write(block, 0);
+        writer.close();
+
+        final BITalinoRecordingReader reader = new BITalinoRecordingReader(file);
+        try {
+            final BITalinoFrameBlock read = new BITalinoFrameBlock(64);
+            assertEquals(reader.read(0, read, 64), 64);
+            for (int n = 0; n < 64; n++) {
+                assertEquals(read.isFilled(n), n % 7 == 3);
+                // stored with a valid CRC, so the held value survives
+                assertEquals(read.getAnalog(1, n), n);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static File record() throws IOException {
+        final File file = File.createTempFile("bitalino", ".rec");
+        file.deleteOnExit();
+        final BITalinoRecordingWriter writer = new BITalinoRecordingWriter(file, 1000, CHANNELS, 100);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(64);
+        for (int n = 0; n < 1000; ) {
+            final long nanos = n * 1000000L;
+            block.clear();
+            for (int i = 0; i < 64 && n < 1000; i++, n++) {
+                block.seq[i] = n & 0xf;
+                block.digital[i] = (byte) (n & 0xf);
+                block.analog[1][i] = (short) (n & 0x3ff);
+                block.analog[3][i] = (short) ((n * 3) & 0x3ff);
+                block.analog[4][i] = (short) (n & 0x3f);
+                block.size++;
+            }
+            writer.write(block, nanos);
+        }
+        assertEquals(writer.getSampleCount(), 1000);
+        writer.close();
+        return file;
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoResponseParserTest {
+
+    @Test
+    public void test_version() throws Exception {
+        final BITalinoResponseParser replies = new BITalinoResponseParser();
+        final byte[] buffer = "xBITalino_v3.1\n".getBytes(Charsets.US_ASCII);
+        final ListenableFuture<String> version = replies.expectVersion();
+        assertEquals(replies.match(buffer, 0, buffer.length, 3, -1), 0);
+        assertEquals(replies.match(buffer, 1, 5, 3, -1), -1);
+        assertEquals(replies.match(buffer, 1, buffer.length - 1, 3, -1), -1);
+        assertFalse(version.isDone());
+        assertEquals(replies.match(buffer, 1, buffer.length, 3, -1), buffer.length - 1);
+        assertEquals(version.get(), "BITalino_v3.1");
+        assertFalse(replies.isPending());
+        assertFalse(replies.isBITalino2());
+    }
+
+    @Test
+    public void test_unterminated_version() {
+        final BITalinoResponseParser replies = new BITalinoResponseParser();
+        final byte[] buffer = new byte[2 * BITalinoResponseParser.MAX_LINE];
+        System.arraycopy("BITalino".getBytes(Charsets.US_ASCII), 0, buffer, 0, 8);
+        replies.expectVersion();
+        assertEquals(replies.match(buffer, 0, BITalinoResponseParser.MAX_LINE - 1, 3, -1), -1);
+        assertEquals(replies.match(buffer, 0, buffer.length, 3, -1), 0);
+        assertTrue(replies.isPending());
+    }
+
+    @Test
+    public void test_state_needs_following_frame() throws Exception {
+        final int totalBytes = 4;
+        final byte[] buffer = new byte[BITalinoState.TOTAL_BYTES + totalBytes];
+        buffer[13] = 1;
+        buffer[15] |= BITalinoCRC.compute(buffer, 0, BITalinoState.TOTAL_BYTES);
+        BITalinoFrameEncoder.encode(buffer, BITalinoState.TOTAL_BYTES, totalBytes, 5, 0,
+                new int[]{1, 2}, 2);
+
+        final BITalinoResponseParser replies = new BITalinoResponseParser();
+        final ListenableFuture<BITalinoState> state = replies.expectState();
+        assertEquals(replies.match(buffer, 0, buffer.length - 1, totalBytes, 5), -1);
+        assertEquals(replies.match(buffer, 0, buffer.length, totalBytes, 6), 0);
+        assertEquals(replies.match(buffer, 0, buffer.length, totalBytes, 5),
+                BITalinoState.TOTAL_BYTES);
+        assertEquals(state.get().getBattery(), 256);
+    }
+
+    @Test
+    public void test_cancel() {
+        final BITalinoResponseParser replies = new BITalinoResponseParser();
+        final ListenableFuture<BITalinoState> state = replies.expectState();
+        replies.cancel();
+        assertTrue(state.isCancelled());
+        assertFalse(replies.isPending());
+    }
+
+    @Test
+    public void test_firmware_generation() {
+        assertTrue(BITalinoResponseParser.isBITalino2("BITalino_v5.1"));
+        assertTrue(BITalinoResponseParser.isBITalino2("BITalino_v4.2"));
+        assertTrue(BITalinoResponseParser.isBITalino2("BITalino_v10.0"));
+        assertFalse(BITalinoResponseParser.isBITalino2("BITalino_v4.1"));
+        assertFalse(BITalinoResponseParser.isBITalino2("BITalino_v3"));
+        assertFalse(BITalinoResponseParser.isBITalino2("BITalino"));
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoRollupTest {
+
+    private static final int[] CHANNELS = {0, 4};
+    private static final int SAMPLES = 12345;
+
+    @Test
+    public void test_live_and_offline_rollups() throws IOException {
+        final File file = File.createTempFile("bitalino", ".rec");
+        file.deleteOnExit();
+        final BITalinoRecordingWriter recording = new BITalinoRecordingWriter(file, 1000, CHANNELS);
+        final BITalinoRollupWriter rollups = new BITalinoRollupWriter(file, 1000, CHANNELS);
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(333);
+        for (int n = 0; n < SAMPLES; ) {
+            block.clear();
+            for (int i = 0; i < block.getCapacity() && n < SAMPLES; i++, n++) {
+                block.seq[i] = n & 0xf;
+                block.analog[0][i] = (short) value(0, n);
+                block.analog[4][i] = (short) value(4, n);
+                block.size++;
+            }
+            recording.write(block);
+            rollups.add(block);
+        }
+        recording.close();
+        rollups.close();
+        verify(file);
+
+        // rebuilt from the recording alone
+        BITalinoRollupWriter.rollup(file);
+        verify(file);
+    }
+
+    @Test
+    public void test_filled_samples_are_left_out() throws IOException {
+        final File file = File.createTempFile("bitalino", ".rec");
+        file.deleteOnExit();
+        final BITalinoRollupWriter rollups = new BITalinoRollupWriter(file, 1000, CHANNELS,
+                new int[]{10});
+        BITalinoRecording.rollupFile(file, 10).deleteOnExit();
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(30);
+        for (int i = 0; i < 30; i++) {
+            block.seq[i] = i & 0xf;
+            block.analog[0][i] = (short) (500 + i);
+            block.analog[4][i] = (short) (40 + i);
+            // every other sample of the first bucket and the whole second
+            if ((i < 10 && i % 2 == 1) || (i >= 10 && i < 20)) {
+                block.analog[0][i] = 0;
+                block.analog[4][i] = 0;
+                block.filled[i] = true;
+                block.anyFilled = true;
+            }
+        }
+        block.size = 30;
+        rollups.add(block);
+        rollups.close();
+
+        final BITalinoRollupReader reader = new BITalinoRollupReader(file, 10);
+        try {
+            assertEquals(reader.getSampleCount(), 30);
+            assertEquals(reader.getBucketCount(), 3);
+            assertEquals(reader.getMin(0, 0), 500);
+            assertEquals(reader.getMax(0, 0), 508);
+            assertEquals(reader.getMean(0, 0), 504, 1e-3);
+            assertEquals(reader.getMin(4, 0), 40);
+            assertEquals(reader.getMean(4, 0), 44, 1e-3);
+            assertEquals(reader.getMin(0, 1), 0);
+            assertEquals(reader.getMax(0, 1), 0);
+            assertTrue(Double.isNaN(reader.getMean(0, 1)));
+            assertEquals(reader.getMin(0, 2), 520);
+            assertEquals(reader.getMax(0, 2), 529);
+            assertEquals(reader.getMean(0, 2), 524.5, 1e-3);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void verify(final File file) throws IOException {
+        for (int factor : BITalinoRollupWriter.DEFAULT_FACTORS) {
+            BITalinoRecording.rollupFile(file, factor).deleteOnExit();
+            final BITalinoRollupReader reader = new BITalinoRollupReader(file, factor);
+            try {
+                assertEquals(reader.getFactor(), factor);
+                assertEquals(reader.getSampleCount(), SAMPLES);
+                assertEquals(reader.getBucketCount(), (SAMPLES + factor - 1) / factor);
+                for (int channel : CHANNELS) {
+                    final short[] min = new short[reader.getBucketCount()];
+                    final short[] max = new short[min.length];
+                    final float[] mean = new float[min.length];
+                    assertEquals(reader.read(channel, 0, min.length, min, max, mean, 0), min.length);
+                    for (int b = 0; b < min.length; b++) {
+                        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+                        double sum = 0;
+                        final int last = Math.min(SAMPLES, (b + 1) * factor);
+                        for (int n = b * factor; n < last; n++) {
+                            lo = Math.min(lo, value(channel, n));
+                            hi = Math.max(hi, value(channel, n));
+                            sum += value(channel, n);
+                        }
+                        assertEquals(min[b], lo);
+                        assertEquals(max[b], hi);
+                        assertEquals(mean[b], sum / (last - b * factor), 1e-3);
+                        assertEquals(reader.getMean(channel, b), mean[b], 0);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static int value(final int channel, final int n) {
+        return channel < 4 ? (n * 7 + n / 100) % 1024 : (n * 3) % 64;
+    }
+
+}
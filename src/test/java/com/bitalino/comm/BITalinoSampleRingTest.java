@@ -0,0 +1,176 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoSampleRingTest {
+
+    private static final int[] CHANNELS = {0, 3};
+
+    @Test
+    public void test_capacity_is_rounded_up() {
+        assertEquals(new BITalinoSampleRing(100, CHANNELS, BITalinoOverflowPolicy.BLOCK).getCapacity(), 128);
+        assertEquals(new BITalinoSampleRing(64, CHANNELS, BITalinoOverflowPolicy.BLOCK).getCapacity(), 64);
+    }
+
+    @Test
+    public void test_drop_newest() throws InterruptedException {
+        final BITalinoSampleRing ring = new BITalinoSampleRing(8, CHANNELS, BITalinoOverflowPolicy.DROP_NEWEST);
+        assertEquals(ring.publish(samples(0, 6)), 6);
+        assertEquals(ring.publish(samples(6, 6)), 2);
+        assertEquals(ring.getDropped(), 4);
+        assertDrained(ring, 0, 8);
+    }
+
+    @Test
+    public void test_drop_oldest() throws InterruptedException {
+        final BITalinoSampleRing ring = new BITalinoSampleRing(8, CHANNELS, BITalinoOverflowPolicy.DROP_OLDEST);
+        assertEquals(ring.publish(samples(0, 6)), 6);
+        assertEquals(ring.publish(samples(6, 6)), 6);
+        assertEquals(ring.getDropped(), 4);
+        assertDrained(ring, 4, 8);
+        assertEquals(ring.publish(samples(12, 20)), 8);
+        assertDrained(ring, 24, 8);
+    }
+
+    @Test
+    public void test_wraps_around() throws InterruptedException {
+        final BITalinoSampleRing ring = new BITalinoSampleRing(8, CHANNELS, BITalinoOverflowPolicy.BLOCK);
+        for (int n = 0; n < 100; n += 5) {
+            assertEquals(ring.publish(samples(n, 5)), 5);
+            assertDrained(ring, n, 5);
+        }
+    }
+
+    @Test
+    public void test_filled_samples_stay_marked() throws InterruptedException {
+        final BITalinoSampleRing ring = new BITalinoSampleRing(8, CHANNELS, BITalinoOverflowPolicy.BLOCK);
+        final BITalinoFrameBlock out = new BITalinoFrameBlock(5);
+        for (int n = 0; n < 40; n += 5) {
+            final BITalinoFrameBlock in = samples(n, 5);
+            // every third sample is filled
+            for (int i = 0; i < 5; i++) {
+                in.filled[i] = (n + i) % 3 == 0;
+                in.anyFilled |= in.filled[i];
+            }
+            ring.publish(in);
+            out.clear();
+            assertEquals(ring.drain(out, 5), 5);
+            for (int i = 0; i < 5; i++)
+                assertEquals(out.isFilled(i), (n + i) % 3 == 0, "Sample " + (n + i));
+        }
+    }
+
+    @Test
+    public void test_concurrent_producer_and_consumer() throws Exception {
+        final int total = 200000;
+        final BITalinoSampleRing ring = new BITalinoSampleRing(64, CHANNELS, BITalinoOverflowPolicy.BLOCK);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int n = 0; n < total; n += 10)
+                        ring.publish(samples(n, 10));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(32);
+        int expected = 0;
+        while (expected < total) {
+            block.clear();
+            ring.drain(block, 32);
+            for (int i = 0; i < block.getSize(); i++, expected++)
+                assertSample(block, i, expected);
+        }
+        producer.join();
+        assertEquals(ring.getDropped(), 0);
+    }
+
+    @Test
+    public void test_producer_overruns_consumer() throws Exception {
+        final BITalinoSampleRing ring = new BITalinoSampleRing(8, CHANNELS, BITalinoOverflowPolicy.DROP_OLDEST);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int n = 0; !done.get(); n += 8)
+                        ring.publish(samples(n, 8));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        try {
+            // a block larger than the ring, while whole rings are evicted
+            final BITalinoFrameBlock block = new BITalinoFrameBlock(64);
+            final long deadline = System.currentTimeMillis() + 200;
+            long last = -1;
+            while (System.currentTimeMillis() < deadline) {
+                block.clear();
+                final int n = ring.drain(block, 64);
+                assertTrue(n <= ring.getCapacity(), n + " samples");
+                for (int i = 0; i < n; i++) {
+                    final int sample = block.getAnalog(0, i);
+                    assertEquals(block.getAnalog(3, i), (sample * 7) & 0x3ff);
+                    assertTrue(sample != (last & 0x3ff), "Sample " + sample + " drained twice");
+                    last = sample;
+                }
+            }
+        } finally {
+            done.set(true);
+            producer.join();
+        }
+    }
+
+    private static BITalinoFrameBlock samples(final int first, final int count) {
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(count);
+        for (int i = 0; i < count; i++) {
+            final int n = first + i;
+            block.seq[i] = n & 0xf;
+            block.digital[i] = (byte) (n & 0xf);
+            block.analog[0][i] = (short) (n & 0x3ff);
+            block.analog[3][i] = (short) ((n * 7) & 0x3ff);
+        }
+        block.size = count;
+        return block;
+    }
+
+    private static void assertDrained(final BITalinoSampleRing ring,
+                                      final int first, final int count) {
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(count + 4);
+        assertEquals(ring.drain(block, count + 4), count);
+        for (int i = 0; i < count; i++)
+            assertSample(block, i, first + i);
+        assertEquals(ring.size(), 0);
+    }
+
+    private static void assertSample(final BITalinoFrameBlock block,
+                                     final int index, final int n) {
+        assertEquals(block.getSequence(index), n & 0xf);
+        assertEquals(block.getDigital()[index], (byte) (n & 0xf));
+        assertEquals(block.getAnalog(0, index), n & 0x3ff);
+        assertEquals(block.getAnalog(3, index), (n * 7) & 0x3ff);
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.comm;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BITalinoSimulatorTest {
+
+    private static final int[] CHANNELS = {0, 2, 5};
+
+    @Test
+    public void test_acquisition() throws BITalinoException {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        final BITalinoDevice device = new BITalinoDevice(100, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        assertEquals(simulator.getSamplerate(), 100);
+        assertTrue(device.version().startsWith(BITalinoSimulator.VERSION.trim()));
+
+        device.start();
+        assertTrue(simulator.isAcquiring());
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(500);
+        device.read(block);
+        final BITalinoSimulator.SyntheticSource source = new BITalinoSimulator.SyntheticSource();
+        final int[] analog = new int[6];
+        for (int i = 0; i < block.getSize(); i++) {
+            final int digital = source.sample(i, analog);
+            assertEquals(block.getSequence(i), i & 0xf);
+            for (int channel : CHANNELS)
+                assertEquals(block.getAnalog(channel, i), analog[channel]);
+            assertEquals(block.digital[i], digital);
+        }
+        device.stop();
+        assertFalse(simulator.isAcquiring());
+    }
+
+    @Test
+    public void test_real_time_pacing() throws BITalinoException {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(10);
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        device.start();
+        final long start = System.nanoTime();
+        // 2000 samples at ten times 1 kHz take 200 ms
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(2000);
+        device.read(block);
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsed >= 150, "took " + elapsed + " ms");
+        device.stop();
+    }
+
+    @Test
+    public void test_loss_and_corruption() throws BITalinoException {
+        final BITalinoSimulator simulator = new BITalinoSimulator();
+        simulator.setSpeed(Double.POSITIVE_INFINITY);
+        simulator.setSeed(42);
+        simulator.setLossRate(0.01);
+        simulator.setCorruptionRate(0.01);
+        final BITalinoDevice device = new BITalinoDevice(1000, CHANNELS.clone());
+        device.open(simulator.getInputStream(), simulator.getOutputStream());
+        device.start();
+        // every sample delivered is still valid despite the damaged stream
+        final BITalinoFrameBlock block = new BITalinoFrameBlock(5000);
+        device.read(block);
+        assertEquals(block.getSize(), 5000);
+        device.stop();
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class FeatureExtractorTest {
+
+    /**
+     * Height of the unscaled response, reached at ln(4 / 0.75) / (1 / 0.75 - 1 / 4) s.
+     */
+    private static final double RESPONSE_PEAK;
+
+    static {
+        final double t = Math.log(4 / 0.75) / (1 / 0.75 - 1.0 / 4);
+        RESPONSE_PEAK = Math.exp(-t / 4) - Math.exp(-t / 0.75);
+    }
+
+    @Test
+    public void test_sliding_statistics() {
+        final Random random = new Random(3);
+        final int length = 50;
+        final double[] data = new double[10000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = 1000 + random.nextGaussian();
+        final SlidingStatistics statistics = new SlidingStatistics(length);
+        for (int i = 0; i < data.length; i++) {
+            statistics.add(data[i]);
+            final int from = Math.max(0, i - length + 1);
+            final int count = i - from + 1;
+            double sum = 0, squares = 0;
+            for (int k = from; k <= i; k++) {
+                sum += data[k];
+                squares += data[k] * data[k];
+            }
+            final double mean = sum / count;
+            double variance = 0;
+            for (int k = from; k <= i; k++)
+                variance += (data[k] - mean) * (data[k] - mean);
+            assertEquals(statistics.getCount(), count);
+            assertEquals(statistics.getMean(), mean, 1e-9);
+            assertEquals(statistics.getRms(), Math.sqrt(squares / count), 1e-9);
+            assertEquals(statistics.getVariance(), variance / count, 1e-6);
+        }
+    }
+
+    @Test
+    public void test_raw_and_scaled_input_agree() {
+        final short[] raw = new short[300];
+        final double[] scaled = new double[raw.length];
+        for (int i = 0; i < raw.length; i++)
+            scaled[i] = raw[i] = (short) ((i * 37) % 1024);
+        final SlidingStatistics fromRaw = new SlidingStatistics(64);
+        final SlidingStatistics fromScaled = new SlidingStatistics(64);
+        fromRaw.add(raw, 0, raw.length);
+        fromScaled.add(scaled, 0, scaled.length);
+        assertEquals(fromRaw.getMean(), fromScaled.getMean());
+        assertEquals(fromRaw.getVariance(), fromScaled.getVariance());
+    }
+
+    @Test
+    public void test_moving_envelope() {
+        final Random random = new Random(5);
+        final int length = 25;
+        final double[] data = new double[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = 512 + random.nextInt(200) - 100;
+        final MovingEnvelope envelope = new MovingEnvelope(length, 512);
+        for (int i = 0; i < data.length; i++) {
+            envelope.add(data[i]);
+            double max = 0;
+            for (int k = Math.max(0, i - length + 1); k <= i; k++)
+                max = Math.max(max, Math.abs(data[k] - 512));
+            assertEquals(envelope.getEnvelope(), max);
+        }
+    }
+
+    @Test
+    public void test_heart_rate() {
+        final int samplerate = 1000;
+        final double bpm = 72;
+        final double period = 60.0 / bpm;
+        final Random random = new Random(11);
+        final HeartRateDetector detector = new HeartRateDetector(samplerate);
+        final double[] batch = new double[100];
+        for (int n = 0; n < 30 * samplerate; n += batch.length) {
+            for (int i = 0; i < batch.length; i++) {
+                final double t = (double) (n + i) / samplerate;
+                final double phase = t % period;
+                batch[i] = gaussian(phase, 0.3, 0.01)
+                        + 0.3 * gaussian(phase, 0.55, 0.04)
+                        + 0.3 * Math.sin(2 * Math.PI * 0.3 * t)
+                        + 0.02 * random.nextGaussian();
+            }
+            detector.add(batch, 0, batch.length);
+        }
+        assertEquals(detector.getHeartRate(), bpm, 1);
+        assertEquals(detector.getLastInterval(), period, 0.01);
+        // two seconds are spent learning thresholds
+        assertTrue(detector.getBeats() >= 32 && detector.getBeats() <= 34,
+                detector.getBeats() + " beats");
+    }
+
+    @Test
+    public void test_missing_samples_are_held() {
+        final Random random = new Random(9);
+        final FeatureExtractor[][] pairs = {
+                {new SlidingStatistics(50), new SlidingStatistics(50)},
+                {new MovingEnvelope(25, 512), new MovingEnvelope(25, 512)}};
+        for (FeatureExtractor[] pair : pairs) {
+            // missing samples before the first valid one are skipped
+            pair[0].add(Double.NaN);
+            double last = 0;
+            for (int i = 0; i < 2000; i++) {
+                final double sample = 512 + random.nextInt(200) - 100;
+                if (i % 13 == 5) {
+                    pair[0].add(i % 2 == 0 ? Double.NaN : Double.NEGATIVE_INFINITY);
+                    pair[1].add(last);
+                } else {
+                    pair[0].add(sample);
+                    pair[1].add(sample);
+                    last = sample;
+                }
+            }
+            final String features = pair[0].toString();
+            assertEquals(features, pair[1].toString());
+            assertTrue(!features.contains("NaN") && !features.contains("Infinity"), features);
+        }
+
+        // a detector fed gaps keeps counting time, so the rate is unchanged
+        final HeartRateDetector detector = new HeartRateDetector(1000);
+        final double period = 60.0 / 72;
+        for (int n = 0; n < 30 * 1000; n++) {
+            final double t = n / 1000.0;
+            detector.add(n % 50 < 2 ? Double.NaN : gaussian(t % period, 0.3, 0.01)
+                    + 0.3 * gaussian(t % period, 0.55, 0.04));
+        }
+        assertEquals(detector.getHeartRate(), 72, 1);
+    }
+
+    @Test
+    public void test_skin_conductance_responses() {
+        final int samplerate = 100;
+        final ScrDetector detector = new ScrDetector(samplerate);
+        final double[] onsets = {10, 30, 50};
+        for (int n = 0; n < 70 * samplerate; n++) {
+            final double t = (double) n / samplerate;
+            double value = 5;
+            for (double onset : onsets)
+                value += 0.5 * response(t - onset);
+            detector.add(value);
+        }
+        assertEquals(detector.getResponses(), 3);
+        assertEquals(detector.getLastAmplitude(), 0.5, 0.1);
+        assertEquals((double) detector.getLastPeak() / samplerate, 52, 1.5);
+    }
+
+    @Test
+    public void test_skin_conductance_saturation() {
+        final int samplerate = 100;
+        final ScrDetector detector = new ScrDetector(samplerate);
+        // a shorted electrode reads 1023, which scales to infinity
+        final double saturated = SensorDataConverter.scaleEDA(0, 1023);
+        assertTrue(Double.isInfinite(saturated));
+        detector.add(saturated);
+        for (int n = 0; n < 70 * samplerate; n++) {
+            final double t = (double) n / samplerate;
+            double value = 5;
+            for (double onset : new double[]{10, 50})
+                value += 0.5 * response(t - onset);
+            detector.add(n >= 30 * samplerate && n < 31 * samplerate ? saturated
+                    : n == 40 * samplerate ? Double.NaN : value);
+        }
+        assertEquals(detector.getResponses(), 2);
+        assertEquals(detector.getLastAmplitude(), 0.5, 0.1);
+        assertEquals((double) detector.getLastPeak() / samplerate, 52, 1.5);
+    }
+
+    @Test
+    public void test_skin_conductance_raw_and_scaled_input_agree() {
+        final int samplerate = 100;
+        final SensorLookupTable table = SensorLookupTable.get(SensorLookupTable.Sensor.EDA, 2);
+        final ScrDetector fromRaw = new ScrDetector(samplerate, ScrDetector.DEFAULT_MIN_AMPLITUDE,
+                table);
+        final ScrDetector fromScaled = new ScrDetector(samplerate);
+        final short[] raw = new short[70 * samplerate];
+        final double[] scaled = new double[raw.length];
+        for (int n = 0; n < raw.length; n++) {
+            final double t = (double) n / samplerate;
+            // about 5 microSiemens, rising by 0.5 at each onset
+            double value = 5;
+            for (double onset : new double[]{10, 30, 50})
+                value += 0.5 * response(t - onset);
+            raw[n] = (short) Math.round(1023 * (1 - 1 / value));
+            scaled[n] = table.convert(raw[n]);
+        }
+        fromRaw.add(raw, 0, raw.length);
+        fromScaled.add(scaled, 0, scaled.length);
+        assertEquals(fromRaw.getResponses(), 3);
+        assertEquals(fromRaw.getResponses(), fromScaled.getResponses());
+        assertEquals(fromRaw.getLastPeak(), fromScaled.getLastPeak());
+        assertEquals(fromRaw.getLastAmplitude(), fromScaled.getLastAmplitude());
+    }
+
+    private static double gaussian(final double x, final double mean, final double width) {
+        return Math.exp(-(x - mean) * (x - mean) / (2 * width * width));
+    }
+
+    /**
+     * A response rising to 1 about 1.5 s after onset, then slowly decaying.
+     */
+    private static double response(final double t) {
+        return t <= 0 ? 0 : (Math.exp(-t / 4) - Math.exp(-t / 0.75)) / RESPONSE_PEAK;
+    }
+
+}
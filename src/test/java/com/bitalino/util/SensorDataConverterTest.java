@@ -78,4 +78,82 @@ public class SensorDataConverterTest {
         assertEquals(SensorDataConverter.scaleEEG(0, 1023), 41.25);
     }
 
+    @Test
+    public void test_bulk_conversions_match_scalar() {
+        final int[] raw = new int[1024];
+        final short[] shortRaw = new short[1024];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = i;
+            shortRaw[i] = (short) i;
+        }
+        final double[] out = new double[raw.length + 1];
+        final double[] shortOut = new double[raw.length + 1];
+
+        for (int port : new int[]{0, 4}) {
+            final int length = port < 4 ? 1024 : 64;
+            SensorDataConverter.scaleEMG(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scaleEMG(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleEMG(port, i));
+
+            SensorDataConverter.scaleECG(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scaleECG(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleECG(port, i));
+
+            SensorDataConverter.scaleAccelerometer(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scaleAccelerometer(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleAccelerometer(port, i));
+
+            SensorDataConverter.scaleAccelerometerWithPrecision(port, raw, 0, length, 190, 280, out, 1);
+            SensorDataConverter.scaleAccelerometerWithPrecision(port, shortRaw, 0, length, 190, 280, shortOut, 1);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i,
+                        SensorDataConverter.scaleAccelerometerWithPrecision(port, i, 190, 280));
+
+            SensorDataConverter.scaleEDA(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scaleEDA(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleEDA(port, i));
+
+            SensorDataConverter.scaleLuminosity(port, raw, 0, length, out, 1);
+            SensorDataConverter.scaleLuminosity(port, shortRaw, 0, length, shortOut, 1);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleLuminosity(port, i));
+
+            for (boolean celsius : new boolean[]{true, false}) {
+                SensorDataConverter.scaleTMP(port, raw, 0, length, celsius, out, 1, true);
+                SensorDataConverter.scaleTMP(port, shortRaw, 0, length, celsius, shortOut, 1, true);
+                for (int i = 0; i < length; i++)
+                    assertBulk(out, shortOut, i, SensorDataConverter.scaleTMP(port, i, celsius));
+            }
+
+            SensorDataConverter.scalePZT(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scalePZT(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scalePZT(port, i));
+
+            SensorDataConverter.scaleEEG(port, raw, 0, length, out, 1, true);
+            SensorDataConverter.scaleEEG(port, shortRaw, 0, length, shortOut, 1, true);
+            for (int i = 0; i < length; i++)
+                assertBulk(out, shortOut, i, SensorDataConverter.scaleEEG(port, i));
+        }
+    }
+
+    @Test
+    public void test_bulk_conversion_without_rounding() {
+        final double[] out = new double[1];
+        SensorDataConverter.scaleEMG(0, new int[]{100}, 0, 1, out, 0, false);
+        assertEquals(out[0], 100 * 3.3 / 1023 - 3.3 / 2);
+    }
+
+    private static void assertBulk(final double[] out, final double[] shortOut,
+                                   final int raw, final double expected) {
+        assertEquals(Double.doubleToLongBits(out[raw + 1]), Double.doubleToLongBits(expected),
+                "raw " + raw);
+        assertEquals(Double.doubleToLongBits(shortOut[raw + 1]), Double.doubleToLongBits(expected),
+                "raw " + raw);
+    }
+
 }
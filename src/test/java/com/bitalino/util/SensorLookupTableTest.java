@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class SensorLookupTableTest {
+
+    @Test
+    public void test_tables_match_scalar_conversion() {
+        for (SensorLookupTable.Sensor sensor : SensorLookupTable.Sensor.values()) {
+            for (int port = 0; port < 6; port++) {
+                final SensorLookupTable table = SensorLookupTable.get(sensor, port);
+                assertEquals(table.size(), port < 4 ? 1024 : 64);
+                final short[] raw = new short[table.size()];
+                for (int i = 0; i < raw.length; i++)
+                    raw[i] = (short) i;
+                final double[] out = new double[raw.length];
+                table.convert(raw, 0, raw.length, out, 0);
+                for (int i = 0; i < raw.length; i++) {
+                    final double expected = sensor.scale(port, i);
+                    assertEquals(Double.doubleToLongBits(table.convert(i)),
+                            Double.doubleToLongBits(expected), sensor + " raw " + i);
+                    assertEquals(Double.doubleToLongBits(out[i]),
+                            Double.doubleToLongBits(expected), sensor + " raw " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_eda_saturates_to_infinity() {
+        assertEquals(SensorLookupTable.get(SensorLookupTable.Sensor.EDA, 0).convert(1023),
+                Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void test_missing_samples_convert_to_nan() {
+        final SensorLookupTable table = SensorLookupTable.get(SensorLookupTable.Sensor.ECG, 0);
+        final short[] raw = {512, 0, 600};
+        final boolean[] missing = {false, true, false};
+        final double[] out = new double[3];
+        table.convert(raw, missing, 0, 3, out, 0);
+        assertEquals(out[0], table.convert(512));
+        assertTrue(Double.isNaN(out[1]));
+        assertEquals(out[2], table.convert(600));
+    }
+
+    @Test
+    public void test_tables_are_shared() {
+        assertSame(SensorLookupTable.get(SensorLookupTable.Sensor.EMG, 1),
+                SensorLookupTable.get(SensorLookupTable.Sensor.EMG, 1));
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bitalino.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SignalFilterTest {
+
+    private static final int SAMPLERATE = 1000;
+
+    @Test
+    public void test_notch_rejects_mains() {
+        final BiquadFilter notch = BiquadFilter.notch(SAMPLERATE, 50, 30, 1);
+        assertTrue(gain(notch, 50) < 0.01);
+        assertEquals(gain(notch, 10), 1, 0.01);
+        assertEquals(gain(notch, 200), 1, 0.01);
+    }
+
+    @Test
+    public void test_butterworth_band_pass() {
+        final BiquadFilter emg = BiquadFilter.bandPass(SAMPLERATE, 20, 450, 4, 1);
+        assertEquals(emg.getSections(), 4);
+        assertEquals(gain(emg, 100), 1, 0.01);
+        // -3 dB at both edges
+        assertEquals(gain(emg, 20), Math.sqrt(0.5), 0.03);
+        assertEquals(gain(emg, 450), Math.sqrt(0.5), 0.05);
+        assertTrue(gain(emg, 2) < 0.001);
+    }
+
+    @Test
+    public void test_fir_low_pass() {
+        final FirFilter fir = FirFilter.lowPass(SAMPLERATE, 40, 101, 1);
+        assertEquals(gain(fir, 5), 1, 0.01);
+        assertTrue(gain(fir, 150) < 0.01);
+    }
+
+    @Test
+    public void test_batches_and_channels_are_independent() {
+        final SignalFilter[] filters = {
+                new FilterChain(BiquadFilter.notch(SAMPLERATE, 50, 30, 2),
+                        BiquadFilter.lowPass(SAMPLERATE, 100, 4, 2)),
+                FirFilter.lowPass(SAMPLERATE, 100, 31, 2)};
+        for (SignalFilter filter : filters) {
+            final double[] whole = signal(1000, 7);
+            final double[] batched = signal(1000, 7);
+            final double[] other = signal(1000, 13);
+            filter.filter(0, whole, 0, whole.length);
+            filter.reset();
+            // interleave batches of two channels, of varying sizes
+            for (int offset = 0, size = 1; offset < batched.length; offset += size, size++) {
+                final int length = Math.min(size, batched.length - offset);
+                filter.filter(0, batched, offset, length);
+                filter.filter(1, other, offset, length);
+            }
+            for (int i = 0; i < whole.length; i++)
+                assertEquals(batched[i], whole[i], 1e-12);
+        }
+    }
+
+    @Test
+    public void test_decimation() {
+        // 1000 Hz to 100 Hz: 10 Hz passes, 180 Hz would alias to 20 Hz
+        assertEquals(decimatedGain(10), 1, 0.01);
+        assertTrue(decimatedGain(180) < 0.01);
+
+        final double[] whole = signal(1000, 7);
+        final double[] out = new double[whole.length / 10 + 1];
+        final Decimator decimator = new Decimator(10, 1);
+        assertEquals(decimator.decimate(0, whole, 0, whole.length, out, 0), 100);
+        decimator.reset();
+        final double[] batched = new double[out.length];
+        int written = 0;
+        for (int offset = 0, size = 1; offset < whole.length; offset += size, size += 3)
+            written += decimator.decimate(0, whole, offset,
+                    Math.min(size, whole.length - offset), batched, written);
+        assertEquals(written, 100);
+        for (int i = 0; i < written; i++)
+            assertEquals(batched[i], out[i], 1e-12);
+    }
+
+    private static double decimatedGain(final double frequency) {
+        final double[] data = new double[10 * SAMPLERATE];
+        for (int i = 0; i < data.length; i++)
+            data[i] = Math.sin(2 * Math.PI * frequency * i / SAMPLERATE);
+        final double[] out = new double[data.length / 10 + 1];
+        final int n = new Decimator(10, 1).decimate(0, data, 0, data.length, out, 0);
+        double sum = 0;
+        for (int i = n / 2; i < n; i++)
+            sum += out[i] * out[i];
+        return Math.sqrt(2 * sum / (n - n / 2));
+    }
+
+    @Test
+    public void test_missing_samples_are_held() {
+        final SignalFilter[] filters = {BiquadFilter.lowPass(SAMPLERATE, 100, 2, 1),
+                FirFilter.lowPass(SAMPLERATE, 100, 31, 1)};
+        for (SignalFilter filter : filters) {
+            final double[] gappy = signal(1000, 7);
+            final double[] held = signal(1000, 7);
+            for (int i = 100; i < 1000; i += 97) {
+                gappy[i] = gappy[i + 1] = Double.NaN;
+                gappy[i + 2] = Double.POSITIVE_INFINITY;
+                held[i] = held[i + 1] = held[i + 2] = held[i - 1];
+            }
+            filter.filter(0, gappy, 0, gappy.length);
+            filter.reset();
+            filter.filter(0, held, 0, held.length);
+            // missing samples stay missing, the others never become so
+            for (int i = 0; i < gappy.length; i++) {
+                if (i >= 100 && (i - 100) % 97 < 3)
+                    assertTrue(Double.isNaN(gappy[i]), "Sample " + i);
+                else
+                    assertEquals(gappy[i], held[i], 1e-12);
+            }
+        }
+
+        final double[] gappy = signal(1000, 7);
+        final double[] held = signal(1000, 7);
+        gappy[500] = Double.NaN;
+        held[500] = held[499];
+        final double[] out = new double[101];
+        final double[] expected = new double[101];
+        new Decimator(10, 1).decimate(0, gappy, 0, gappy.length, out, 0);
+        new Decimator(10, 1).decimate(0, held, 0, held.length, expected, 0);
+        for (int i = 0; i < 100; i++)
+            assertEquals(out[i], expected[i], 1e-12);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void test_frequency_above_nyquist() {
+        BiquadFilter.notch(100, 50, 30, 1);
+    }
+
+    private static double[] signal(final int length, final double frequency) {
+        final double[] data = new double[length];
+        for (int i = 0; i < length; i++)
+            data[i] = Math.sin(2 * Math.PI * frequency * i / SAMPLERATE) + 0.3 * Math.cos(i);
+        return data;
+    }
+
+    /**
+     * Measures the amplitude of a unit sine at <tt>frequency</tt> once the
+     * filter has settled.
+     */
+    private static double gain(final SignalFilter filter, final double frequency) {
+        filter.reset();
+        final double[] data = new double[10 * SAMPLERATE];
+        for (int i = 0; i < data.length; i++)
+            data[i] = Math.sin(2 * Math.PI * frequency * i / SAMPLERATE);
+        filter.filter(0, data, 0, data.length);
+        double sum = 0;
+        for (int i = data.length / 2; i < data.length; i++)
+            sum += data[i] * data[i];
+        return Math.sqrt(2 * sum / (data.length / 2));
+    }
+
+}